@@ -0,0 +1,126 @@
+package com.example.chatserverweb.loadtest;
+
+import com.example.chatserverweb.application.BinaryFrameCodec;
+import com.example.chatserverweb.application.ChatClock;
+import com.example.chatserverweb.application.ChatFrameParser;
+import com.example.chatserverweb.application.FrameFields;
+import com.example.chatserverweb.application.FrameType;
+import com.example.chatserverweb.application.OutboundFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+// Tekstprotokollen mod chat.bin.v1 for en chatbesked med content på contentLength tegn: ind
+// (PRIVATE|modtager|tekst fra klienten, parset til felter som dispatch ser dem) og ud (en TEXT
+// fra en bruger, kodet til de bytes der sendes). Bytes på wire for hver retning skrives ved start.
+//
+// mvn -Ploadtest test-compile exec:exec@jmh -Djmh.args=CodecBench
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBench {
+
+    @Param({"8", "64", "512"})
+    int contentLength;
+
+    private String content;
+    private String textIn;
+    private ByteBuffer binaryIn;
+    private ChatClock clock;
+    private BinaryFrameCodec codec;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < contentLength) sb.append("hello ");
+        content = sb.substring(0, contentLength);
+        textIn = "client-1f3a|1760000000000|PRIVATE|bob|" + content;
+        binaryIn = encodeInbound(FrameType.PRIVATE, "bob", content);
+        clock = new ChatClock(ChatClock.Mode.FORMATTED, Duration.ofSeconds(1));
+        codec = new BinaryFrameCodec();
+
+        OutboundFrame out = frame();
+        System.out.printf("%n# content %d chars: in text %d bytes, binary %d bytes; out text %d bytes, binary %d bytes%n",
+                contentLength, textIn.getBytes(StandardCharsets.UTF_8).length, binaryIn.remaining(),
+                out.text(clock).getPayload().getBytes(StandardCharsets.UTF_8).length, codec.encode(out).remaining());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        clock.close();
+    }
+
+    @Benchmark
+    public void parseText(Blackhole bh) {
+        ChatFrameParser parser = ChatFrameParser.local();
+        parser.parse(textIn);
+        FrameFields fields = FrameFields.text(parser.content());
+        bh.consume(parser.type());
+        bh.consume(fields.get(0));
+        bh.consume(fields.from(1));
+    }
+
+    @Benchmark
+    public void parseBinary(Blackhole bh) {
+        BinaryFrameCodec.Inbound frame = BinaryFrameCodec.decode(binaryIn.duplicate());
+        FrameFields fields = FrameFields.of(frame.fields());
+        bh.consume(frame.type());
+        bh.consume(fields.get(0));
+        bh.consume(fields.from(1));
+    }
+
+    // Containeren laver teksten om til UTF-8 ved afsendelse, så det tælles med
+    @Benchmark
+    public byte[] encodeText() {
+        return frame().text(clock).getPayload().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeBinary() {
+        return codec.encode(frame());
+    }
+
+    // Ny frame hver gang, da en frame gemmer sin kodning
+    private OutboundFrame frame() {
+        return new OutboundFrame("alice", 0x48E1E2, 1760000000000L, FrameType.TEXT, content);
+    }
+
+    private static ByteBuffer encodeInbound(FrameType type, String... fields) {
+        ByteBuffer buf = ByteBuffer.allocate(1024);
+        buf.put((byte) type.getCode());
+        putVarint(buf, fields.length);
+        for (String field : fields) {
+            byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+            putVarint(buf, bytes.length);
+            buf.put(bytes);
+        }
+        return buf.flip();
+    }
+
+    private static void putVarint(ByteBuffer buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+}
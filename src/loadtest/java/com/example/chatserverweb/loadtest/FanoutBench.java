@@ -0,0 +1,121 @@
+package com.example.chatserverweb.loadtest;
+
+import com.example.chatserverweb.application.BinaryFrameCodec;
+import com.example.chatserverweb.application.ChatClock;
+import com.example.chatserverweb.application.ChatMetrics;
+import com.example.chatserverweb.application.FrameType;
+import com.example.chatserverweb.application.OutboundFrame;
+import com.example.chatserverweb.application.OverflowPolicy;
+import com.example.chatserverweb.application.SessionOutbox;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+// Allokering og tid pr. modtager når én rumbesked sendes til RECIPIENTS sessioner gennem deres
+// SessionOutbox. Sessionerne gør det containeren gør: tekst kodes til UTF-8 med sessionens egen
+// encoder, binært kopieres bufferen ud. Framen laves på ny for hver udsendelse, som i broadcastRoom.
+//
+// perRecipientText er som før: én streng, men en ny TextMessage pr. modtager. sharedText er
+// tekstprotokollen nu (én TextMessage til alle, UTF-8 stadig pr. afsendelse i containeren).
+// sharedBinary er chat.bin.v1, kodet én gang til én buffer som alle modtagere får en view af.
+//
+// mvn -Ploadtest test-compile exec:exec@jmh -Djmh.args="FanoutBench -prof gc"
+// (gc.alloc.rate.norm er bytes pr. modtager)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(FanoutBench.RECIPIENTS)
+public class FanoutBench {
+
+    static final int RECIPIENTS = 2_000;
+    private static final String CONTENT = "has anyone seen the build break on main this morning? it was fine yesterday";
+
+    private ChatClock clock;
+    private BinaryFrameCodec codec;
+    private SessionOutbox[] outboxes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        clock = new ChatClock(ChatClock.Mode.FORMATTED, Duration.ofSeconds(1));
+        codec = new BinaryFrameCodec();
+        ChatMetrics metrics = new ChatMetrics(new SimpleMeterRegistry(), 0, 1);
+        outboxes = new SessionOutbox[RECIPIENTS];
+        for (int i = 0; i < RECIPIENTS; i++) {
+            // Writer-executoren kører med det samme, så sessionen har sendt før send returnerer
+            outboxes[i] = new SessionOutbox(session("s" + i), 64, OverflowPolicy.DROP_NEW, Runnable::run, metrics);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        clock.close();
+    }
+
+    @Benchmark
+    public void perRecipientText() {
+        String payload = frame().text(clock).getPayload();
+        for (SessionOutbox outbox : outboxes) outbox.send(new TextMessage(payload));
+    }
+
+    @Benchmark
+    public void sharedText() {
+        OutboundFrame frame = frame();
+        for (SessionOutbox outbox : outboxes) outbox.send(frame.text(clock));
+    }
+
+    @Benchmark
+    public void sharedBinary() {
+        OutboundFrame frame = frame();
+        for (SessionOutbox outbox : outboxes) outbox.send(frame.binary(codec));
+    }
+
+    private OutboundFrame frame() {
+        return new OutboundFrame("alice", 0x48E1E2, clock.millis(), FrameType.TEXT, CONTENT);
+    }
+
+    // En session der skriver frames til sin egen udgående buffer, som containeren gør
+    private static WebSocketSession session(String id) {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        ByteBuffer out = ByteBuffer.allocate(8192);
+        return (WebSocketSession) Proxy.newProxyInstance(FanoutBench.class.getClassLoader(),
+                new Class<?>[]{WebSocketSession.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "getId" -> id;
+                    case "isOpen" -> true;
+                    case "sendMessage" -> {
+                        out.clear();
+                        if (args[0] instanceof TextMessage t) {
+                            encoder.reset().encode(CharBuffer.wrap(t.getPayload()), out, true);
+                        } else {
+                            out.put(((BinaryMessage) args[0]).getPayload());
+                        }
+                        yield null;
+                    }
+                    default -> null;
+                });
+    }
+}
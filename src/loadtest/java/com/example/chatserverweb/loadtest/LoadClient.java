@@ -0,0 +1,277 @@
+package com.example.chatserverweb.loadtest;
+
+import com.example.chatserverweb.application.FrameCompressor;
+import com.example.chatserverweb.application.FrameType;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.Endpoint;
+import jakarta.websocket.EndpointConfig;
+import jakarta.websocket.MessageHandler;
+import jakarta.websocket.Session;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Én simuleret bruger. Måler latency på de beskeder den modtager fra andre
+// lastbrugere ud fra det tidspunkt (nanoTime) afsenderen har lagt i indholdet.
+// Sender altid tekst, men modtager i den protokol forbindelsen har forhandlet.
+// I AT_LEAST_ONCE-rum tages SEQ-frames kun i rækkefølge, og ACK sendes samlet for hver
+// load.ack-every frames eller senest load.ack-delay ms efter den første ubekræftede
+class LoadClient extends Endpoint {
+
+    static final String MARKER = "L:";
+    private static final int ACK_EVERY = Integer.getInteger("load.ack-every", 32);
+    private static final int ACK_DELAY = Integer.getInteger("load.ack-delay", 200);
+
+    private final String name;
+    private final String password;
+    private final Recorder latency;
+    private final LongAdder delivered;
+    private final LongAdder errors;
+    private final LongAdder frames;
+    private final ScheduledExecutorService retry;
+    final CompletableFuture<Void> loggedIn = new CompletableFuture<>();
+    final CompletableFuture<Void> joined = new CompletableFuture<>();
+    private volatile Session session;
+    // Afsendernavne fra SYMBOL-frames i den binære protokol
+    private final Map<Integer, String> symbols = new ConcurrentHashMap<>();
+    // Rummet og det seneste seq taget imod og bekræftet. Beskyttet af this
+    private String ackRoom = "";
+    private long seq;
+    private long ackSent;
+    private boolean ackScheduled;
+    // Næste element i en tekst-BATCH hører til en SEQ der blev droppet
+    private boolean skipNext;
+
+    LoadClient(String name, String password, Recorder latency, LongAdder delivered, LongAdder errors,
+               LongAdder frames, ScheduledExecutorService retry) {
+        this.name = name;
+        this.password = password;
+        this.latency = latency;
+        this.delivered = delivered;
+        this.errors = errors;
+        this.frames = frames;
+        this.retry = retry;
+    }
+
+    String name() {
+        return name;
+    }
+
+    @Override
+    public void onOpen(Session session, EndpointConfig config) {
+        this.session = session;
+        session.addMessageHandler(new MessageHandler.Whole<String>() {
+            @Override
+            public void onMessage(String message) {
+                received(message);
+            }
+        });
+        session.addMessageHandler(new MessageHandler.Whole<ByteBuffer>() {
+            @Override
+            public void onMessage(ByteBuffer message) {
+                frames.increment();
+                received(message, System.nanoTime());
+            }
+        });
+    }
+
+    @Override
+    public void onClose(Session session, CloseReason closeReason) {
+        loggedIn.completeExceptionally(new IllegalStateException("Closed: " + closeReason));
+        joined.completeExceptionally(new IllegalStateException("Closed: " + closeReason));
+    }
+
+    @Override
+    public void onError(Session session, Throwable thr) {
+        errors.increment();
+    }
+
+    void login() {
+        send("load|0|LOGIN|" + name + "|" + password);
+    }
+
+    void join(String room) {
+        send("load|0|JOIN_ROOM|" + room);
+    }
+
+    // Basic remote må ikke bruges fra flere tråde på samme tid
+    void send(String frame) {
+        Session s = session;
+        if (s == null || !s.isOpen()) {
+            errors.increment();
+            return;
+        }
+        synchronized (this) {
+            try {
+                s.getBasicRemote().sendText(frame);
+            } catch (IOException | IllegalStateException e) {
+                errors.increment();
+            }
+        }
+    }
+
+    void close() {
+        Session s = session;
+        if (s == null) return;
+        try {
+            s.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void received(String message) {
+        frames.increment();
+        received(message, System.nanoTime());
+    }
+
+    // sender|color|timestamp|type|content
+    private void received(String message, long now) {
+        if (skipNext) {
+            skipNext = false;
+            return;
+        }
+        int p1 = message.indexOf('|');
+        int p2 = message.indexOf('|', p1 + 1);
+        int p3 = message.indexOf('|', p2 + 1);
+        int p4 = message.indexOf('|', p3 + 1);
+        if (p1 < 0 || p2 < 0 || p3 < 0 || p4 < 0) return;
+        String type = message.substring(p3 + 1, p4);
+        if (type.equals("BATCH")) {
+            int from = p4 + 1;
+            while (from <= message.length()) {
+                int end = message.indexOf('\u001E', from);
+                if (end < 0) end = message.length();
+                received(message.substring(from, end), now);
+                from = end + 1;
+            }
+            return;
+        }
+        if (type.equals("SEQ")) {
+            // rum|seq<RS>frame. I en BATCH er framen batchens næste element
+            int sep = message.indexOf('\u001E', p4 + 1);
+            boolean accepted = accept(message.substring(p4 + 1, sep < 0 ? message.length() : sep));
+            if (sep < 0) {
+                skipNext = !accepted;
+            } else if (accepted) {
+                received(message.substring(sep + 1), now);
+            }
+            return;
+        }
+        handle(message.substring(0, p1), type, message.substring(p4 + 1), now);
+    }
+
+    // u8 type | varint afsender-id | u24 farve | i64 millis | varint længde | indhold, samt SYMBOL, BATCH og DEFLATE
+    private void received(ByteBuffer buf, long now) {
+        FrameType type = FrameType.fromCode(buf.get() & 0xFF);
+        if (type == FrameType.DEFLATE) {
+            received(FrameCompressor.inflate(buf), now);
+            return;
+        }
+        if (type == FrameType.BATCH) {
+            int count = varint(buf);
+            for (int i = 0; i < count; i++) {
+                int len = varint(buf);
+                ByteBuffer part = buf.slice(buf.position(), len);
+                buf.position(buf.position() + len);
+                received(part, now);
+            }
+            return;
+        }
+        if (type == FrameType.SEQ) {
+            // u8 SEQ | varint længde | rum|seq | frame
+            int len = varint(buf);
+            String header = StandardCharsets.UTF_8.decode(buf.slice(buf.position(), len)).toString();
+            buf.position(buf.position() + len);
+            if (accept(header)) received(buf, now);
+            return;
+        }
+        int senderId = varint(buf);
+        buf.position(buf.position() + 3 + 8);
+        int len = varint(buf);
+        String content = StandardCharsets.UTF_8.decode(buf.slice(buf.position(), len)).toString();
+        if (type == FrameType.SYMBOL) {
+            symbols.put(senderId, content);
+            return;
+        }
+        handle(symbols.get(senderId), type == null ? "UNKNOWN" : type.name(), content, now);
+    }
+
+    private void handle(String sender, String type, String content, long now) {
+        if (content.startsWith(MARKER)) {
+            // Egne beskeder (ekko af rum- og private beskeder) tæller ikke med
+            if (name.equals(sender)) return;
+            int end = content.indexOf(':', MARKER.length());
+            long sent = Long.parseLong(content.substring(MARKER.length(), end < 0 ? content.length() : end));
+            latency.recordValue(Math.max(0, (now - sent) / 1000));
+            delivered.increment();
+            return;
+        }
+        switch (type) {
+            case "ACK" -> baseline(content);
+            case "TOKEN" -> loggedIn.complete(null);
+            case "INFO" -> {
+                if (content.startsWith("Joined room:")) joined.complete(null);
+            }
+            case "ERROR" -> {
+                if (content.startsWith("Server busy")) {
+                    retry.schedule(this::login, 200, TimeUnit.MILLISECONDS);
+                } else if (!loggedIn.isDone()) {
+                    loggedIn.completeExceptionally(new IllegalStateException(content));
+                } else {
+                    errors.increment();
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    // ACK|rum|seq fra serveren: regn fra seq i rummet
+    private synchronized void baseline(String content) {
+        int sep = content.indexOf('|');
+        ackRoom = content.substring(0, sep);
+        seq = Long.parseLong(content.substring(sep + 1));
+        ackSent = seq;
+    }
+
+    // Go-back-N: kun frame nummer seq + 1 i det nuværende rum tages imod
+    private synchronized boolean accept(String header) {
+        int sep = header.indexOf('|');
+        if (!header.regionMatches(0, ackRoom, 0, sep) || sep != ackRoom.length()
+                || Long.parseLong(header.substring(sep + 1)) != seq + 1) {
+            return false;
+        }
+        seq++;
+        if (seq - ackSent >= ACK_EVERY) {
+            flushAck();
+        } else if (!ackScheduled) {
+            ackScheduled = true;
+            retry.schedule(this::flushAck, ACK_DELAY, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    private synchronized void flushAck() {
+        ackScheduled = false;
+        if (seq <= ackSent) return;
+        ackSent = seq;
+        send("load|0|ACK|" + ackRoom + "|" + seq);
+    }
+
+    private static int varint(ByteBuffer buf) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+}
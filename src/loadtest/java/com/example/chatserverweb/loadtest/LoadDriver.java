@@ -0,0 +1,320 @@
+package com.example.chatserverweb.loadtest;
+
+import com.example.chatserverweb.ChatServerWebApplication;
+import com.example.chatserverweb.application.BinaryFrameCodec;
+import com.example.chatserverweb.application.FrameCompressor;
+import com.example.chatserverweb.application.MessagePipeline;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.websocket.ClientEndpointConfig;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.glassfish.tyrus.client.ClientManager;
+import org.glassfish.tyrus.client.ClientProperties;
+import org.glassfish.tyrus.ext.extension.deflate.PerMessageDeflateExtension;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Headless lastgenerator. Åbner load.sessions forbindelser, logger dem ind, fordeler
+// dem på load.rooms rum og sender TEXT, EMOJI og PRIVATE med load.rate beskeder/s.
+// Latency måles fra det planlagte afsendelsestidspunkt (ikke det faktiske), så en
+// afsender der halter bagud ikke skjuler forsinkelsen (coordinated omission).
+//
+// mvn -Ploadtest test-compile exec:java -Dload.sessions=2000 -Dload.rate=5000
+// Uden load.url startes en server i samme JVM; load.server-args sendes videre til den.
+// load.protocol vælger hvad klienterne modtager: text, text-deflate (permessage-deflate),
+// binary (chat.bin.v1) eller binary-deflate (chat.bin.v1+deflate). Båndbredde måles som
+// bytes sendt over loopback og CPU som processens CPU-tid i måleperioden.
+//
+// chat.execution.mode sammenlignes med en server pr. tilstand og load.url, fx 10k sessioner:
+// java -jar target/ChatServerWeb-*.jar --chat.execution.mode=VIRTUAL --server.tomcat.max-connections=20000
+// mvn -Ploadtest test-compile exec:java -Dload.url=ws://localhost:8080/chat -Dload.sessions=10000 -Dload.rooms=200 -Dload.rate=200
+public class LoadDriver {
+
+    private static final String PASSWORD = "load-password";
+
+    public static void main(String[] args) throws Exception {
+        int sessions = Integer.getInteger("load.sessions", 1000);
+        int rooms = Integer.getInteger("load.rooms", 10);
+        int rate = Integer.getInteger("load.rate", 2000);
+        int duration = Integer.getInteger("load.duration", 60);
+        int warmup = Integer.getInteger("load.warmup", 10);
+        int size = Integer.getInteger("load.size", 64);
+        int report = Integer.getInteger("load.report", 5);
+        int[] mix = parseMix(System.getProperty("load.mix", "70,20,10"));
+        String url = System.getProperty("load.url");
+        String output = System.getProperty("load.output", "target/loadtest-latency.hgrm");
+        String protocol = System.getProperty("load.protocol", "text");
+
+        ConfigurableApplicationContext server = null;
+        if (url == null) {
+            server = startServer(System.getProperty("load.server-args", ""));
+            url = "ws://localhost:" + server.getEnvironment().getProperty("local.server.port") + "/chat";
+        }
+
+        Recorder recorder = new Recorder(3);
+        LongAdder delivered = new LongAdder();
+        LongAdder sent = new LongAdder();
+        LongAdder errors = new LongAdder();
+        // WebSocket-frames modtaget; mindre end delivered når serveren samler beskeder (COALESCE)
+        LongAdder frames = new LongAdder();
+        ScheduledExecutorService retry = Executors.newSingleThreadScheduledExecutor();
+        ClientManager client = ClientManager.createClient();
+        // Alle forbindelser deler én Grizzly-transport i stedet for en trådpulje hver
+        client.getProperties().put(ClientProperties.SHARED_CONTAINER, true);
+
+        System.out.printf("Connecting %d sessions to %s (%s)%n", sessions, url, protocol);
+        List<LoadClient> clients = connect(client, endpointConfig(protocol), URI.create(url), sessions, recorder,
+                delivered, errors, frames, retry);
+        // Hver klient går til sit rum så snart den er logget ind, og højst load.login-window klienter
+        // er i gang med login ad gangen. Ellers står tusinder i general under login, hvert login
+        // sender PRESENCE til dem alle, og deres køer løber over (også med "Joined room")
+        int window = Integer.getInteger("load.login-window", 64);
+        for (int i = 0; i < clients.size(); i++) {
+            LoadClient c = clients.get(i);
+            String room = "room-" + (i % rooms);
+            c.loggedIn.thenRunAsync(() -> c.join(room), retry);
+            if (i < window) {
+                c.login();
+            } else {
+                clients.get(i - window).joined.whenCompleteAsync((v, e) -> c.login(), retry);
+            }
+        }
+        await(clients.stream().map(c -> c.loggedIn).toList(), "login", sessions);
+        await(clients.stream().map(c -> c.joined).toList(), "join", sessions);
+        System.out.printf("%d sessions logged in across %d rooms, sending %d msg/s for %ds (+%ds warmup)%n",
+                sessions, rooms, rate, duration, warmup);
+
+        Histogram total = new Histogram(3);
+        Histogram interval = null;
+        long intervalNanos = 1_000_000_000L / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmup);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(duration);
+        long nextReport = start + TimeUnit.SECONDS.toNanos(report);
+        long next = start;
+        long lastSent = 0;
+        long lastDelivered = 0;
+        long lastFrames = 0;
+        boolean measuring = false;
+        long bytesFrom = 0;
+        long cpuFrom = 0;
+        String padding = "x".repeat(Math.max(0, size - 24));
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= end) break;
+            if (now >= next) {
+                LoadClient from = clients.get(random.nextInt(clients.size()));
+                String content = LoadClient.MARKER + next + ":" + padding;
+                int pick = random.nextInt(100);
+                if (pick < mix[0]) {
+                    from.send("load|0|TEXT|" + content);
+                } else if (pick < mix[0] + mix[1]) {
+                    from.send("load|0|EMOJI|" + content);
+                } else {
+                    LoadClient to = clients.get(random.nextInt(clients.size()));
+                    from.send("load|0|PRIVATE|" + to.name() + "|" + content);
+                }
+                sent.increment();
+                next += intervalNanos;
+                continue;
+            }
+            if (now >= nextReport) {
+                interval = recorder.getIntervalHistogram(interval);
+                if (!measuring && now >= measureFrom) {
+                    measuring = true;
+                    bytesFrom = loopbackBytes();
+                    cpuFrom = processCpuNanos();
+                    System.out.println("Warmup done, measuring");
+                } else if (measuring) {
+                    total.add(interval);
+                }
+                long s = sent.sum();
+                long d = delivered.sum();
+                long f = frames.sum();
+                System.out.printf("sent %7.0f/s  delivered %8.0f/s  frames %8.0f/s  p50 %7.2fms  p99 %7.2fms  p999 %7.2fms  max %7.2fms  errors %d%n",
+                        (s - lastSent) / (double) report, (d - lastDelivered) / (double) report,
+                        (f - lastFrames) / (double) report,
+                        interval.getValueAtPercentile(50) / 1000.0, interval.getValueAtPercentile(99) / 1000.0,
+                        interval.getValueAtPercentile(99.9) / 1000.0, interval.getMaxValue() / 1000.0, errors.sum());
+                lastSent = s;
+                lastDelivered = d;
+                lastFrames = f;
+                nextReport += TimeUnit.SECONDS.toNanos(report);
+                continue;
+            }
+            LockSupport.parkNanos(Math.min(next - now, 50_000));
+        }
+        // Lader de sidste beskeder nå frem
+        Thread.sleep(2000);
+        total.add(recorder.getIntervalHistogram(interval));
+        long bytes = loopbackBytes() - bytesFrom;
+        double cpu = (processCpuNanos() - cpuFrom) / 1e9;
+
+        System.out.printf("%nSessions %d, rooms %d, target rate %d msg/s, duration %ds%n", sessions, rooms, rate, duration);
+        System.out.printf("Sent %d, delivered %d (%.0f deliveries/s) in %d WebSocket frames, errors %d%n", sent.sum(),
+                delivered.sum(), total.getTotalCount() / (double) duration, frames.sum(), errors.sum());
+        System.out.printf("End-to-end latency (ms): p50 %.2f  p99 %.2f  p999 %.2f  max %.2f%n",
+                total.getValueAtPercentile(50) / 1000.0, total.getValueAtPercentile(99) / 1000.0,
+                total.getValueAtPercentile(99.9) / 1000.0, total.getMaxValue() / 1000.0);
+        if (bytesFrom >= 0) {
+            System.out.printf("Loopback traffic: %.1f MB (%.2f MB/s, %.0f bytes/delivery)%n", bytes / 1e6,
+                    bytes / 1e6 / duration, bytes / (double) Math.max(1, delivered.sum()));
+        }
+        System.out.printf("Process CPU: %.1fs (%.0f%% of one core)%n", cpu, cpu * 100 / duration);
+        if (server != null) {
+            printStages(server.getBean(MeterRegistry.class));
+        }
+        total.outputPercentileDistribution(System.out, 1000.0);
+        writeHistogram(total, output);
+
+        clients.forEach(LoadClient::close);
+        retry.shutdownNow();
+        client.shutdown();
+        if (server != null) server.close();
+        System.exit(0);
+    }
+
+    // Tid i hvert pipeline-trin for de beskeder serveren har tidsmålt (chat.metrics.stage-sample)
+    private static void printStages(MeterRegistry registry) {
+        System.out.println("Pipeline stages (sampled, us):");
+        for (MessagePipeline.Step step : MessagePipeline.Step.values()) {
+            Timer timer = registry.find("chat.pipeline.stage").tag("stage", step.name()).timer();
+            if (timer != null && timer.count() > 0) {
+                System.out.printf("  %-13s n %7d  mean %8.2f  max %9.2f%n", step, timer.count(),
+                        timer.mean(TimeUnit.MICROSECONDS), timer.max(TimeUnit.MICROSECONDS));
+            }
+        }
+    }
+
+    // Starter chatserveren i samme JVM på en tilfældig port med sin egen database
+    // og færre PBKDF2-iterationer, så login ikke dominerer opstarten. Rate limiting
+    // er slået fra, da det er serverens egen kapacitet der måles
+    private static ConfigurableApplicationContext startServer(String extraArgs) {
+        new File("target/loadtest.db").delete();
+        List<String> args = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--chat.db.url=jdbc:sqlite:target/loadtest.db",
+                "--chat.auth.iterations=1000",
+                "--chat.auth.queue-capacity=100000",
+                "--chat.rate.enabled=false",
+                "--spring.devtools.restart.enabled=false",
+                "--logging.level.root=WARN"));
+        if (!extraArgs.isBlank()) {
+            args.addAll(List.of(extraArgs.trim().split("\\s+")));
+        }
+        return SpringApplication.run(ChatServerWebApplication.class, args.toArray(new String[0]));
+    }
+
+    private static ClientEndpointConfig endpointConfig(String protocol) {
+        ClientEndpointConfig.Builder builder = ClientEndpointConfig.Builder.create();
+        return switch (protocol) {
+            case "text" -> builder.build();
+            case "text-deflate" -> builder.extensions(List.of(new PerMessageDeflateExtension())).build();
+            case "binary" -> builder.preferredSubprotocols(List.of(BinaryFrameCodec.PROTOCOL)).build();
+            case "binary-deflate" -> builder.preferredSubprotocols(List.of(FrameCompressor.PROTOCOL)).build();
+            default -> throw new IllegalArgumentException("load.protocol must be text, text-deflate, binary or binary-deflate");
+        };
+    }
+
+    // Bytes sendt over loopback (Linux), -1 hvis det ikke kan læses. Med en server i samme
+    // JVM tæller både trafik til og fra serveren, så tallet sammenlignes mellem kørsler
+    private static long loopbackBytes() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/net/dev"))) {
+                String[] fields = line.trim().split("[:\\s]+");
+                if (fields[0].equals("lo")) {
+                    return Long.parseLong(fields[9]);
+                }
+            }
+        } catch (IOException | RuntimeException ignored) {
+        }
+        return -1;
+    }
+
+    // CPU-tid for hele processen, dvs. både server og lastklienter når serveren kører i samme JVM
+    private static long processCpuNanos() {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            return os.getProcessCpuTime();
+        }
+        return 0;
+    }
+
+    private static List<LoadClient> connect(ClientManager client, ClientEndpointConfig config, URI uri, int sessions,
+                                            Recorder recorder,
+                                            LongAdder delivered, LongAdder errors, LongAdder frames,
+                                            ScheduledExecutorService retry)
+            throws InterruptedException {
+        List<LoadClient> clients = new ArrayList<>(sessions);
+        List<CompletableFuture<Void>> connected = new ArrayList<>(sessions);
+        ExecutorService connector = Executors.newFixedThreadPool(Integer.getInteger("load.connect-threads", 64));
+        for (int i = 0; i < sessions; i++) {
+            LoadClient c = new LoadClient("load" + i, PASSWORD, recorder, delivered, errors, frames, retry);
+            clients.add(c);
+            connected.add(CompletableFuture.runAsync(() -> {
+                try {
+                    client.connectToServer(c, config, uri);
+                } catch (Exception e) {
+                    throw new IllegalStateException("Could not connect " + c.name(), e);
+                }
+            }, connector));
+        }
+        await(connected, "connect", sessions);
+        connector.shutdown();
+        return clients;
+    }
+
+    private static void await(List<CompletableFuture<Void>> futures, String phase, int sessions) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(Math.max(60, sessions / 20));
+        int done;
+        while ((done = (int) futures.stream().filter(CompletableFuture::isDone).count()) < futures.size()) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException(phase + " timed out: " + done + "/" + futures.size());
+            }
+            Thread.sleep(200);
+        }
+        long failed = futures.stream().filter(CompletableFuture::isCompletedExceptionally).count();
+        if (failed > 0) {
+            CompletableFuture<Void> first = futures.stream().filter(CompletableFuture::isCompletedExceptionally).findFirst().get();
+            throw new IllegalStateException(phase + " failed for " + failed + " sessions", first.handle((v, e) -> e).join());
+        }
+    }
+
+    // text,emoji,private i procent
+    private static int[] parseMix(String mix) {
+        String[] parts = mix.split(",");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("load.mix must be text,emoji,private percentages");
+        }
+        return new int[]{Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()), Integer.parseInt(parts[2].trim())};
+    }
+
+    private static void writeHistogram(Histogram histogram, String output) {
+        try (PrintStream out = new PrintStream(output)) {
+            histogram.outputPercentileDistribution(out, 1000.0);
+            System.out.println("Latency distribution written to " + output);
+        } catch (FileNotFoundException e) {
+            System.err.println("Could not write " + output + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.chatserverweb.loadtest;
+
+import com.example.chatserverweb.application.Authenticator;
+import com.example.chatserverweb.application.ConnectionPool;
+import com.example.chatserverweb.application.PasswordHasher;
+import com.example.chatserverweb.application.SqliteUserRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Logins pr. sekund med 1, 8 og 64 samtidige kaldere mod en users-tabel med USERS brugere.
+// login* er hele Authenticator.authenticate (opslag i puljen og KDF med iterations iterationer
+// på chat.auth.threads=2 tråde). lookup* er kun brugeropslaget: Pooled gennem SqliteUserRepository,
+// DriverManager som før, med en ny forbindelse og en ny PreparedStatement pr. login.
+//
+// mvn -Ploadtest test-compile exec:exec@jmh -Djmh.args="LoginBench"
+// (-Djmh.args="LoginBench.login -p iterations=120000" for produktionens KDF)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class LoginBench {
+
+    static final int USERS = 1_000;
+    private static final String SELECT = "SELECT password FROM users WHERE username = ?";
+
+    @State(Scope.Benchmark)
+    public static class Users {
+        Path dir;
+        String url;
+        ConnectionPool pool;
+        SqliteUserRepository users;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            dir = Files.createTempDirectory("login-bench");
+            url = "jdbc:sqlite:" + dir.resolve("chat.db");
+            pool = new ConnectionPool(url, 4);
+            users = new SqliteUserRepository(pool);
+            PasswordHasher hasher = new PasswordHasher(1_000);
+            for (int i = 0; i < USERS; i++) users.create("user" + i, hasher.hash("secret"));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            pool.close();
+            try (var files = Files.list(dir)) {
+                for (Path f : files.toList()) Files.delete(f);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Logins {
+        @Param({"1000"})
+        int iterations;
+
+        Authenticator authenticator;
+
+        @Setup(Level.Trial)
+        public void setUp(Users users) {
+            // Hashene er lavet med 1000 iterationer; med flere verificeres de stadig, men rehashes
+            // ikke, så hvert login koster det samme
+            authenticator = new Authenticator(users.users, new PasswordHasher(iterations), 2, 256);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            authenticator.close();
+        }
+    }
+
+    private static String user() {
+        return "user" + ThreadLocalRandom.current().nextInt(USERS);
+    }
+
+    private static Authenticator.Result login(Logins logins) {
+        Authenticator.Result result = logins.authenticator.authenticate(user(), "secret").join();
+        if (result != Authenticator.Result.OK) throw new IllegalStateException("Login failed: " + result);
+        return result;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Authenticator.Result login1(Logins logins) {
+        return login(logins);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Authenticator.Result login8(Logins logins) {
+        return login(logins);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Authenticator.Result login64(Logins logins) {
+        return login(logins);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object lookupPooled1(Users users) throws SQLException {
+        return users.users.findPasswordHash(user());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object lookupPooled8(Users users) throws SQLException {
+        return users.users.findPasswordHash(user());
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Object lookupPooled64(Users users) throws SQLException {
+        return users.users.findPasswordHash(user());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String lookupDriverManager1(Users users) throws SQLException {
+        return lookupDriverManager(users.url);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String lookupDriverManager8(Users users) throws SQLException {
+        return lookupDriverManager(users.url);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public String lookupDriverManager64(Users users) throws SQLException {
+        return lookupDriverManager(users.url);
+    }
+
+    private static String lookupDriverManager(String url) throws SQLException {
+        try (Connection conn = DriverManager.getConnection(url);
+             PreparedStatement select = conn.prepareStatement(SELECT)) {
+            select.setString(1, user());
+            try (ResultSet rs = select.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.chatserverweb.loadtest;
+
+import com.example.chatserverweb.application.ChatFrameParser;
+import com.example.chatserverweb.application.FrameFields;
+import com.example.chatserverweb.application.FrameType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// Pris pr. indkommende tekstframe: ChatFrameParser (og FrameFields til underfelterne, som dispatch
+// bruger dem) mod den gamle parsing med split("\\|", 4), switch på toUpperCase og et split mere af
+// content for LOGIN, PRIVATE og JOIN_ROOM.
+//
+// mvn -Ploadtest test-compile exec:exec@jmh -Djmh.args="ParserBench -prof gc"
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBench {
+
+    @Param({"TEXT", "PRIVATE", "LOGIN", "JOIN_ROOM"})
+    String type;
+
+    private String payload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String content = switch (type) {
+            case "PRIVATE" -> "bob|are you coming to the standup today?";
+            case "LOGIN" -> "alice|correct horse battery staple";
+            case "JOIN_ROOM" -> "engineering";
+            default -> "has anyone seen the build break on main this morning?";
+        };
+        // Klienten sender typen med små bogstaver, som index.html gør for nogle typer
+        payload = "web-7f3a91|2026-10-17 09:15:02|" + type.toLowerCase() + "|" + content;
+    }
+
+    @Benchmark
+    public void parser(Blackhole bh) {
+        ChatFrameParser frame = ChatFrameParser.local();
+        frame.parse(payload);
+        FrameType t = frame.type();
+        FrameFields fields = FrameFields.text(frame.content());
+        bh.consume(t);
+        switch (t) {
+            case LOGIN, PRIVATE -> {
+                bh.consume(fields.get(0));
+                bh.consume(fields.from(1));
+            }
+            case JOIN_ROOM -> bh.consume(fields.get(0));
+            default -> bh.consume(fields.from(0));
+        }
+    }
+
+    @Benchmark
+    public void split(Blackhole bh) {
+        String[] parts = payload.split("\\|", 4);
+        String content = parts.length > 3 ? parts[3] : "";
+        switch (parts[2].toUpperCase()) {
+            case "LOGIN", "PRIVATE" -> {
+                String[] pair = content.split("\\|", 2);
+                bh.consume(pair[0]);
+                bh.consume(pair.length > 1 ? pair[1] : null);
+            }
+            case "JOIN_ROOM" -> bh.consume(content.split("\\|")[0]);
+            default -> bh.consume(content);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.example.chatserverweb.loadtest;
+
+import com.example.chatserverweb.ChatServerWebApplication;
+import jakarta.websocket.ClientEndpointConfig;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.Endpoint;
+import jakarta.websocket.EndpointConfig;
+import jakarta.websocket.MessageHandler;
+import jakarta.websocket.Session;
+import org.glassfish.tyrus.client.ClientManager;
+import org.glassfish.tyrus.client.ClientProperties;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Måler en rullende genstart af én node: bench.sessions brugere logges ind i bench.rooms rum og
+// skriver lidt, serveren lukkes (drain) og startes igen på samme port, og klienterne forbinder igen.
+// Med bench.snapshot=true gemmer serveren et snapshot, og klienterne venter den tid RECONNECT bad
+// om og genoptager med RESUME. Med false starter den nye server uden snapshot, klienterne forbinder
+// straks, deres token er ukendt, og de logger ind med adgangskode (KDF). Begge forsøger igen med
+// jittered backoff så længe serveren ikke svarer.
+//
+// Måler hvor lang tid drain og opstart tager (time-to-ready), hvornår alle er logget ind igen og
+// den højeste loginrate over ét sekund på den nye server.
+//
+// mvn -Ploadtest test-compile exec:java -Dload.main=com.example.chatserverweb.loadtest.RestartBench -Dbench.sessions=1000
+public class RestartBench {
+
+    private static final String PASSWORD = "restart-password";
+    private static final long BUCKET_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    public static void main(String[] args) throws Exception {
+        int sessions = Integer.getInteger("bench.sessions", 1000);
+        int rooms = Integer.getInteger("bench.rooms", 10);
+        int iterations = Integer.getInteger("bench.iterations", 20_000);
+        boolean snapshot = Boolean.parseBoolean(System.getProperty("bench.snapshot", "true"));
+        String spread = System.getProperty("bench.spread", "5s");
+        String after = System.getProperty("bench.after", "1s");
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        new File("target/restart.db").delete();
+        new File("target/restart-snapshot.bin").delete();
+        List<String> serverArgs = List.of(
+                "--server.port=" + port,
+                "--chat.db.url=jdbc:sqlite:target/restart.db",
+                "--chat.auth.iterations=" + iterations,
+                "--chat.auth.queue-capacity=100000",
+                "--chat.rate.enabled=false",
+                "--chat.snapshot.file=" + (snapshot ? "target/restart-snapshot.bin" : ""),
+                "--chat.snapshot.reconnect-after=" + after,
+                "--chat.snapshot.reconnect-spread=" + spread,
+                "--spring.devtools.restart.enabled=false",
+                "--logging.level.root=WARN",
+                "--logging.level.com.example.chatserverweb.application.WarmRestart=INFO");
+        URI uri = URI.create("ws://localhost:" + port + "/chat");
+
+        ConfigurableApplicationContext server = start(serverArgs);
+        ClientManager manager = ClientManager.createClient();
+        manager.getProperties().put(ClientProperties.SHARED_CONTAINER, true);
+        ScheduledExecutorService connector = Executors.newScheduledThreadPool(16);
+        Stats stats = new Stats();
+        List<Client> clients = new ArrayList<>(sessions);
+        CountDownLatch ready = new CountDownLatch(sessions);
+        for (int i = 0; i < sessions; i++) {
+            Client c = new Client("restart" + i, "room-" + (i % rooms), snapshot, manager, uri, connector, stats);
+            c.awaiting = ready;
+            clients.add(c);
+            c.connect();
+        }
+        await(ready, sessions, "login");
+        for (Client c : clients) c.send("bench|0|TEXT|before restart from " + c.name);
+        System.out.printf("%d sessions logged in across %d rooms (%d PBKDF2 iterations), restarting %s snapshot%n",
+                sessions, rooms, iterations, snapshot ? "with" : "without");
+
+        CountDownLatch back = new CountDownLatch(sessions);
+        for (Client c : clients) {
+            c.awaiting = back;
+            c.restarting = true;
+        }
+        long drainStart = System.nanoTime();
+        stats.from = drainStart;
+        server.close();
+        long stopped = System.nanoTime();
+        server = start(serverArgs);
+        long started = System.nanoTime();
+        await(back, sessions, "reconnect");
+        long allBack = stats.lastLogin;
+
+        System.out.printf("%nDrain and shutdown: %d ms%n", (stopped - drainStart) / 1_000_000);
+        System.out.printf("Startup (time-to-ready): %d ms, %d ms after drain started%n",
+                (started - stopped) / 1_000_000, (started - drainStart) / 1_000_000);
+        System.out.printf("All %d sessions back %d ms after drain started (%d by RESUME, %d by password)%n",
+                sessions, (allBack - drainStart) / 1_000_000, stats.resumed.sum(), stats.passwords.sum());
+        System.out.printf("Peak login rate: %d/s; refused connects while down: %d, busy: %d%n",
+                stats.peakPerSecond(), stats.refused.sum(), stats.busy.sum());
+
+        // Serveren lukkes først, så den ikke skal dræne klienter der selv er ved at lukke
+        for (Client c : clients) c.closing = true;
+        server.close();
+        for (Client c : clients) c.close();
+        connector.shutdownNow();
+        manager.shutdown();
+        new File("target/restart-snapshot.bin").delete();
+    }
+
+    private static ConfigurableApplicationContext start(List<String> args) {
+        return SpringApplication.run(ChatServerWebApplication.class, args.toArray(new String[0]));
+    }
+
+    private static void await(CountDownLatch latch, int sessions, String phase) throws InterruptedException {
+        if (!latch.await(Math.max(120, sessions / 10), TimeUnit.SECONDS)) {
+            throw new IllegalStateException(phase + " timed out: " + (sessions - latch.getCount()) + "/" + sessions);
+        }
+    }
+
+    // Logins pr. 100 ms efter drain startede
+    private static final class Stats {
+        final AtomicIntegerArray buckets = new AtomicIntegerArray(6000);
+        final LongAdder resumed = new LongAdder();
+        final LongAdder passwords = new LongAdder();
+        final LongAdder refused = new LongAdder();
+        final LongAdder busy = new LongAdder();
+        volatile long from;
+        volatile long lastLogin;
+
+        synchronized void login(long now) {
+            lastLogin = Math.max(lastLogin, now);
+            int i = (int) ((now - from) / BUCKET_NANOS);
+            if (i >= 0 && i < buckets.length()) buckets.incrementAndGet(i);
+        }
+
+        // Højeste antal logins i 10 på hinanden følgende spande
+        int peakPerSecond() {
+            int window = 0;
+            int peak = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                window += buckets.get(i) - (i >= 10 ? buckets.get(i - 10) : 0);
+                peak = Math.max(peak, window);
+            }
+            return peak;
+        }
+    }
+
+    // En bruger der logger ind, går i sit rum og forbinder igen når serveren lukker forbindelsen
+    private static final class Client extends Endpoint {
+
+        private static final ClientEndpointConfig CONFIG = ClientEndpointConfig.Builder.create().build();
+
+        final String name;
+        final String room;
+        final boolean followHints;
+        final ClientManager manager;
+        final URI uri;
+        final ScheduledExecutorService connector;
+        final Stats stats;
+        volatile CountDownLatch awaiting;
+        volatile boolean restarting;
+        volatile boolean closing;
+        volatile Session session;
+        volatile String token;
+        volatile long hint = -1;
+        int attempts;
+
+        Client(String name, String room, boolean followHints, ClientManager manager, URI uri,
+               ScheduledExecutorService connector, Stats stats) {
+            this.name = name;
+            this.room = room;
+            this.followHints = followHints;
+            this.manager = manager;
+            this.uri = uri;
+            this.connector = connector;
+            this.stats = stats;
+        }
+
+        void connect() {
+            connector.execute(() -> {
+                try {
+                    manager.connectToServer(this, CONFIG, uri);
+                } catch (Exception e) {
+                    stats.refused.increment();
+                    reconnect(-1);
+                }
+            });
+        }
+
+        // Som ChatClient: serverens hint hvis der er et, ellers fuld jitter med en grænse der fordobles
+        void reconnect(long hinted) {
+            if (closing) return;
+            long delay = hinted >= 0 ? hinted
+                    : ThreadLocalRandom.current().nextLong(Math.min(30_000, 500L << Math.min(attempts++, 16)) + 1);
+            connector.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void onOpen(Session session, EndpointConfig config) {
+            this.session = session;
+            session.addMessageHandler(new MessageHandler.Whole<String>() {
+                @Override
+                public void onMessage(String message) {
+                    received(message);
+                }
+            });
+            String t = token;
+            send(t != null ? "bench|0|RESUME|" + t : "bench|0|LOGIN|" + name + "|" + PASSWORD);
+        }
+
+        @Override
+        public void onClose(Session session, CloseReason closeReason) {
+            if (!restarting || closing) return;
+            long h = followHints ? hint : -1;
+            hint = -1;
+            attempts = 0;
+            reconnect(h);
+        }
+
+        private void received(String message) {
+            String[] parts = message.split("\\|", 5);
+            if (parts.length < 5) return;
+            String content = parts[4];
+            switch (parts[3]) {
+                case "TOKEN" -> {
+                    boolean resumed = token != null;
+                    token = content;
+                    if (restarting) {
+                        stats.login(System.nanoTime());
+                        (resumed ? stats.resumed : stats.passwords).increment();
+                        awaiting.countDown();
+                    } else {
+                        send("bench|0|JOIN_ROOM|" + room);
+                    }
+                }
+                case "INFO" -> {
+                    if (!restarting && content.startsWith("Joined room:")) awaiting.countDown();
+                }
+                case "RECONNECT" -> hint = Long.parseLong(content);
+                case "ERROR" -> {
+                    if (content.startsWith("Invalid or expired token")) {
+                        token = null;
+                        send("bench|0|LOGIN|" + name + "|" + PASSWORD);
+                    } else if (content.startsWith("Server busy")) {
+                        stats.busy.increment();
+                        connector.schedule(() -> send("bench|0|LOGIN|" + name + "|" + PASSWORD), 200,
+                                TimeUnit.MILLISECONDS);
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        synchronized void send(String frame) {
+            Session s = session;
+            if (s == null || !s.isOpen()) return;
+            try {
+                s.getBasicRemote().sendText(frame);
+            } catch (IOException | IllegalStateException e) {
+                // Forbindelsen lukkes; onClose forbinder igen
+            }
+        }
+
+        void close() {
+            closing = true;
+            Session s = session;
+            if (s == null) return;
+            try {
+                s.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
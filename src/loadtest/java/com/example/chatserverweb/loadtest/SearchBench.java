@@ -0,0 +1,169 @@
+package com.example.chatserverweb.loadtest;
+
+import com.example.chatserverweb.application.ChatMetrics;
+import com.example.chatserverweb.application.ConnectionPool;
+import com.example.chatserverweb.application.SearchIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.HdrHistogram.Histogram;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Benchmark af søgeindekset uden server: bygger et FTS5-indeks over search.messages syntetiske
+// beskeder (ord trukket Zipf-fordelt fra search.vocabulary ord, search.private andel private)
+// gennem SearchIndex' indekser-tråd og måler derefter latency for search.queries forespørgsler
+// af hver slags.
+//
+// mvn -Ploadtest test-compile exec:java -Dload.main=com.example.chatserverweb.loadtest.SearchBench -Dsearch.messages=10000000
+public class SearchBench {
+
+    private static final long MAX_PENDING = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        int messages = Integer.getInteger("search.messages", 1_000_000);
+        int vocabulary = Integer.getInteger("search.vocabulary", 50_000);
+        int rooms = Integer.getInteger("search.rooms", 1_000);
+        int users = Integer.getInteger("search.users", 10_000);
+        int privatePercent = Integer.getInteger("search.private", 10);
+        int batchSize = Integer.getInteger("search.batch-size", 4096);
+        int queries = Integer.getInteger("search.queries", 2_000);
+        int pageSize = Integer.getInteger("search.page-size", 20);
+        Path db = Path.of(System.getProperty("search.db", "target/search-bench.db"));
+
+        for (String suffix : new String[]{"", "-wal", "-shm"}) {
+            Files.deleteIfExists(Path.of(db + suffix));
+        }
+        ConnectionPool pool = new ConnectionPool("jdbc:sqlite:" + db, 2);
+        pool.withConnection(conn -> {
+            try (Statement stmt = conn.getConnection().createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS messages (id INTEGER PRIMARY KEY, room TEXT NOT NULL, "
+                        + "sender TEXT NOT NULL, color TEXT, ts INTEGER NOT NULL, type TEXT NOT NULL, content TEXT NOT NULL)");
+            }
+            return null;
+        });
+        ExecutorService readers = Executors.newFixedThreadPool(2);
+        Zipf zipf = new Zipf(vocabulary, 1.0);
+        SearchIndex index = new SearchIndex(pool, readers, batchSize, (int) (2 * MAX_PENDING), new ChatMetrics(new SimpleMeterRegistry(), 0, 1));
+
+        System.out.printf("Indexing %,d messages (%d rooms, %d users, %d%% private, vocabulary %,d)%n",
+                messages, rooms, users, privatePercent, vocabulary);
+        SplittableRandom random = new SplittableRandom(42);
+        StringBuilder text = new StringBuilder();
+        long start = System.nanoTime();
+        long lastReport = start;
+        for (int i = 1; i <= messages; i++) {
+            text.setLength(0);
+            int words = 4 + random.nextInt(12);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) text.append(' ');
+                text.append(word(zipf.sample(random)));
+            }
+            String sender = "user" + random.nextInt(users);
+            if (random.nextInt(100) < privatePercent) {
+                index.indexPrivate(i, sender, "user" + random.nextInt(users), "#123456", i, text.toString());
+            } else {
+                index.indexRoom(i, "room" + random.nextInt(rooms), sender, "#123456", i, text.toString());
+            }
+            while (index.pending() > MAX_PENDING) {
+                Thread.sleep(1);
+            }
+            long now = System.nanoTime();
+            if (now - lastReport > TimeUnit.SECONDS.toNanos(10)) {
+                lastReport = now;
+                System.out.printf("  %,d queued, %,.0f msg/s%n", i - index.pending(),
+                        (i - index.pending()) / ((now - start) / 1e9));
+            }
+        }
+        while (index.pending() > 0) {
+            Thread.sleep(10);
+        }
+        index.close();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.withConnection(conn -> {
+            try (Statement stmt = conn.getConnection().createStatement()) {
+                stmt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+            }
+            return null;
+        });
+        System.out.printf("Indexed %,d messages in %.1f s: %,.0f msg/s, database %,d MB%n",
+                messages, seconds, messages / seconds, Files.size(db) >> 20);
+
+        // Forespørgsler: almindeligt ord i ét rum, sjældent ord i alle rum, to ord i ét rum,
+        // præfiks i ét rum og egne private beskeder
+        String[] kinds = {"room-common", "all-rare", "room-two-words", "room-prefix", "private"};
+        Histogram[] latency = new Histogram[kinds.length];
+        long[] hits = new long[kinds.length];
+        for (int k = 0; k < kinds.length; k++) {
+            latency[k] = new Histogram(TimeUnit.SECONDS.toNanos(10), 3);
+        }
+        for (int q = 0; q < queries * kinds.length; q++) {
+            int k = q % kinds.length;
+            String room = "room" + random.nextInt(rooms);
+            String user = "user" + random.nextInt(users);
+            SearchIndex.Scope scope = SearchIndex.Scope.ROOM;
+            String query;
+            switch (k) {
+                case 0 -> query = word(random.nextInt(20));
+                case 1 -> {
+                    scope = SearchIndex.Scope.ALL;
+                    query = word(vocabulary / 2 + random.nextInt(vocabulary / 2));
+                }
+                case 2 -> query = word(zipf.sample(random)) + " " + word(zipf.sample(random));
+                case 3 -> {
+                    String w = word(100 + random.nextInt(1000));
+                    query = w.substring(0, Math.min(w.length(), 3)) + "*";
+                }
+                default -> {
+                    scope = SearchIndex.Scope.PRIVATE;
+                    query = word(zipf.sample(random));
+                }
+            }
+            long t = System.nanoTime();
+            SearchIndex.Page page = index.search(user, scope, room, query, Long.MAX_VALUE, pageSize).get();
+            latency[k].recordValue(System.nanoTime() - t);
+            hits[k] += page.hits().size();
+        }
+        System.out.printf("%-16s %9s %9s %9s %9s %9s%n", "query", "p50 ms", "p90 ms", "p99 ms", "max ms", "hits/q");
+        for (int k = 0; k < kinds.length; k++) {
+            Histogram h = latency[k];
+            System.out.printf("%-16s %9.2f %9.2f %9.2f %9.2f %9.1f%n", kinds[k],
+                    h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(90) / 1e6,
+                    h.getValueAtPercentile(99) / 1e6, h.getMaxValue() / 1e6, hits[k] / (double) queries);
+        }
+        readers.shutdown();
+        pool.close();
+    }
+
+    // Ord nummer i: kort for almindelige ord, længere for sjældne (som i naturligt sprog)
+    private static String word(int i) {
+        return "w" + Integer.toString(i, 36);
+    }
+
+    // Zipf-fordeling over 0..n-1 via binær søgning i den kumulative fordeling
+    private static final class Zipf {
+        private final double[] cumulative;
+
+        Zipf(int n, double exponent) {
+            cumulative = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1.0 / Math.pow(i + 1, exponent);
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < n; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        int sample(SplittableRandom random) {
+            int i = Arrays.binarySearch(cumulative, random.nextDouble());
+            return Math.min(i < 0 ? -i - 1 : i, cumulative.length - 1);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.chatserverweb.loadtest;
+
+import com.example.chatserverweb.ChatServerWebApplication;
+import com.example.chatserverweb.application.ChatHandler;
+import com.example.chatserverweb.application.CredentialCache;
+import com.example.chatserverweb.application.HistoryStore;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Måler heap pr. logget ind session i ChatHandler uden netværk: bench.sessions sessioner
+// (stubs der smider frames væk) forbindes og logges ind med RESUME i rum med bench.room-size
+// brugere hver. Heap måles efter fuld GC før og efter, så kun serverens egen tilstand tæller
+// (session-stubbene er oprettet inden den første måling). bench.hold holder processen
+// i live det antal sekunder efter målingen, så heapen kan undersøges.
+//
+// mvn -Ploadtest test-compile exec:java -Dload.main=com.example.chatserverweb.loadtest.SessionHeapBench -Dbench.sessions=100000
+public class SessionHeapBench {
+
+    public static void main(String[] args) throws Exception {
+        int sessions = Integer.getInteger("bench.sessions", 100_000);
+        int roomSize = Integer.getInteger("bench.room-size", 50);
+        new File("target/heap-bench.db").delete();
+        ConfigurableApplicationContext server = SpringApplication.run(ChatServerWebApplication.class,
+                "--server.port=0",
+                "--chat.db.url=jdbc:sqlite:target/heap-bench.db",
+                "--chat.files.dir=target/heap-bench-files",
+                "--chat.rate.enabled=false",
+                "--spring.devtools.restart.enabled=false",
+                "--logging.level.root=WARN");
+        ChatHandler handler = server.getBean(ChatHandler.class);
+        CredentialCache tokens = server.getBean(CredentialCache.class);
+        long cursor = server.getBean(HistoryStore.class).lastSeq();
+
+        LongAdder frames = new LongAdder();
+        List<StubSession> stubs = new ArrayList<>(sessions);
+        List<String> resume = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            stubs.add(new StubSession("s" + i, frames));
+            // Tokenet bærer rummet, så RESUME placerer brugeren direkte i sit rum
+            String token = tokens.issue("user" + i);
+            tokens.suspend(token, null, "room-" + (i / roomSize), cursor, -1);
+            resume.add("bench|0|RESUME|" + token);
+        }
+        long before = usedHeap();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            StubSession s = stubs.get(i);
+            handler.afterConnectionEstablished(s);
+            handler.handleMessage(s, new TextMessage(resume.get(i)));
+        }
+        resume.clear();
+        awaitDrained(handler);
+        long loginNanos = System.nanoTime() - start;
+        long after = usedHeap();
+
+        System.out.printf("%,d sessions in rooms of %d logged in in %.1f s, %,d frames delivered%n",
+                sessions, roomSize, loginNanos / 1e9, frames.sum());
+        System.out.printf("Heap: %,d MB before, %,d MB after, %,d bytes per session%n",
+                before >> 20, after >> 20, (after - before) / sessions);
+        // Tid til f.eks. jcmd <pid> GC.class_histogram før sessionerne lukkes
+        TimeUnit.SECONDS.sleep(Integer.getInteger("bench.hold", 0));
+
+        for (StubSession s : stubs) handler.afterConnectionClosed(s, CloseStatus.GOING_AWAY);
+        awaitDrained(handler);
+        server.close();
+    }
+
+    private static void awaitDrained(ChatHandler handler) throws InterruptedException {
+        // Rummenes mailboxe og de udgående køer er asynkrone
+        int idle = 0;
+        while (idle < 3) {
+            TimeUnit.MILLISECONDS.sleep(500);
+            boolean empty = handler.outboundQueueDepths().values().stream().allMatch(d -> d == 0);
+            idle = empty ? idle + 1 : 0;
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            TimeUnit.MILLISECONDS.sleep(200);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    // En forbindelse uden netværk; frames tælles og smides væk
+    private static final class StubSession implements WebSocketSession {
+        private final String id;
+        private final LongAdder frames;
+        private final Map<String, Object> attributes = new HashMap<>(2);
+        private volatile boolean open = true;
+        private int binaryLimit = 8192;
+        private int textLimit = 8192;
+
+        StubSession(String id, LongAdder frames) {
+            this.id = id;
+            this.frames = frames;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public URI getUri() {
+            return null;
+        }
+
+        @Override
+        public HttpHeaders getHandshakeHeaders() {
+            return HttpHeaders.EMPTY;
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public String getAcceptedProtocol() {
+            return null;
+        }
+
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) {
+            textLimit = messageSizeLimit;
+        }
+
+        @Override
+        public int getTextMessageSizeLimit() {
+            return textLimit;
+        }
+
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+            binaryLimit = messageSizeLimit;
+        }
+
+        @Override
+        public int getBinaryMessageSizeLimit() {
+            return binaryLimit;
+        }
+
+        @Override
+        public List<WebSocketExtension> getExtensions() {
+            return List.of();
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            frames.increment();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        @Override
+        public void close(CloseStatus status) {
+            open = false;
+        }
+    }
+}
@@ -3,11 +3,17 @@ package com.example.chatserverweb.Domain;
 public class Client {
     private String name;
     private String id;
+    // Brugerens tal fra serverens navnetabel, eller 0 hvis klienten ikke er internaliseret
+    private final int number;
     private Cred credentials;
     private ClientStatus status;
     private Room currentRoom;
 
     public Client (String name, String id, Cred credentials){
+        this(name, id, credentials, 0);
+    }
+
+    public Client (String name, String id, Cred credentials, int number){
         if (name == null || name.isEmpty()){
             throw new IllegalArgumentException("Name cannot be null or empty");
         }
@@ -19,6 +25,7 @@ public class Client {
         }
         this.name = name;
         this.id = id;
+        this.number = number;
         this.credentials = credentials;
         this.status = ClientStatus.OFFLINE;
         this.currentRoom = null;
@@ -32,6 +39,10 @@ public class Client {
         return id;
     }
 
+    public int getNumber() {
+        return number;
+    }
+
     public Cred getCredentials() {
         return credentials;
     }
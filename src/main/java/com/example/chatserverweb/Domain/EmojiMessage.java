@@ -1,4 +1,21 @@
 package com.example.chatserverweb.Domain;
 
-public class EmojiMessage {
+import java.util.Date;
+import java.util.Objects;
+
+public class EmojiMessage extends Message {
+    private final String emoji;
+
+    public EmojiMessage(String emoji, Client sender, Date timestamp, String id) {
+        super(id, sender, timestamp, MessageType.EMOJI);
+        this.emoji = Objects.requireNonNull(emoji, "emoji must not be null");
+    }
+    public String getEmoji(){
+        return emoji;
+    }
+
+    @Override
+    public EmojiMessage withId(String id) {
+        return new EmojiMessage(emoji, getSender(), getTimestamp(), id);
+    }
 }
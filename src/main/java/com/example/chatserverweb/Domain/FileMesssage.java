@@ -1,4 +1,60 @@
 package com.example.chatserverweb.Domain;
 
-public class FileMesssage {
+import java.util.Date;
+import java.util.Objects;
+import java.util.Set;
+
+// En fil eller et billede delt i et rum. Beskeden bærer kun en reference til
+// indholdet (fileId), selve filen hentes separat
+public class FileMesssage extends Message {
+    // Rasterformater der kan vises direkte. SVG kan indeholde script og er derfor en almindelig fil
+    private static final Set<String> INLINE_IMAGES = Set.of("image/png", "image/jpeg", "image/gif", "image/webp");
+
+    private final String fileId;
+    private final String fileName;
+    private final long size;
+    private final String contentType;
+
+    public FileMesssage(String id, Client sender, Date timestamp, String fileId, String fileName, long size,
+                        String contentType) {
+        super(id, sender, timestamp, isInlineImage(contentType) ? MessageType.IMAGE : MessageType.FILE);
+        this.fileId = Objects.requireNonNull(fileId, "fileId must not be null");
+        this.fileName = Objects.requireNonNull(fileName, "fileName must not be null");
+        this.contentType = Objects.requireNonNull(contentType, "contentType must not be null");
+        if (size < 0) {
+            throw new IllegalArgumentException("Size cannot be negative");
+        }
+        this.size = size;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    // Referencen der sendes i stedet for indholdet: fileId|filnavn|størrelse|content type
+    public String getReference() {
+        return fileId + "|" + fileName + "|" + size + "|" + contentType;
+    }
+
+    @Override
+    public FileMesssage withId(String id) {
+        return new FileMesssage(id, getSender(), getTimestamp(), fileId, fileName, size, contentType);
+    }
+
+    // Sand for de billedtyper der må vises i browseren fra chattens eget origin
+    public static boolean isInlineImage(String contentType) {
+        return contentType != null && INLINE_IMAGES.contains(contentType);
+    }
 }
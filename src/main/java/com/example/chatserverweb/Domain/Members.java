@@ -0,0 +1,113 @@
+package com.example.chatserverweb.Domain;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+// Et rums deltagere i tætte arrays: klienterne og deres tal side om side, så en udsendelse
+// får et int-array. Opslag sker i en åbent adresseret tabel med plads+1 (0 er tom),
+// nøglet på klientens identitet som i et almindeligt Set<Client>. Fjernes en deltager, flyttes
+// den sidste ind på dens plads, så arrays forbliver tætte. Ikke trådsikker; Room bruger den
+// kun fra sin mailbox
+final class Members {
+
+    private static final int MIN_CAPACITY = 4;
+
+    private Client[] clients = new Client[MIN_CAPACITY];
+    private int[] numbers = new int[MIN_CAPACITY];
+    private int size;
+    // Altid mindst dobbelt så stor som size, så der er korte søgninger
+    private int[] index = new int[MIN_CAPACITY * 2];
+
+    boolean add(Client client) {
+        int mask = index.length - 1;
+        int h = hash(client) & mask;
+        for (int slot; (slot = index[h]) != 0; h = (h + 1) & mask) {
+            if (clients[slot - 1] == client) return false;
+        }
+        if (size == clients.length) {
+            resize(clients.length * 2);
+            return add(client);
+        }
+        clients[size] = client;
+        numbers[size] = client.getNumber();
+        index[h] = ++size;
+        return true;
+    }
+
+    boolean remove(Client client) {
+        int h = find(client);
+        if (h < 0) return false;
+        int slot = index[h] - 1;
+        delete(h);
+        int last = --size;
+        if (slot != last) {
+            index[find(clients[last])] = slot + 1;
+            clients[slot] = clients[last];
+            numbers[slot] = numbers[last];
+        }
+        clients[last] = null;
+        if (clients.length > MIN_CAPACITY && size * 4 < clients.length) {
+            resize(clients.length / 2);
+        }
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void forEach(Consumer<Client> action) {
+        for (int i = 0; i < size; i++) action.accept(clients[i]);
+    }
+
+    // Kopi af tallene, som kan gives videre til andre tråde
+    int[] numbers() {
+        return Arrays.copyOf(numbers, size);
+    }
+
+    // Pladsen i index for klienten, eller -1
+    private int find(Client client) {
+        int mask = index.length - 1;
+        for (int h = hash(client) & mask, slot; (slot = index[h]) != 0; h = (h + 1) & mask) {
+            if (clients[slot - 1] == client) return h;
+        }
+        return -1;
+    }
+
+    // Sletning i lineær probing uden gravsten: efterfølgende poster i samme klynge rykkes
+    // tilbage hvis deres foretrukne plads ikke ligger mellem hullet og deres nuværende plads
+    private void delete(int hole) {
+        int mask = index.length - 1;
+        index[hole] = 0;
+        for (int j = (hole + 1) & mask; index[j] != 0; j = (j + 1) & mask) {
+            int home = hash(clients[index[j] - 1]) & mask;
+            boolean stays = hole <= j ? hole < home && home <= j : hole < home || home <= j;
+            if (!stays) {
+                index[hole] = index[j];
+                index[j] = 0;
+                hole = j;
+            }
+        }
+    }
+
+    private void resize(int capacity) {
+        Client[] c = new Client[capacity];
+        int[] n = new int[capacity];
+        System.arraycopy(clients, 0, c, 0, size);
+        System.arraycopy(numbers, 0, n, 0, size);
+        clients = c;
+        numbers = n;
+        index = new int[capacity * 2];
+        int mask = index.length - 1;
+        for (int i = 0; i < size; i++) {
+            int h = hash(clients[i]) & mask;
+            while (index[h] != 0) h = (h + 1) & mask;
+            index[h] = i + 1;
+        }
+    }
+
+    private static int hash(Client client) {
+        int h = System.identityHashCode(client) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
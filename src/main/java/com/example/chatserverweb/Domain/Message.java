@@ -29,4 +29,8 @@ public abstract class Message {
     public MessageType getType(){
         return type;
     }
+
+    // Samme besked med et andet id. Beskeder er uforanderlige, så et id der først kendes
+    // når beskeden gemmes (historikkens seq) giver en ny besked
+    public abstract Message withId(String id);
 }
@@ -1,4 +1,69 @@
 package com.example.chatserverweb.Domain;
 
+import java.time.Duration;
+
+// Hvordan et rum leverer beskeder til sine deltagere. IMMEDIATE sender hver besked
+// for sig. COALESCE samler beskeder der ankommer inden for vinduet og sender dem som
+// én frame pr. modtager, hvilket giver færre frames i travle rum mod lidt mere latency.
+//
+// Garantien er uafhængig af det: AT_MOST_ONCE sender og glemmer (det billigste), mens
+// AT_LEAST_ONCE nummererer rummets beskeder, gemmer de seneste til genudsendelse og
+// sender dem igen til deltagere der ikke har bekræftet dem med ACK.
 public class MessageDeliveryPolicy {
+
+    public enum Mode {
+        IMMEDIATE, COALESCE
+    }
+
+    public enum Guarantee {
+        AT_MOST_ONCE, AT_LEAST_ONCE
+    }
+
+    public static final MessageDeliveryPolicy IMMEDIATE =
+            new MessageDeliveryPolicy(Mode.IMMEDIATE, Duration.ZERO, Guarantee.AT_MOST_ONCE);
+
+    private final Mode mode;
+    private final Duration window;
+    private final Guarantee guarantee;
+
+    private MessageDeliveryPolicy(Mode mode, Duration window, Guarantee guarantee) {
+        this.mode = mode;
+        this.window = window;
+        this.guarantee = guarantee;
+    }
+
+    public static MessageDeliveryPolicy coalesce(Duration window) {
+        if (window == null || window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException("Window must be positive");
+        }
+        return new MessageDeliveryPolicy(Mode.COALESCE, window, Guarantee.AT_MOST_ONCE);
+    }
+
+    // Samme levering med en anden garanti
+    public MessageDeliveryPolicy withGuarantee(Guarantee guarantee) {
+        if (guarantee == null) {
+            throw new IllegalArgumentException("Guarantee cannot be null");
+        }
+        return guarantee == this.guarantee ? this : new MessageDeliveryPolicy(mode, window, guarantee);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public Duration getWindow() {
+        return window;
+    }
+
+    public Guarantee getGuarantee() {
+        return guarantee;
+    }
+
+    public boolean isCoalescing() {
+        return mode == Mode.COALESCE;
+    }
+
+    public boolean isAcknowledged() {
+        return guarantee == Guarantee.AT_LEAST_ONCE;
+    }
 }
@@ -1,5 +1,16 @@
 package com.example.chatserverweb.Domain;
 
 public enum MessageType {
-    TEXT, IMAGE, FILE, EMOJI, PRIVATE
+    TEXT(1), IMAGE(2), FILE(3), EMOJI(4), PRIVATE(5);
+
+    // Fast numerisk kode til den binære protokol (må ikke ændres for eksisterende typer)
+    private final int code;
+
+    MessageType(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
 }
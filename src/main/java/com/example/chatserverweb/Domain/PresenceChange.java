@@ -0,0 +1,7 @@
+package com.example.chatserverweb.Domain;
+
+// Én ændring i et rums roster. version tæller én op for hver ændring i rummet, så en
+// klient kan se om den har misset en ændring. status er OFFLINE når brugeren er logget ud
+// og ONLINE når brugeren blot er skiftet til et andet rum
+public record PresenceChange(String room, long version, String user, boolean joined, ClientStatus status) {
+}
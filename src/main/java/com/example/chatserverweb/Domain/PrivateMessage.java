@@ -20,4 +20,9 @@ public class PrivateMessage extends Message {
 
         return text;
     }
+
+    @Override
+    public PrivateMessage withId(String id) {
+        return new PrivateMessage(id, getSender(), receiver, getTimestamp(), text);
+    }
 }
@@ -1,9 +1,172 @@
 package com.example.chatserverweb.Domain;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// Et chatrum med sine deltagere. Alt der rører deltagerne kører på rummets mailbox
+// (en executor der kører én opgave ad gangen), så joins, leaves og udsendelser sker
+// i rækkefølge uden låse, mens forskellige rum kører parallelt.
+//
+// Rosteren er alle brugere i rummet, også dem på andre noder, sorteret efter navn så den
+// kan pagineres med navnet som cursor. Hver ændring får et nyt versionsnummer og meldes
+// til presence-lytteren som en PresenceChange, så en ændring koster O(log n) og ikke O(n).
 public class Room {
+
+    // Én side af rosteren. next er cursoren til næste side, null hvis der ikke er flere
+    public record RosterPage(long version, List<String> names, String next) {
+    }
+
+    private final String name;
+    private final Executor mailbox;
+    private final BiConsumer<Client, Message> delivery;
+    private volatile MessageDeliveryPolicy deliveryPolicy = MessageDeliveryPolicy.IMMEDIATE;
+    // Må kun bruges fra mailboxen
+    private final Members participants = new Members();
+    // Kopi af deltagernes tal, null efter en ændring. Må kun bruges fra mailboxen
+    private int[] numbers;
+    private final BiConsumer<Room, PresenceChange> presence;
+    // Må kun bruges fra mailboxen
+    private final NavigableSet<String> roster = new TreeSet<>();
+    private long rosterVersion;
+    private String rosterText;
+    private long rosterTextVersion = -1;
+
+    public Room(String name, Executor mailbox, BiConsumer<Client, Message> delivery) {
+        this(name, mailbox, delivery, (room, change) -> {
+        });
+    }
+
+    public Room(String name, Executor mailbox, BiConsumer<Client, Message> delivery,
+                BiConsumer<Room, PresenceChange> presence) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Name cannot be null or empty");
+        }
+        if (mailbox == null || delivery == null || presence == null) {
+            throw new IllegalArgumentException("Mailbox, delivery and presence cannot be null");
+        }
+        this.name = name;
+        this.mailbox = mailbox;
+        this.delivery = delivery;
+        this.presence = presence;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public MessageDeliveryPolicy getDeliveryPolicy() {
+        return deliveryPolicy;
+    }
+
+    public void setDeliveryPolicy(MessageDeliveryPolicy deliveryPolicy) {
+        if (deliveryPolicy == null) {
+            throw new IllegalArgumentException("Delivery policy cannot be null");
+        }
+        this.deliveryPolicy = deliveryPolicy;
+    }
+
+    // Kører opgaven på rummets mailbox efter alt der allerede er lagt i kø
+    public void execute(Runnable task) {
+        mailbox.execute(task);
+    }
+
+    public void addParticipant(Client client) {
+        execute(() -> {
+            if (participants.add(client)) {
+                numbers = null;
+                memberJoined(client.getName());
+            }
+        });
+    }
+
+    // Status læses nu, så en klient der logges ud meldes som OFFLINE
     public void removeParticipant(Client client) {
+        ClientStatus status = client.getStatus();
+        execute(() -> {
+            if (participants.remove(client)) {
+                numbers = null;
+                memberLeft(client.getName(), status);
+            }
+        });
+    }
+
+    // Bruger på en anden node, der kun står i rosteren og ikke får leveret beskeder herfra
+    public void addRemoteMember(String user) {
+        execute(() -> memberJoined(user));
+    }
+
+    public void removeRemoteMember(String user, ClientStatus status) {
+        execute(() -> memberLeft(user, status));
+    }
+
+    private void memberJoined(String user) {
+        if (roster.add(user)) {
+            presence.accept(this, new PresenceChange(name, ++rosterVersion, user, true, ClientStatus.ONLINE));
+        }
+    }
+
+    private void memberLeft(String user, ClientStatus status) {
+        if (roster.remove(user)) {
+            presence.accept(this, new PresenceChange(name, ++rosterVersion, user, false, status));
+        }
+    }
+
+    public void forEachParticipant(Consumer<Client> action) {
+        execute(() -> participants.forEach(action));
+    }
+
+    // Deltagernes tal (Client.getNumber) som de er nu. Arrayet ændres ikke bagefter, så det kan
+    // læses fra andre tråde; det genbruges indtil nogen joiner eller forlader rummet.
+    // Må kun kaldes fra mailboxen
+    public int[] participantNumbers() {
+        int[] n = numbers;
+        if (n == null) {
+            n = participants.numbers();
+            numbers = n;
+        }
+        return n;
     }
 
     public void broadcast(Message message) {
+        forEachParticipant(client -> delivery.accept(client, message));
+    }
+
+    // Navnene på deltagerne. Må kun kaldes fra mailboxen
+    public List<String> participantNames() {
+        List<String> names = new ArrayList<>(participants.size());
+        participants.forEach(c -> names.add(c.getName()));
+        return names;
+    }
+
+    // Op til limit navne efter cursoren after (null for første side). Må kun kaldes fra mailboxen
+    public RosterPage rosterPage(String after, int limit) {
+        NavigableSet<String> tail = after == null || after.isEmpty() ? roster : roster.tailSet(after, false);
+        List<String> names = new ArrayList<>(Math.min(limit, tail.size()));
+        for (String user : tail) {
+            if (names.size() == limit) {
+                return new RosterPage(rosterVersion, names, names.get(names.size() - 1));
+            }
+            names.add(user);
+        }
+        return new RosterPage(rosterVersion, names, null);
+    }
+
+    // Rosteren som kommasepareret tekst, genbrugt indtil rosteren ændres. Må kun kaldes fra mailboxen
+    public String rosterText() {
+        if (rosterTextVersion != rosterVersion) {
+            rosterText = String.join(", ", roster);
+            rosterTextVersion = rosterVersion;
+        }
+        return rosterText;
+    }
+
+    // Må kun kaldes fra mailboxen
+    public long rosterVersion() {
+        return rosterVersion;
     }
 }
@@ -14,4 +14,9 @@ public class TextMessage extends Message {
     public String getText(){
         return text;
     }
+
+    @Override
+    public TextMessage withId(String id) {
+        return new TextMessage(text, getSender(), getTimestamp(), id);
+    }
 }
@@ -0,0 +1,79 @@
+package com.example.chatserverweb.application;
+
+// Hvor langt en session i et AT_LEAST_ONCE-rum har bekræftet rummets frames (kumulativ ACK:
+// alt til og med acked er modtaget) og hvor mange gange den har fået dem sendt igen uden at
+// komme videre. Kun sessioner i sådanne rum har en, så AT_MOST_ONCE ikke koster noget pr. session.
+//
+// Ved RESUME oprettes den med tokenets acked og ulæst-cursor, før sessionen er i rummet; når
+// den kommer ind, sendes hullet fra rummets RetransmitWindow (eller historikken, hvis hullet
+// er større end vinduet)
+public final class AckState {
+
+    private final String room;
+    private final boolean resuming;
+    // Ulæst-cursor i historikken for RESUME, ellers -1
+    private final long cursor;
+    private long acked;
+    private int retransmits;
+    private long retransmittedAt;
+
+    private AckState(String room, long acked, boolean resuming, long cursor) {
+        this.room = room;
+        this.acked = acked;
+        this.resuming = resuming;
+        this.cursor = cursor;
+    }
+
+    // Sessionen er lige kommet ind i rummet og skal regne fra seq
+    public static AckState joined(String room, long seq) {
+        return new AckState(room, seq, false, -1);
+    }
+
+    // Sessionen genoptages i rummet og havde bekræftet til og med acked
+    public static AckState resuming(String room, long acked, long cursor) {
+        return new AckState(room, acked, true, cursor);
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public boolean isResuming() {
+        return resuming;
+    }
+
+    public long getCursor() {
+        return cursor;
+    }
+
+    public synchronized long getAcked() {
+        return acked;
+    }
+
+    // Kumulativ ACK. Ældre eller gentagne ACKs ignoreres, og seq kan ikke være over det rummet har sendt
+    public synchronized boolean ack(long seq, long head) {
+        if (seq <= acked || seq > head) {
+            return false;
+        }
+        acked = seq;
+        retransmits = 0;
+        return true;
+    }
+
+    // Om der er gået timeoutNanos siden den ældste ubekræftede frame eller sidste genudsendelse
+    public synchronized boolean due(long stampedAt, long nowNanos, long timeoutNanos) {
+        return nowNanos - Math.max(stampedAt, retransmittedAt) >= timeoutNanos;
+    }
+
+    // Tæller en genudsendelse og returnerer hvor mange der har været uden ny ACK
+    public synchronized int retransmitted(long nowNanos) {
+        retransmittedAt = nowNanos;
+        return ++retransmits;
+    }
+
+    // Opgiver at få sessionen til at bekræfte det der mangler og regner fra seq i stedet
+    public synchronized void skipTo(long seq) {
+        if (seq > acked) acked = seq;
+        retransmits = 0;
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.chatserverweb.application;
+
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Verificerer login på en begrænset trådpulje, så den dyre KDF og databaseopslaget
+// aldrig kører på WebSocket-trådene. Er køen fuld afvises login med BUSY.
+public class Authenticator implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(Authenticator.class.getName());
+
+    public enum Result {
+        OK, INVALID_PASSWORD, BUSY, ERROR
+    }
+
+    private final UserRepository users;
+    private final PasswordHasher hasher;
+    private final ThreadPoolExecutor executor;
+
+    public Authenticator(UserRepository users, PasswordHasher hasher, int threads, int queueCapacity) {
+        this.users = users;
+        this.hasher = hasher;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new NamedThreadFactory("chat-auth"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Tjekker login eller opretter ny bruger hvis brugernavnet ikke findes
+    public CompletableFuture<Result> authenticate(String username, String password) {
+        try {
+            return CompletableFuture.supplyAsync(() -> verify(username, password), executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(Result.BUSY);
+        }
+    }
+
+    private Result verify(String username, String password) {
+        try {
+            Optional<String> stored = users.findPasswordHash(username);
+            if (stored.isEmpty()) {
+                // Opretter ny bruger. Hvis en anden nåede først, tjekkes mod dennes hash
+                if (users.create(username, hasher.hash(password))) {
+                    return Result.OK;
+                }
+                stored = users.findPasswordHash(username);
+                if (stored.isEmpty()) {
+                    return Result.ERROR;
+                }
+            }
+            if (!hasher.verify(password, stored.get())) {
+                return Result.INVALID_PASSWORD;
+            }
+            // Opgraderer gamle hashes til det nuværende format
+            if (hasher.needsRehash(stored.get())) {
+                users.updatePasswordHash(username, hasher.hash(password));
+            }
+            return Result.OK;
+        } catch (SQLException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Login failed with an error for " + username, e);
+            return Result.ERROR;
+        }
+    }
+
+    // Antal logins der venter på en ledig tråd
+    public int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
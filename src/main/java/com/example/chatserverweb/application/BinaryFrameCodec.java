@@ -0,0 +1,161 @@
+package com.example.chatserverweb.application;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+// Kompakt binær protokol, valgt af klienten med subprotokollen chat.bin.v1.
+//
+// Server -> klient:  u8 type | varint afsender-id | u24 farve (RGB) | i64 epoch millis | varint længde | UTF-8 indhold
+// BATCH:             u8 type | varint antal | (varint længde | frame)*
+// SEQ:               u8 type | varint længde | UTF-8 rum|seq | frame
+// DEFLATE:           u8 type | varint ukomprimeret længde | raw deflate af en frame (kun chat.bin.v1+deflate, se FrameCompressor)
+// Klient -> server:  u8 type | varint antal felter | (varint længde | UTF-8)*
+//
+// Afsendernavne internaliseres til tal. Første gang en session møder et id, sendes
+// en SYMBOL-frame i samme format, hvor afsender-id er id'et og indholdet navnet.
+public class BinaryFrameCodec {
+
+    public static final String PROTOCOL = "chat.bin.v1";
+
+    private final NameTable names;
+
+    public BinaryFrameCodec() {
+        this(new NameTable());
+    }
+
+    // Afsender-id'erne er tallene i names, så en bruger har samme id i protokollen som i SessionRegistry
+    public BinaryFrameCodec(NameTable names) {
+        this.names = names;
+    }
+
+    // Returnerer det faste id for et navn
+    public int intern(String name) {
+        return names.intern(name);
+    }
+
+    public ByteBuffer encode(OutboundFrame frame) {
+        if (frame.getType() == FrameType.SEQ) {
+            return encodeSequenced(frame.getContent(), encode(frame.getParts().get(0)));
+        }
+        return encode(frame.getType(), intern(frame.getSender()), frame.getRgb(), frame.getTimestamp(), frame.getContent());
+    }
+
+    // Flere frames i én: hver frame kodes som ellers og længde-præfikses
+    public ByteBuffer encodeBatch(List<OutboundFrame> parts) {
+        List<ByteBuffer> encoded = new ArrayList<>(parts.size());
+        int size = 1 + 5;
+        for (OutboundFrame part : parts) {
+            ByteBuffer b = encode(part);
+            encoded.add(b);
+            size += 5 + b.remaining();
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.put((byte) FrameType.BATCH.getCode());
+        putVarint(buf, encoded.size());
+        for (ByteBuffer b : encoded) {
+            putVarint(buf, b.remaining());
+            buf.put(b);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static ByteBuffer encodeSequenced(String header, ByteBuffer frame) {
+        byte[] text = header.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(1 + 5 + text.length + frame.remaining());
+        buf.put((byte) FrameType.SEQ.getCode());
+        putVarint(buf, text.length);
+        buf.put(text);
+        buf.put(frame);
+        buf.flip();
+        return buf;
+    }
+
+    // Definerer et id for en session der ikke har set det før
+    public ByteBuffer symbol(int id, String name) {
+        return encode(FrameType.SYMBOL, id, 0, 0L, name);
+    }
+
+    private static ByteBuffer encode(FrameType type, int senderId, int rgb, long timestamp, String content) {
+        byte[] text = content.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(1 + 5 + 3 + 8 + 5 + text.length);
+        buf.put((byte) type.getCode());
+        putVarint(buf, senderId);
+        buf.put((byte) (rgb >>> 16)).put((byte) (rgb >>> 8)).put((byte) rgb);
+        buf.putLong(timestamp);
+        putVarint(buf, text.length);
+        buf.put(text);
+        buf.flip();
+        return buf;
+    }
+
+    // Afkoder en frame fra klienten. Kaster IllegalArgumentException hvis den er ugyldig
+    public static Inbound decode(ByteBuffer buf) {
+        try {
+            int code = buf.get() & 0xFF;
+            FrameType type = FrameType.fromCode(code);
+            if (type == null) {
+                throw new IllegalArgumentException("Unknown message type: " + code);
+            }
+            if (!type.isInbound()) {
+                throw new IllegalArgumentException("Message type not allowed from client: " + type.name());
+            }
+            int count = getVarint(buf);
+            List<String> fields = new ArrayList<>(Math.min(count, 8));
+            for (int i = 0; i < count; i++) {
+                int len = getVarint(buf);
+                if (len < 0 || len > buf.remaining()) {
+                    throw new IllegalArgumentException("Invalid message format.");
+                }
+                byte[] bytes = new byte[len];
+                buf.get(bytes);
+                fields.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            return new Inbound(type, fields);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Invalid message format.", e);
+        }
+    }
+
+    static void putVarint(ByteBuffer buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer buf) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Invalid varint");
+    }
+
+    // En afkodet frame fra klienten
+    public record Inbound(FrameType type, List<String> fields) {
+    }
+
+    // De symbol-id'er en binær session allerede kender
+    public static class Symbols {
+        private final BitSet known = new BitSet();
+
+        // Sand første gang id'et markeres
+        public synchronized boolean markKnown(int id) {
+            if (known.get(id)) {
+                return false;
+            }
+            known.set(id);
+            return true;
+        }
+    }
+}
@@ -16,8 +16,13 @@ import javafx.scene.control.Button;
 import javafx.scene.control.ScrollPane;
 import java.io.IOException;
 import java.net.URI;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,9 +31,25 @@ public class ChatClient extends Application {
 
     private Session session;
     private String username;
+    private String resumeToken;
     private TextFlow log;
     private static final Logger LOGGER = Logger.getLogger(ChatClient.class.getName());
-    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // Cacher det formaterede tidspunkt, så det ikke formateres for hver besked
+    private static final ChatClock CLOCK = new ChatClock(ChatClock.Mode.FORMATTED, Duration.ofMillis(100));
+    // Genforbindelse med eksponentiel backoff og fuld jitter, så tusindvis af klienter ikke
+    // forbinder i samme øjeblik efter et netværksudfald
+    private static final long RECONNECT_BASE_MILLIS = 500;
+    private static final long RECONNECT_MAX_MILLIS = 30_000;
+    private final ScheduledExecutorService reconnector =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("chat-reconnect"));
+    private final AtomicInteger reconnectAttempts = new AtomicInteger();
+    // Millisekunder serveren bad om at vente (RECONNECT) før næste forbindelse, eller -1
+    private volatile long reconnectHint = -1;
+    // AT_LEAST_ONCE-rum: seneste frame taget imod i rækkefølge. Hver frame bekræftes med det samme
+    private String ackRoom = "";
+    private long ackSeq;
+    // Næste element i en BATCH hører til en SEQ der blev droppet
+    private boolean skipNext;
 
     public static void main(String[] args) {
         launch(args);
@@ -60,7 +81,7 @@ public class ChatClient extends Application {
         // Besked input
         HBox msgBox = new HBox(5);
         TextField msgField = new TextField();
-        msgField.setPromptText("Type a message... (or /list, /w user msg)");
+        msgField.setPromptText("Type a message... (or /list, /w user msg, /search words)");
         Button sendButton = new Button("Send");
         msgBox.getChildren().addAll(msgField, sendButton);
 
@@ -169,18 +190,50 @@ public class ChatClient extends Application {
             URI uri = URI.create("ws://localhost:8080/chat");
             container.connectToServer(this, uri);
         } catch (DeploymentException | IOException ex) {
-            LOGGER.log(Level.SEVERE, null, ex);
+            LOGGER.log(Level.WARNING, "Could not connect to chat server", ex);
+            scheduleReconnect();
+        }
+    }
+
+    // Venter et tilfældigt tidsrum mellem 0 og en grænse der fordobles for hvert forsøg. Har serveren
+    // sendt RECONNECT før den lukkede, ventes i stedet den tid den bad om
+    private void scheduleReconnect() {
+        long hint = reconnectHint;
+        reconnectHint = -1;
+        long delay;
+        if (hint >= 0) {
+            delay = hint;
+        } else {
+            int attempt = reconnectAttempts.getAndIncrement();
+            long ceiling = Math.min(RECONNECT_MAX_MILLIS, RECONNECT_BASE_MILLIS << Math.min(attempt, 16));
+            delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
         }
+        appendToLog("Disconnected. Reconnecting in " + delay + " ms...", Color.RED);
+        reconnector.schedule(this::connectToWebSocket, delay, TimeUnit.MILLISECONDS);
     }
 
     @OnOpen
     public void onOpen(Session session) {
         this.session = session;
+        // Logger automatisk ind igen med token fra sidste login
+        if (username != null && resumeToken != null) {
+            String token = resumeToken;
+            resumeToken = null;
+            try {
+                session.getBasicRemote().sendText(username + "|" + now() + "|RESUME|" + token);
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, null, ex);
+            }
+        }
     }
 
     @OnMessage
     public void onMessage(String message) {
         // Modtager beskeder fra serveren og viser dem i chatten
+        if (skipNext) {
+            skipNext = false;
+            return;
+        }
         String[] parts = message.split("\\|", 5);
         if (parts.length < 5) {
             appendToLog(message, Color.BLACK);
@@ -189,12 +242,46 @@ public class ChatClient extends Application {
         String sender = parts[0];
         String colorStr = parts[1];
         String timestamp = parts[2];
+        // Serveren kan sende epoch millis i stedet for en formateret streng
+        if (!timestamp.isEmpty() && timestamp.chars().allMatch(Character::isDigit)) {
+            timestamp = CLOCK.format(Long.parseLong(timestamp));
+        }
         String type = parts[3];
         String payload = parts[4];
 
         Color color = Color.web(colorStr);
         String line = "[" + timestamp + "] ";
         switch (type) {
+            case "BATCH":
+                // Flere beskeder samlet af serveren, adskilt af record separator
+                for (String part : payload.split("\u001E")) {
+                    onMessage(part);
+                }
+                break;
+            case "SEQ": {
+                // rum|seq<RS>frame. I en BATCH er framen batchens næste element
+                int sep = payload.indexOf('\u001E');
+                boolean accepted = acceptSeq(sep < 0 ? payload : payload.substring(0, sep));
+                if (sep < 0) {
+                    skipNext = !accepted;
+                } else if (accepted) {
+                    onMessage(payload.substring(sep + 1));
+                }
+                break;
+            }
+            case "ACK": {
+                // rum|seq: serveren regner fra seq i rummet
+                int sep = payload.indexOf('|');
+                ackRoom = payload.substring(0, sep);
+                ackSeq = Long.parseLong(payload.substring(sep + 1));
+                break;
+            }
+            case "RECONNECT":
+                // Serveren genstarter og lukker forbindelsen; forbind igen om payload ms
+                reconnectHint = Long.parseLong(payload);
+                line += "[INFO] Server is restarting.";
+                appendToLog(line, Color.GRAY);
+                break;
             case "INFO":
                 line += "[INFO] " + payload;
                 appendToLog(line, Color.GRAY);
@@ -203,12 +290,60 @@ public class ChatClient extends Application {
                 line += "[ERROR] " + payload;
                 appendToLog(line, Color.RED);
                 break;
+            case "TOKEN":
+                // Logget ind igen: næste afbrydelse starter backoff forfra
+                resumeToken = payload;
+                reconnectAttempts.set(0);
+                break;
+            case "HISTORY":
+                // Markerer slutningen på en side historik
+                break;
+            case "ROSTER": {
+                // rum|version|cursor|navn|navn|...
+                String[] roster = payload.split("\\|");
+                List<String> names = roster.length > 3 ? List.of(roster).subList(3, roster.length) : List.of();
+                line += "[INFO] Users in " + roster[0] + ": " + String.join(", ", names);
+                appendToLog(line, Color.GRAY);
+                break;
+            }
+            case "PRESENCE": {
+                // rum|version|+/-|navn|status
+                String[] change = payload.split("\\|");
+                if (change.length < 5) break;
+                String what = change[2].equals("+") ? "joined the room"
+                        : change[4].equals("OFFLINE") ? "left the chat" : "left the room";
+                line += "[INFO] " + change[3] + " " + what + ".";
+                appendToLog(line, Color.GRAY);
+                break;
+            }
             case "TEXT":
                 appendColored(sender + ": ", color, payload, Color.BLACK);
                 break;
             case "EMOJI":
                 appendColored(sender + " sent: ", color, payload, Color.PURPLE);
                 break;
+            case "RESULT": {
+                // id|rum|modtager|tekst; rum er tomt for private beskeder
+                String[] hit = payload.split("\\|", 4);
+                if (hit.length < 4) break;
+                String where = hit[1].isEmpty() ? "[PRIVATE] to " + hit[2] : "#" + hit[1];
+                appendColored("[SEARCH] " + sender + " " + where + ": ", color, hit[3], Color.DARKSLATEGRAY);
+                break;
+            }
+            case "SEARCH":
+                // cursor|antal
+                line += "[SEARCH] " + payload.substring(payload.indexOf('|') + 1) + " result(s)";
+                appendToLog(line, Color.GRAY);
+                break;
+            case "FILE":
+            case "IMAGE": {
+                // fileId|filnavn|størrelse|content type; filen hentes fra /files/fileId
+                String[] file = payload.split("\\|", 4);
+                if (file.length < 4) break;
+                appendColored(sender + " shared: ", color, file[1] + " (" + file[2] + " bytes) http://localhost:8080/files/"
+                        + file[0], Color.DARKBLUE);
+                break;
+            }
             case "PRIVATE":
                 appendColored("[PRIVATE] " + sender + ": ", color, payload, Color.BLUE);
                 break;
@@ -217,11 +352,32 @@ public class ChatClient extends Application {
         }
     }
 
+    // Go-back-N: kun næste nummer i det nuværende rum tages imod; resten sender serveren igen
+    private boolean acceptSeq(String header) {
+        int sep = header.indexOf('|');
+        if (sep < 0 || !header.substring(0, sep).equals(ackRoom)
+                || Long.parseLong(header.substring(sep + 1)) != ackSeq + 1) {
+            return false;
+        }
+        ackSeq++;
+        try {
+            session.getBasicRemote().sendText(username + "|" + now() + "|ACK|" + ackRoom + "|" + ackSeq);
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+        }
+        return true;
+    }
+
     @OnClose
     public void onClose() {
-        // Genopretter forbindelse hvis den lukkes
-        appendToLog("Disconnected. Reconnecting...", Color.RED);
-        connectToWebSocket();
+        // Genopretter forbindelse hvis den lukkes. Tokenet genskaber rum og farve
+        session = null;
+        scheduleReconnect();
+    }
+
+    @Override
+    public void stop() {
+        reconnector.shutdownNow();
     }
 
     // Tilføjer tekst til chat loggen
@@ -242,7 +398,7 @@ public class ChatClient extends Application {
 
     // Returnerer nuværende tidspunkt som streng
     private String now() {
-        return LocalDateTime.now().format(TIME);
+        return CLOCK.now();
     }
 
 }
@@ -0,0 +1,81 @@
+package com.example.chatserverweb.application;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Fælles ur til tidsstempler i protokollen. Den formaterede streng for det aktuelle
+// sekund caches og opdateres af en ticker, så den ikke formateres pr. besked.
+// I EPOCH_MILLIS-mode sendes millisekunder, og klienten formaterer selv.
+public class ChatClock implements AutoCloseable {
+
+    public enum Mode {
+        FORMATTED, EPOCH_MILLIS
+    }
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Mode mode;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final ScheduledExecutorService ticker;
+    private volatile Tick tick;
+
+    public ChatClock(Mode mode, Duration tickInterval) {
+        this.mode = mode;
+        this.tick = compute(System.currentTimeMillis());
+        this.ticker = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("chat-clock"));
+        long interval = Math.max(1, tickInterval.toMillis());
+        ticker.scheduleAtFixedRate(this::refresh, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long millis() {
+        return System.currentTimeMillis();
+    }
+
+    // Nuværende tidspunkt i protokollens format
+    public String now() {
+        return mode == Mode.EPOCH_MILLIS ? Long.toString(System.currentTimeMillis()) : tick.text;
+    }
+
+    // Formaterer et tidspunkt. Tidspunkter i det aktuelle sekund bruger den cachede streng
+    public String format(long epochMillis) {
+        if (mode == Mode.EPOCH_MILLIS) {
+            return Long.toString(epochMillis);
+        }
+        Tick t = tick;
+        if (Math.floorDiv(epochMillis, 1000) == t.second) {
+            return t.text;
+        }
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), zone).format(TIME);
+    }
+
+    private void refresh() {
+        long now = System.currentTimeMillis();
+        if (Math.floorDiv(now, 1000) != tick.second) {
+            tick = compute(now);
+        }
+    }
+
+    private Tick compute(long epochMillis) {
+        long second = Math.floorDiv(epochMillis, 1000);
+        String text = LocalDateTime.ofInstant(Instant.ofEpochSecond(second), zone).format(TIME);
+        return new Tick(second, text);
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+
+    private record Tick(long second, String text) {
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.chatserverweb.application;
+
+// Parser til tekstprotokollen clientId|timestamp|type|content. Payload scannes én gang
+// med indexOf, og typen slås op uden at lave en ny store-bogstavs-streng. Parseren er
+// en genbrugelig view over payloaden: felterne kopieres først når de hentes.
+public final class ChatFrameParser {
+
+    // Typer en klient må sende med tekstprotokollen
+    private static final FrameType[] INBOUND = {
+            FrameType.LOGIN, FrameType.RESUME, FrameType.TEXT, FrameType.EMOJI,
+            FrameType.JOIN_ROOM, FrameType.HISTORY, FrameType.ROSTER, FrameType.PRIVATE, FrameType.UPLOAD,
+            FrameType.SEARCH, FrameType.ACK
+    };
+    private static final String[] INBOUND_NAMES = new String[INBOUND.length];
+
+    static {
+        for (int i = 0; i < INBOUND.length; i++) {
+            INBOUND_NAMES[i] = INBOUND[i].name();
+        }
+    }
+
+    private static final ThreadLocal<ChatFrameParser> LOCAL = ThreadLocal.withInitial(ChatFrameParser::new);
+
+    private String payload;
+    private int firstSep;
+    private int secondSep;
+    private int thirdSep;
+    private FrameType type;
+
+    // Parseren for den aktuelle tråd
+    public static ChatFrameParser local() {
+        return LOCAL.get();
+    }
+
+    // Parser payload. Returnerer false hvis der er færre end tre felter
+    public boolean parse(String payload) {
+        this.payload = payload;
+        this.type = null;
+        firstSep = payload.indexOf('|');
+        secondSep = firstSep < 0 ? -1 : payload.indexOf('|', firstSep + 1);
+        if (secondSep < 0) {
+            return false;
+        }
+        thirdSep = payload.indexOf('|', secondSep + 1);
+        type = lookup(payload, secondSep + 1, typeEnd());
+        return true;
+    }
+
+    // Typen, eller null hvis den ikke er en kendt klient-type
+    public FrameType type() {
+        return type;
+    }
+
+    public String clientId() {
+        return payload.substring(0, firstSep);
+    }
+
+    public String timestamp() {
+        return payload.substring(firstSep + 1, secondSep);
+    }
+
+    // Typen præcis som klienten skrev den (bruges i fejlbeskeder)
+    public String typeText() {
+        return payload.substring(secondSep + 1, typeEnd());
+    }
+
+    public String content() {
+        return thirdSep < 0 ? "" : payload.substring(thirdSep + 1);
+    }
+
+    // Delen før første | i et felt (hele feltet hvis der ikke er nogen |)
+    public static String head(String field) {
+        int sep = field.indexOf('|');
+        return sep < 0 ? field : field.substring(0, sep);
+    }
+
+    // Delen efter første | i et felt, eller null hvis der ikke er nogen |
+    public static String tail(String field) {
+        int sep = field.indexOf('|');
+        return sep < 0 ? null : field.substring(sep + 1);
+    }
+
+    private int typeEnd() {
+        return thirdSep < 0 ? payload.length() : thirdSep;
+    }
+
+    // Sammenligner tegn for tegn med Character.toUpperCase, så der ikke allokeres
+    private static FrameType lookup(String s, int start, int end) {
+        int len = end - start;
+        for (int i = 0; i < INBOUND_NAMES.length; i++) {
+            String name = INBOUND_NAMES[i];
+            if (name.length() != len) continue;
+            int j = 0;
+            while (j < len && Character.toUpperCase(s.charAt(start + j)) == name.charAt(j)) j++;
+            if (j == len) return INBOUND[i];
+        }
+        return null;
+    }
+}
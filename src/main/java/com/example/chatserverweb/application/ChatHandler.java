@@ -1,263 +1,1281 @@
 package com.example.chatserverweb.application;
 
+import com.example.chatserverweb.Domain.Client;
+import com.example.chatserverweb.Domain.ClientStatus;
+import com.example.chatserverweb.Domain.Cred;
+import com.example.chatserverweb.Domain.EmojiMessage;
+import com.example.chatserverweb.Domain.FileMesssage;
+import com.example.chatserverweb.Domain.Message;
+import com.example.chatserverweb.Domain.MessageDeliveryPolicy;
+import com.example.chatserverweb.Domain.MessageType;
+import com.example.chatserverweb.Domain.PresenceChange;
+import com.example.chatserverweb.Domain.PrivateMessage;
+import com.example.chatserverweb.Domain.Room;
+import com.example.chatserverweb.config.ChatProperties;
 import org.springframework.web.socket.*;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
-
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.sql.*;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.Collections;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
 
-public class ChatHandler extends TextWebSocketHandler {
-
-    // Gemmer brugere og deres sessioner
-    private final Map<String, WebSocketSession> users = new ConcurrentHashMap<>();
-    private final Map<WebSocketSession, String> sessions = new ConcurrentHashMap<>();
-    private final Map<String, Set<String>> rooms = new ConcurrentHashMap<>();
-    private final Map<String, String> userRooms = new ConcurrentHashMap<>();
-    private final Map<String, String> userColors = new ConcurrentHashMap<>();
-    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-
-    public ChatHandler() {
-        initDatabase();
-    }
-
-    // Initialiserer database og opretter brugertabel hvis den ikke findes
-    private void initDatabase() {
-        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:chat.db")) {
-            Statement stmt = conn.createStatement();
-            stmt.execute("CREATE TABLE IF NOT EXISTS users (username TEXT PRIMARY KEY, password TEXT)");
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-    }
-
-    // Tjekker login eller opretter ny bruger hvis brugernavnet ikke findes
-    private boolean authenticate(String username, String password, WebSocketSession session) {
-        String hashed = hashPassword(password);
-        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:chat.db")) {
-            PreparedStatement pstmt = conn.prepareStatement("SELECT password FROM users WHERE username = ?");
-            pstmt.setString(1, username);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                // Bruger findes, tjekker om adgangskoden passer
-                if (rs.getString("password").equals(hashed)) {
-                    if (users.containsKey(username)) {
-                        sendMsg(session, "SERVER|" + now() + "|ERROR|Username already in use.");
-                        return false;
-                    }
-                    return true;
-                } else {
-                    sendMsg(session, "SERVER|" + now() + "|ERROR|Invalid password.");
-                    return false;
-                }
-            } else {
-                // Opretter ny bruger
-                PreparedStatement insert = conn.prepareStatement("INSERT INTO users (username, password) VALUES (?, ?)");
-                insert.setString(1, username);
-                insert.setString(2, hashed);
-                insert.executeUpdate();
-                return true;
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            sendMsg(session, "SERVER|" + now() + "|ERROR|Database error.");
-            return false;
+public class ChatHandler extends AbstractWebSocketHandler implements ClusterBus.Listener {
+
+    // Id på en besked der endnu ikke er gemt (før PERSIST)
+    private static final String PENDING_ID = "";
+
+    // Sessionerne og hvilken session hver bruger (internaliseret til et tal) er logget ind med
+    private final SessionRegistry registry = new SessionRegistry();
+    private final RoomRegistry roomRegistry;
+    private final BinaryFrameCodec codec = new BinaryFrameCodec(registry.names());
+    private final FrameCompressor compressor;
+    // Brugere der er logget ind på andre noder
+    private final ClusterPresence presence = new ClusterPresence();
+
+    private final ChatProperties.Outbound outbound;
+    private final Executor outboundExecutor;
+    private final Authenticator authenticator;
+    private final CredentialCache credentialCache;
+    private final HistoryStore history;
+    private final OfflineInbox inbox;
+    private final FileStore files;
+    private final SearchIndex search;
+    private final int searchPageSize;
+    private final int maxChunk;
+    private final ChatProperties.History historySettings;
+    private final ChatProperties.Presence presenceSettings;
+    private final ChatClock clock;
+    private final ClusterBus bus;
+    private final Executor inboundExecutor;
+    private final ChatMetrics metrics;
+    private final ChatProperties.Delivery deliverySettings;
+    private final ScheduledExecutorService deliveryTimer;
+    // Rate limiting pr. session (nøgle: session id) og pr. rum; null når det er slået fra
+    private final RateLimiter sessionLimiter;
+    private final RateLimiter roomLimiter;
+    private final Map<String, AtomicLongArray> roomBuckets = new ConcurrentHashMap<>();
+    // Frames der venter på at blive samlet pr. rum (COALESCE). Bruges kun fra rummets leveringslane
+    private final Map<String, PendingBatch> pendingBatches = new ConcurrentHashMap<>();
+    // Tråde til DELIVER af rumbeskeder, eller null når det sker på rummets mailbox. ENCODE kører
+    // altid på mailboxen, så framen bygges én gang pr. besked. Hvert rum får sin egen serielle lane
+    // ovenpå, så rækkefølgen bevares
+    private final Executor fanoutExecutor;
+    private final Map<String, Executor> fanoutLanes = new ConcurrentHashMap<>();
+    private final MessagePipeline pipeline;
+    // Sekvensnumre og genudsendelse for AT_LEAST_ONCE-rum. Bruges kun fra rummets mailbox
+    private final Map<String, RetransmitWindow> windows = new ConcurrentHashMap<>();
+    private final long ackTimeoutNanos;
+    // Sat når serveren drænes før genstart: nye forbindelser afvises, og sessioner der lukkes
+    // meldes ikke som PRESENCE til de andre, der også er ved at blive lukket
+    private volatile boolean draining;
+
+    public ChatHandler(ChatProperties properties, Executor outboundExecutor, Authenticator authenticator,
+                       CredentialCache credentialCache, HistoryStore history, OfflineInbox inbox, FileStore files,
+                       SearchIndex search, ChatClock clock,
+                       ClusterBus bus,
+                       Executor roomExecutor, Executor fanoutExecutor, Executor inboundExecutor, ChatMetrics metrics,
+                       ScheduledExecutorService deliveryTimer) {
+        this.outbound = properties.getOutbound();
+        this.historySettings = properties.getHistory();
+        this.presenceSettings = properties.getPresence();
+        this.outboundExecutor = outboundExecutor;
+        this.authenticator = authenticator;
+        this.credentialCache = credentialCache;
+        this.history = history;
+        this.inbox = inbox;
+        this.files = files;
+        this.search = search;
+        this.searchPageSize = properties.getSearch().getPageSize();
+        this.maxChunk = (int) properties.getFiles().getChunkSize().toBytes();
+        this.clock = clock;
+        this.bus = bus;
+        this.inboundExecutor = properties.getExecution().getMode() == ExecutionMode.VIRTUAL ? inboundExecutor : null;
+        this.deliverySettings = properties.getDelivery();
+        this.deliveryTimer = deliveryTimer;
+        this.compressor = new FrameCompressor(properties.getCompression().getThreshold(), properties.getCompression().getLevel());
+        this.roomRegistry = new RoomRegistry(roomExecutor, this::deliverMessage, this::deliveryPolicy, this::presenceChanged);
+        this.metrics = metrics;
+        ChatProperties.Rate rate = properties.getRate();
+        this.sessionLimiter = rate.isEnabled() ? new RateLimiter(rate.getSession()) : null;
+        this.roomLimiter = rate.isEnabled() ? new RateLimiter(rate.getRoom()) : null;
+        this.fanoutExecutor = properties.getPipeline().getFanoutThreads() > 0 ? fanoutExecutor : null;
+        // Til og med ROUTE på sessionens tråd, PERSIST og ENCODE på rummets mailbox (hvor
+        // AT_LEAST_ONCE-rum nummererer framen) og DELIVER på rummets leveringslane. Private
+        // beskeder bliver på sessionens tråd hele vejen
+        MessagePipeline.Lane roomLane = e -> e.room() == null ? null : e.room()::execute;
+        MessagePipeline.Lane fanoutLane = e -> e.room() == null || this.fanoutExecutor == null ? null : deliveryLane(e.room());
+        this.pipeline = new MessagePipeline(metrics)
+                .stage(MessagePipeline.Step.DECODE, MessagePipeline.CALLER, this::decode)
+                .stage(MessagePipeline.Step.AUTHENTICATE, MessagePipeline.CALLER, this::authenticate)
+                .stage(MessagePipeline.Step.RATE_CHECK, MessagePipeline.CALLER, this::rateCheck)
+                .stage(MessagePipeline.Step.ROUTE, MessagePipeline.CALLER, this::route)
+                .stage(MessagePipeline.Step.PERSIST, roomLane, this::persist)
+                .stage(MessagePipeline.Step.ENCODE, roomLane, this::encode)
+                .stage(MessagePipeline.Step.DELIVER, fanoutLane, this::deliver);
+        this.ackTimeoutNanos = deliverySettings.getAckTimeout().toNanos();
+        if (deliverySettings.getGuarantee() == MessageDeliveryPolicy.Guarantee.AT_LEAST_ONCE
+                || !deliverySettings.getAcknowledgedRooms().isEmpty()) {
+            long period = Math.max(1, deliverySettings.getAckTimeout().toMillis() / 2);
+            deliveryTimer.scheduleAtFixedRate(this::checkAcks, period, period, TimeUnit.MILLISECONDS);
         }
+        metrics.gauge("chat.sessions", "Open WebSocket sessions", registry, SessionRegistry::sessionCount);
+        metrics.gauge("chat.users", "Logged in users on this node", registry, SessionRegistry::userCount);
+        metrics.gauge("chat.rooms", "Rooms on this node", roomRegistry, RoomRegistry::roomCount);
+        metrics.gauge("chat.outbound.queued", "Frames waiting in outbound queues", registry, r -> {
+            int[] depth = new int[1];
+            r.forEach(s -> depth[0] += s.getOutbox().depth());
+            return depth[0];
+        });
+        bus.subscribe(this);
+    }
+
+    // Trinene chatbeskeder går igennem. Kan udskiftes eller pakkes ind før serveren tager imod
+    public MessagePipeline pipeline() {
+        return pipeline;
     }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
+        if (draining) {
+            try {
+                session.close(CloseStatus.SERVICE_RESTARTED);
+            } catch (IOException e) {
+                // Sessionen er allerede væk
+            }
+            return;
+        }
+        // Plads til en fil-chunk og dens header
+        session.setBinaryMessageSizeLimit(Math.max(session.getBinaryMessageSizeLimit(), maxChunk + 16));
+        String protocol = session.getAcceptedProtocol();
+        boolean binary = BinaryFrameCodec.PROTOCOL.equals(protocol) || FrameCompressor.PROTOCOL.equals(protocol);
+        SessionRecord record = new SessionRecord(session,
+                new SessionOutbox(session, outbound.getCapacity(), outbound.getOverflow(), outboundExecutor, metrics),
+                binary ? new BinaryFrameCodec.Symbols() : null,
+                FrameCompressor.PROTOCOL.equals(protocol),
+                inboundExecutor != null ? new SerialExecutor(inboundExecutor) : null,
+                sessionLimiter != null ? sessionLimiter.newBuckets() : null);
+        registry.add(record);
         // Sender velkomstbesked når en ny forbindelse oprettes
-        sendMsg(session, "SERVER|#000000|" + now() + "|INFO|Welcome! Please login: LOGIN|yourName|yourPassword");
+        sendInfo(record, "Welcome! Please login: LOGIN|yourName|yourPassword");
     }
 
     @Override
-    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
-        String payload = message.getPayload();
-        String[] parts = payload.split("\\|", 4); // clientId|timestamp|type|payload
+    protected void handleTextMessage(WebSocketSession webSocketSession, TextMessage message) {
+        SessionRecord session = registry.session(webSocketSession.getId());
+        if (session == null) {
+            return;
+        }
+        ChatFrameParser frame = ChatFrameParser.local(); // clientId|timestamp|type|payload
+        if (!frame.parse(message.getPayload())) {
+            sendError(session, "Invalid message format.");
+            return;
+        }
+        FrameType type = frame.type();
+        String typeText = type == null ? frame.typeText() : null;
+        FrameFields fields = FrameFields.text(frame.content());
+        runInbound(session, () -> dispatch(session, type, typeText, fields));
+    }
 
-        if (parts.length < 3) {
-            sendMsg(session, "SERVER|" + now() + "|ERROR|Invalid message format.");
+    @Override
+    protected void handleBinaryMessage(WebSocketSession webSocketSession, BinaryMessage message) {
+        SessionRecord session = registry.session(webSocketSession.getId());
+        if (session == null) {
+            return;
+        }
+        ByteBuffer payload = message.getPayload();
+        // Fil-chunks sendes binært af alle klienter, også dem der ellers bruger tekstprotokollen. De
+        // skrives direkte fra containerens tråd (Tomcat genbruger bufferen); klienten sender dem først
+        // efter FILE_ACK, så uploaden er altid registreret
+        if (payload.hasRemaining() && (payload.get(payload.position()) & 0xFF) == FrameType.FILE_CHUNK.getCode()) {
+            receiveChunk(session, payload);
             return;
         }
+        // Binær protokol: felterne bruges som de er, så et felt godt må indeholde |
+        BinaryFrameCodec.Inbound frame;
+        try {
+            frame = BinaryFrameCodec.decode(message.getPayload());
+        } catch (IllegalArgumentException e) {
+            sendError(session, e.getMessage());
+            return;
+        }
+        FrameType type = frame.type();
+        FrameFields fields = FrameFields.of(frame.fields());
+        runInbound(session, () -> dispatch(session, type, type.name(), fields));
+    }
 
-        String clientId = parts[0];
-        String timestamp = parts[1];
-        String type = parts[2];
-        String content = parts.length > 3 ? parts[3] : "";
+    // Kører opgaven på sessionens serielle executor i VIRTUAL-mode, ellers direkte på containerens tråd.
+    // Parsingen sker før, så den trådlokale parser ikke skal oprettes pr. virtuel tråd
+    private void runInbound(SessionRecord session, Runnable task) {
+        Executor executor = session.getInbound();
+        if (executor == null) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+    }
 
+    // Behandler en frame fra klienten uanset protokol. typeText bruges kun i fejlbeskeden
+    // når typen er ukendt (type er null)
+    private void dispatch(SessionRecord session, FrameType type, String typeText, FrameFields fields) {
+        metrics.inbound(type);
+        // Frames i en BATCH og frame efter SEQ adskilles af RECORD_SEPARATOR i tekstprotokollen. Med
+        // kontroltegn i indhold, navne eller rum kunne en bruger få andre klienter til at se falske frames
+        if (fields.hasControlCharacters()) {
+            sendError(session, "Control characters are not allowed.");
+            return;
+        }
+        String content = fields.from(0);
+        // Chatbeskeder (også /w) går gennem pipelinen, der selv tjekker login og rate limit.
+        // PRIVATE|modtager|tekst deles her, hvor felterne stadig er adskilt
+        if (type == FrameType.PRIVATE) {
+            pipeline.submit(session, type, fields.from(1), fields.get(0));
+            return;
+        }
+        if (isChatMessage(type, content)) {
+            pipeline.submit(session, type, content, null);
+            return;
+        }
+        if (type != null && sessionLimiter != null && !withinLimits(session, type)) {
+            sendError(session, "Rate limit exceeded for " + type.name() + ".");
+            return;
+        }
         // Håndterer kommandoer der starter med /
-        if (type.equalsIgnoreCase("TEXT") && content.startsWith("/")) {
+        if (type == FrameType.TEXT && content.startsWith("/")) {
             if (content.equalsIgnoreCase("/list")) {
-                // Viser brugere i nuværende rum
-                String sender = sessions.get(session);
-                String room = userRooms.getOrDefault(sender, "general");
-                Set<String> roomUsers = rooms.getOrDefault(room, Collections.emptySet());
-                sendMsg(session, "SERVER|" + now() + "|INFO|Users in room: " + String.join(", ", roomUsers));
+                // Viser brugere i nuværende rum, også dem på andre noder
+                String sender = session.getName();
+                if (sender == null) {
+                    sendError(session, "Please login first.");
+                    return;
+                }
+                Room r = roomRegistry.room(currentRoom(sender));
+                r.execute(() -> sendInfo(session, "Users in room: " + r.rosterText()));
                 return;
             }
-            if (content.startsWith("/w ")) {
-                // Privat besked til en anden bruger
-                String[] cmd = content.split(" ", 3);
-                if (cmd.length == 3) {
-                    String recipient = cmd[1];
-                    String msg = cmd[2];
-                    WebSocketSession recSession = users.get(recipient);
-                    String sender = sessions.get(session);
-                    if (recSession != null) {
-                        String color = userColors.getOrDefault(sender, "#000000");
-                        sendMsg(recSession, sender + "|" + color + "|" + now() + "|PRIVATE|" + msg);
-                        sendMsg(session, sender + "|" + color + "|" + now() + "|PRIVATE|" + msg);
-                    } else {
-                        sendMsg(session, "SERVER|" + now() + "|ERROR|User not found: " + recipient);
-                    }
-                }
+            if (content.startsWith("/search ")) {
+                // Søgning i nuværende rum: /search ord
+                search(session, "", 0, content.substring(8));
                 return;
             }
         }
+        if (type == null) {
+            sendError(session, "Unknown message type: " + typeText);
+            return;
+        }
 
-        switch (type.toUpperCase()) {
-            case "LOGIN":
+        switch (type) {
+            case LOGIN:
                 // Login eller opret bruger
-                String[] creds = content.split("\\|", 2);
-                if (creds.length < 2) {
-                    sendMsg(session, "SERVER|" + now() + "|ERROR|Username and password required.");
+                String password = fields.from(1);
+                if (password == null) {
+                    sendError(session, "Username and password required.");
                     break;
                 }
-                String username = creds[0];
-                String password = creds[1];
-                if (authenticate(username, password, session)) {
-                    // Tildeler farve og tilføjer bruger til general-rum
-                    String color = String.format("#%06X", (int) (Math.random() * 0xFFFFFF));
-                    userColors.put(username, color);
-                    users.put(username, session);
-                    sessions.put(session, username);
-                    userRooms.put(username, "general");
-                    rooms.computeIfAbsent("general", k -> ConcurrentHashMap.newKeySet()).add(username);
-                    broadcastRoom("general", "SERVER", now(), "INFO", username + " joined the chat.");
+                String username = fields.get(0);
+                // | adskiller felterne i frames til klienten, så det kan ikke stå i et navn
+                if (username.indexOf('|') >= 0) {
+                    sendError(session, "Invalid username.");
+                    break;
                 }
+                long authStart = System.nanoTime();
+                authenticator.authenticate(username, password).thenAccept(result -> {
+                    metrics.auth(result, System.nanoTime() - authStart);
+                    switch (result) {
+                        case OK -> completeLogin(session, username, null);
+                        case INVALID_PASSWORD -> sendError(session, "Invalid password.");
+                        case BUSY -> sendError(session, "Server busy, please try again.");
+                        case ERROR -> sendError(session, "Database error.");
+                    }
+                });
                 break;
 
-            case "TEXT":
-                // Almindelig besked til rum
-                String sender = sessions.get(session);
+            case RESUME:
+                // Login med token fra et tidligere login, uden at køre KDF'en igen eller spørge
+                // databasen. Farve, rum og ulæste beskeder genskabes fra den lukkede session
+                CredentialCache.Resumed resumed = credentialCache.consume(content);
+                if (resumed == null) {
+                    sendError(session, "Invalid or expired token.");
+                    break;
+                }
+                completeLogin(session, resumed.username(), resumed);
+                break;
+
+            case JOIN_ROOM:
+                // Skifter rum for bruger
+                String sender = session.getName();
                 if (sender == null) {
-                    sendMsg(session, "SERVER|" + now() + "|ERROR|Please login first.");
+                    sendError(session, "Please login first.");
                     break;
                 }
-                String room = userRooms.getOrDefault(sender, "general");
-                broadcastRoom(room, sender, now(), "TEXT", content);
+                String newRoom = fields.get(0);
+                Client member = session.getClient();
+                if (member == null || newRoom.isEmpty()) {
+                    sendError(session, "Invalid room.");
+                    break;
+                }
+                Room joined = roomRegistry.join(member, newRoom);
+                bus.publish(ClusterMessage.presence(bus.nodeId(), sender, newRoom));
+                sendInfo(session, "Joined room: " + newRoom);
+                sendHistory(session, newRoom, historySettings.getBackfill(), Long.MAX_VALUE);
+                sendRoster(session, joined, null, presenceSettings.getPageSize());
                 break;
 
-            case "EMOJI":
-                // Emoji besked til rum
-                sender = sessions.get(session);
+            case ROSTER:
+                // Side af rosteren i nuværende rum: ROSTER|cursor|antal (begge valgfri)
+                sender = session.getName();
                 if (sender == null) {
-                    sendMsg(session, "SERVER|" + now() + "|ERROR|Please login first.");
+                    sendError(session, "Please login first.");
                     break;
                 }
-                room = userRooms.getOrDefault(sender, "general");
-                broadcastRoom(room, sender, now(), "EMOJI", content);
+                String rosterAfter = fields.get(0);
+                String rosterLimit = fields.from(1);
+                try {
+                    int limit = rosterLimit == null || rosterLimit.isEmpty() ? presenceSettings.getPageSize()
+                            : Integer.parseInt(rosterLimit);
+                    limit = Math.max(1, Math.min(limit, presenceSettings.getMaxPage()));
+                    sendRoster(session, roomRegistry.room(currentRoom(sender)), rosterAfter, limit);
+                } catch (NumberFormatException e) {
+                    sendError(session, "Invalid roster request.");
+                }
                 break;
 
-            case "JOIN_ROOM":
-                // Skifter rum for bruger
-                sender = sessions.get(session);
+            case HISTORY:
+                // Ældre beskeder i nuværende rum: HISTORY|antal|cursor (cursor er valgfri)
+                sender = session.getName();
+                if (sender == null) {
+                    sendError(session, "Please login first.");
+                    break;
+                }
+                String count = fields.get(0);
+                String after = fields.from(1);
+                try {
+                    int limit = count.isEmpty() ? historySettings.getBackfill() : Integer.parseInt(count);
+                    long cursor = after != null && !after.isEmpty() ? Long.parseLong(after) : Long.MAX_VALUE;
+                    limit = Math.max(1, Math.min(limit, historySettings.getMaxPage()));
+                    sendHistory(session, currentRoom(sender), limit, cursor);
+                } catch (NumberFormatException e) {
+                    sendError(session, "Invalid history request.");
+                }
+                break;
+
+            case UPLOAD:
+                // Starter en upload til nuværende rum: UPLOAD|filnavn|størrelse
+                sender = session.getName();
                 if (sender == null) {
-                    sendMsg(session, "SERVER|" + now() + "|ERROR|Please login first.");
+                    sendError(session, "Please login first.");
                     break;
                 }
-                String newRoom = content.split("\\|")[0];
-                String oldRoom = userRooms.getOrDefault(sender, "general");
-                rooms.getOrDefault(oldRoom, Collections.emptySet()).remove(sender);
-                rooms.computeIfAbsent(newRoom, k -> ConcurrentHashMap.newKeySet()).add(sender);
-                userRooms.put(sender, newRoom);
-                sendMsg(session, "SERVER|" + now() + "|INFO|Joined room: " + newRoom);
-                broadcastRoom(newRoom, "SERVER", now(), "INFO", sender + " joined the room.");
+                String fileName = fields.get(0);
+                String fileSize = fields.from(1);
+                try {
+                    startUpload(session, fileName, fileSize == null ? -1 : Long.parseLong(fileSize));
+                } catch (NumberFormatException e) {
+                    sendError(session, "Invalid upload request.");
+                }
                 break;
 
-            case "PRIVATE":
-                // Privat besked via kommando
-                String[] priv = content.split("\\|", 2);
-                if (priv.length == 2) {
-                    String recipient = priv[0];
-                    String msg = priv[1];
-                    WebSocketSession recSession = users.get(recipient);
-                    sender = sessions.get(session);
-                    if (sender == null) {
-                        sendMsg(session, "SERVER|" + now() + "|ERROR|Please login first.");
-                        break;
-                    }
-                    if (recSession != null) {
-                        String color = userColors.getOrDefault(sender, "#000000");
-                        sendMsg(recSession, sender + "|" + color + "|" + now() + "|PRIVATE|" + msg);
-                        sendMsg(session, sender + "|" + color + "|" + now() + "|PRIVATE|" + msg);
-                    } else {
-                        sendMsg(session, "SERVER|" + now() + "|ERROR|User not found: " + recipient);
-                    }
+            case ACK:
+                // Kumulativ bekræftelse af rummets frames: ACK|rum|seq. Klienten samler dem, så
+                // der ikke kommer én pr. frame
+                String ackRoom = fields.get(0);
+                String ackSeq = fields.from(1);
+                if (ackSeq == null) {
+                    sendError(session, "Room and sequence number required.");
+                    break;
+                }
+                try {
+                    long seq = Long.parseLong(ackSeq);
+                    AckState acks = session.getAcks();
+                    RetransmitWindow window = acks != null && acks.getRoom().equals(ackRoom) ? windows.get(ackRoom) : null;
+                    if (window != null) acks.ack(seq, window.head());
+                } catch (NumberFormatException e) {
+                    sendError(session, "Invalid sequence number.");
+                }
+                break;
+
+            case SEARCH:
+                // Fuldtekstsøgning: SEARCH|scope|cursor|ord
+                String scope = fields.get(0);
+                String searchCursor = fields.get(1);
+                String words = fields.from(2);
+                try {
+                    if (words == null) throw new NumberFormatException();
+                    search(session, scope, searchCursor.isEmpty() ? 0 : Long.parseLong(searchCursor), words);
+                } catch (NumberFormatException e) {
+                    sendError(session, "Invalid search request.");
                 }
                 break;
 
             default:
-                sendMsg(session, "SERVER|" + now() + "|ERROR|Unknown message type: " + type);
+                sendError(session, "Unknown message type: " + type.name());
+        }
+    }
+
+    private static boolean isChatMessage(FrameType type, String content) {
+        return type == FrameType.EMOJI
+                || type == FrameType.TEXT && !content.equalsIgnoreCase("/list") && !content.startsWith("/search ");
+    }
+
+    // DECODE: /w modtager tekst bliver til PRIVATE med modtageren for sig. PRIVATE er allerede delt
+    // af dispatch, TEXT og EMOJI er bare teksten
+    private MessagePipeline.Envelope decode(MessagePipeline.Envelope e) {
+        String content = e.content();
+        String recipient;
+        String text;
+        if (e.type() == FrameType.PRIVATE) {
+            recipient = e.recipient();
+            text = content;
+        } else if (e.type() == FrameType.TEXT && content.startsWith("/w ")) {
+            int space = content.indexOf(' ', 3);
+            recipient = space < 0 ? null : content.substring(3, space);
+            text = space < 0 ? null : content.substring(space + 1);
+        } else {
+            return e;
+        }
+        if (text == null) {
+            return null;
+        }
+        if (recipient.isEmpty()) {
+            sendError(e.session(), "User not found: " + recipient);
+            return null;
+        }
+        return e.withContent(FrameType.PRIVATE, text, recipient);
+    }
+
+    // AUTHENTICATE: afsenderen skal være logget ind. Beskeden får først sit id i PERSIST
+    private MessagePipeline.Envelope authenticate(MessagePipeline.Envelope e) {
+        Client sender = e.session().getClient();
+        if (sender == null) {
+            sendError(e.session(), "Please login first.");
+            return null;
+        }
+        Date ts = new Date(clock.millis());
+        return e.withMessage(switch (e.type()) {
+            case EMOJI -> new EmojiMessage(e.content(), sender, ts, PENDING_ID);
+            case PRIVATE -> new PrivateMessage(PENDING_ID, sender,
+                    new Client(e.recipient(), e.recipient(), new Cred(), registry.names().find(e.recipient())), ts, e.content());
+            default -> new com.example.chatserverweb.Domain.TextMessage(e.content(), sender, ts, PENDING_ID);
+        });
+    }
+
+    // RATE_CHECK: sessionens og, for rumbeskeder, rummets bucket
+    private MessagePipeline.Envelope rateCheck(MessagePipeline.Envelope e) {
+        if (sessionLimiter != null && !withinLimits(e.session(), e.type())) {
+            sendError(e.session(), "Rate limit exceeded for " + e.type().name() + ".");
+            return null;
+        }
+        return e;
+    }
+
+    // ROUTE: rumbeskeder til afsenderens nuværende rum. Private til modtagerens session her, til
+    // noden modtageren er på, eller til modtagerens inbox hvis den ikke er logget ind nogen steder
+    private MessagePipeline.Envelope route(MessagePipeline.Envelope e) {
+        if (e.type() != FrameType.PRIVATE) {
+            return e.withRoute(MessagePipeline.Route.ROOM, roomRegistry.room(currentRoom(e.session().getName())), null);
+        }
+        SessionRecord target = registry.user(e.recipient());
+        if (target != null) {
+            return e.withRoute(MessagePipeline.Route.LOCAL, null, target);
+        }
+        return e.withRoute(presence.nodeOf(e.recipient()) != null ? MessagePipeline.Route.REMOTE
+                : MessagePipeline.Route.OFFLINE, null, null);
+    }
+
+    // PERSIST: rumbeskeder i historikken (på rummets mailbox, så rækkefølgen er den samme som ved
+    // levering) og tekst i søgeindekset. Private beskeder får et seq til søgeindekset; til en
+    // bruger der ikke er logget ind gemmes de i inboxen, som selv svarer afsenderen
+    private MessagePipeline.Envelope persist(MessagePipeline.Envelope e) {
+        Message m = e.message();
+        String sender = m.getSender().getName();
+        String color = e.session().colorText();
+        long ts = m.getTimestamp().getTime();
+        switch (e.route()) {
+            case ROOM -> {
+                String room = e.room().getName();
+                HistoryEntry entry = history.append(room, color, id -> m.withId(Long.toString(id)));
+                if (m.getType() == MessageType.TEXT) {
+                    search.indexRoom(entry.seq(), room, sender, color, ts, entry.text());
+                }
+                return e.withMessage(entry.message()).withRecipients(e.room().participantNumbers());
+            }
+            case OFFLINE -> {
+                storeOffline(e.session(), color, (PrivateMessage) m);
+                return null;
+            }
+            default -> {
+                long id = history.nextSeq();
+                search.indexPrivate(id, sender, e.recipient(), color, ts, e.content());
+                return e.withMessage(m.withId(Long.toString(id)));
+            }
+        }
+    }
+
+    // ENCODE: én frame for alle modtagere, nummereret i AT_LEAST_ONCE-rum. Tekstudgaven kodes her,
+    // så det ikke sker hos første modtager
+    private MessagePipeline.Envelope encode(MessagePipeline.Envelope e) {
+        Message m = e.message();
+        OutboundFrame frame = new OutboundFrame(m.getSender().getName(), e.session().getColor(),
+                m.getTimestamp().getTime(), FrameType.valueOf(m.getType().name()), HistoryEntry.textOf(m));
+        if (e.room() != null && e.room().getDeliveryPolicy().isAcknowledged()) {
+            frame = stamp(e.room(), frame);
+        }
+        frame.text(clock);
+        return e.withFrame(frame);
+    }
+
+    // DELIVER: til rummets lokale deltagere og de andre noder, eller til modtageren. Afsenderen
+    // af en privat besked får en kopi. De andre noder får framen uden nummer, da hver node
+    // nummererer rummets frames på sin egen mailbox
+    private MessagePipeline.Envelope deliver(MessagePipeline.Envelope e) {
+        OutboundFrame frame = e.frame();
+        switch (e.route()) {
+            case ROOM -> {
+                deliverOnLane(e.room(), e.room().getName(), frame, e.recipients());
+                OutboundFrame unstamped = frame.getType() == FrameType.SEQ ? frame.getParts().get(0) : frame;
+                bus.publish(ClusterMessage.room(bus.nodeId(), e.room().getName(), unstamped));
+                return e;
+            }
+            case LOCAL -> sendMsg(e.target(), frame);
+            case REMOTE -> bus.publish(ClusterMessage.direct(bus.nodeId(), e.recipient(), frame));
+            default -> {
+            }
+        }
+        sendMsg(e.session(), frame);
+        return e;
+    }
+
+    // Rummets leveringslane: fanout-lanen når chat.pipeline.fanout-threads > 0, ellers mailboxen.
+    // Alt der rører rummets ventende batch kører her
+    private Executor deliveryLane(Room r) {
+        if (fanoutExecutor == null) {
+            return r::execute;
+        }
+        Executor lane = fanoutLanes.get(r.getName());
+        return lane != null ? lane : fanoutLanes.computeIfAbsent(r.getName(), n -> new SerialExecutor(fanoutExecutor));
+    }
+
+    // Reserverer pladsen og svarer FILE_ACK|handle|0|window. Klienten sender derefter FILE_CHUNK-frames
+    // (u8 type | varint handle | bytes) og må højst have window bytes der ikke er kvitteret for
+    private void startUpload(SessionRecord session, String name, long size) {
+        String clean = name.replaceAll("[|/\\\\\\p{Cntrl}]", "_").strip();
+        if (clean.isEmpty() || clean.length() > 255) {
+            sendError(session, "Invalid file name.");
+            return;
+        }
+        // Frames fra en session behandles én ad gangen, så tjek og start kan ikke overlappe
+        FileStore.Upload upload;
+        if (session.getUpload() != null) {
+            sendError(session, "Upload already in progress.");
+            return;
+        }
+        try {
+            upload = files.begin(session.getName(), clean, size, new FileStore.UploadListener() {
+                @Override
+                public void onProgress(FileStore.Upload upload, long received) {
+                    sendMsg(session, OutboundFrame.server(FrameType.FILE_ACK, upload.getHandle() + "|" + received));
+                }
+
+                @Override
+                public void onComplete(FileStore.Upload upload, FileStore.StoredFile file) {
+                    session.endUpload(upload);
+                    shareFile(session, file);
+                }
+
+                @Override
+                public void onFailed(FileStore.Upload upload, String reason) {
+                    session.endUpload(upload);
+                    sendError(session, reason);
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            sendError(session, e.getMessage());
+            return;
+        } catch (UncheckedIOException e) {
+            sendError(session, "Could not store file.");
+            return;
+        }
+        session.startUpload(upload);
+        sendMsg(session, OutboundFrame.server(FrameType.FILE_ACK, upload.getHandle() + "|0|" + files.getWindow()));
+    }
+
+    // En chunk til sessionens upload. Overskrides vinduet eller filens størrelse, afbrydes uploaden
+    private void receiveChunk(SessionRecord session, ByteBuffer payload) {
+        FileStore.Upload upload = session.getUpload();
+        int handle;
+        try {
+            payload.get();
+            handle = BinaryFrameCodec.getVarint(payload);
+        } catch (RuntimeException e) {
+            sendError(session, "Invalid message format.");
+            return;
+        }
+        if (upload == null || upload.getHandle() != handle) {
+            sendError(session, "No upload in progress.");
+            return;
+        }
+        if (!upload.write(payload)) {
+            session.endUpload(upload);
+            upload.abort();
+            sendError(session, "Upload of " + upload.getName() + " aborted: more data than the file size or the acknowledged window.");
+        }
+    }
+
+    // Den færdige fil deles i ejerens nuværende rum som en reference og gemmes i historikken
+    private void shareFile(SessionRecord session, FileStore.StoredFile file) {
+        Client author = session.getClient();
+        if (author == null) {
+            return;
+        }
+        String owner = author.getName();
+        int rgb = session.getColor();
+        String room = currentRoom(owner);
+        roomRegistry.room(room).execute(() -> {
+            long ts = clock.millis();
+            HistoryEntry entry = history.append(room, OutboundFrame.colorText(rgb),
+                    id -> new FileMesssage(Long.toString(id), author, new Date(ts), file.id(), file.name(), file.size(),
+                            file.contentType()));
+            broadcastRoom(room, owner, rgb, FrameType.valueOf(entry.message().getType().name()), entry.text());
+        });
+    }
+
+    // Sender en side hits som RESULT-frames (id|rum|modtager|tekst, nyeste først) efterfulgt af en
+    // SEARCH-frame med cursor til næste side (0 når der ikke er flere) og antal hits.
+    // scope: tom = nuværende rum, @ = egne private beskeder, * = alle rum og egne private, ellers et rum
+    private void search(SessionRecord session, String scope, long cursor, String words) {
+        String user = session.getName();
+        if (user == null) {
+            sendError(session, "Please login first.");
+            return;
+        }
+        SearchIndex.Scope kind = switch (scope) {
+            case "@" -> SearchIndex.Scope.PRIVATE;
+            case "*" -> SearchIndex.Scope.ALL;
+            default -> SearchIndex.Scope.ROOM;
+        };
+        String room = scope.isEmpty() ? currentRoom(user) : scope;
+        long before = cursor <= 0 ? Long.MAX_VALUE : cursor;
+        search.search(user, kind, room, words, before, searchPageSize).whenComplete((page, e) -> {
+            if (e != null) {
+                sendError(session, "Search failed.");
+                return;
+            }
+            if (page == null) {
+                sendError(session, "Nothing to search for.");
+                return;
+            }
+            for (SearchIndex.Hit hit : page.hits()) {
+                String recipient = hit.recipient() == null ? "" : hit.recipient();
+                sendMsg(session, new OutboundFrame(hit.sender(),
+                        hit.color() == null ? OutboundFrame.SERVER_COLOR : hit.color(), hit.ts(), FrameType.RESULT,
+                        hit.id() + "|" + hit.room() + "|" + recipient + "|" + hit.text()));
+            }
+            sendMsg(session, OutboundFrame.server(FrameType.SEARCH, page.next() + "|" + page.hits().size()));
+        });
+    }
+
+    // Tager en token fra sessionens bucket og, for rumbeskeder, fra rummets bucket
+    private boolean withinLimits(SessionRecord session, FrameType type) {
+        long now = System.nanoTime();
+        if (!sessionLimiter.tryAcquire(session.getBuckets(), type, now)) {
+            metrics.limited(false);
+            return false;
+        }
+        if (roomLimiter.limits(type)) {
+            String user = session.getName();
+            if (user != null) {
+                String room = currentRoom(user);
+                AtomicLongArray buckets = roomBuckets.get(room);
+                if (buckets == null) {
+                    buckets = roomBuckets.computeIfAbsent(room, r -> roomLimiter.newBuckets());
+                }
+                if (!roomLimiter.tryAcquire(buckets, type, now)) {
+                    metrics.limited(true);
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Modtageren er ikke logget ind nogen steder: beskeden gemmes i modtagerens inbox,
+    // eller afvises hvis brugeren ikke findes
+    private void storeOffline(SessionRecord session, String color, PrivateMessage message) {
+        String sender = message.getSender().getName();
+        String recipient = message.getReceiver().getName();
+        String msg = message.getText();
+        long ts = message.getTimestamp().getTime();
+        inbox.store(color, id -> message.withId(Long.toString(id)))
+                .whenComplete((stored, e) -> {
+                    if (e != null) {
+                        sendError(session, "Could not store message for " + recipient + ".");
+                    } else if (!stored) {
+                        sendError(session, "User not found: " + recipient);
+                    } else {
+                        search.indexPrivate(history.nextSeq(), sender, recipient, color, ts, msg);
+                        sendMsg(session, new OutboundFrame(sender, session.getColor(), ts, FrameType.PRIVATE, msg));
+                        sendInfo(session, recipient + " is offline. The message will be delivered at their next login.");
+                        // Loggede modtageren ind mens beskeden ventede på writeren, er dens inbox allerede tømt
+                        SessionRecord now = registry.user(recipient);
+                        if (now != null) deliverInbox(now, recipient);
+                    }
+                });
+    }
+
+    // Sender alt i brugerens inbox som BATCH-frames (én pr. side), ældste først
+    private void deliverInbox(SessionRecord session, String user) {
+        if (!inbox.hasMail(user)) {
+            return;
+        }
+        inbox.drain(user, page -> {
+            List<OutboundFrame> frames = new ArrayList<>(page.size());
+            for (OfflineInbox.Entry e : page) {
+                PrivateMessage m = e.message();
+                frames.add(new OutboundFrame(m.getSender().getName(), e.color(), m.getTimestamp().getTime(),
+                        FrameType.PRIVATE, m.getText()));
+            }
+            sendMsg(session, frames.size() == 1 ? frames.get(0) : OutboundFrame.batch(frames, clock.millis()));
+        }).thenAccept(count -> {
+            if (count > 0) sendInfo(session, count + " private message(s) delivered while you were offline.");
+        });
+    }
+
+    // Tildeler farve og tilføjer bruger til general-rum efter godkendt login. Ved RESUME genbruges
+    // farve og rum fra den lukkede session, og beskeder siden den lukkede markeres som ulæste
+    private void completeLogin(SessionRecord session, String username, CredentialCache.Resumed resumed) {
+        if (!session.isOpen()) {
+            return;
+        }
+        if (session.isLoggedIn()) {
+            sendError(session, "Already logged in.");
+            return;
+        }
+        String color = resumed != null && resumed.hasState() ? resumed.color() : null;
+        String roomName = resumed != null && resumed.hasState() ? resumed.room() : RoomRegistry.DEFAULT_ROOM;
+        long cursor = resumed != null && resumed.hasState() ? resumed.cursor() : -1;
+        long acked = resumed != null && resumed.hasState() ? resumed.acked() : -1;
+        int user = registry.names().intern(username);
+        // Et gyldigt token med en gammel session der endnu ikke er opdaget som død: den nye overtager
+        SessionRecord stale = registry.user(user);
+        if (resumed != null && stale != null && stale != session) {
+            if (color == null) {
+                color = stale.colorText();
+                roomName = currentRoom(username);
+            }
+            CloseStatus replaced = CloseStatus.NORMAL.withReason("Session resumed elsewhere");
+            connectionClosed(stale, replaced);
+            try {
+                stale.getSession().close(replaced);
+            } catch (IOException e) {
+                // Sessionen er allerede væk
+            }
+        }
+        int rgb = color != null ? OutboundFrame.parseColor(color) : (int) (Math.random() * 0xFFFFFF);
+        Client client = new Client(username, username, new Cred(), user);
+        // I et AT_LEAST_ONCE-rum sendes hullet siden sidste ACK, når sessionen er kommet ind (startAcks)
+        boolean replay = cursor >= 0 && acked >= 0 && deliveryPolicy(roomName).isAcknowledged();
+        Room room;
+        // Login kører på verifikationens tråd og kan overlappe med at forbindelsen lukkes. Under
+        // sessionens lås er den enten lukket før (og der logges ikke ind) eller efter, og så rydder
+        // connectionClosed navnet og rummet op
+        synchronized (session) {
+            if (registry.session(session.getId()) != session) {
+                return;
+            }
+            // To logins på samme forbindelse kan blive færdige samtidig
+            if (session.isLoggedIn()) {
+                sendError(session, "Already logged in.");
+                return;
+            }
+            // Navnet er optaget hvis brugeren er logget ind her eller på en anden node
+            if (presence.nodeOf(username) != null || !registry.claim(user, session)) {
+                sendError(session, "Username already in use.");
+                return;
+            }
+            client.login();
+            session.login(user, username, rgb, client);
+            if (replay) {
+                session.setAcks(AckState.resuming(roomName, acked, cursor));
+            }
+            room = roomRegistry.join(client, roomName);
+            bus.publish(ClusterMessage.presence(bus.nodeId(), username, roomName));
+        }
+        // Token til næste login, så en genforbindelse kan springe KDF'en over
+        String token = credentialCache.issue(username);
+        session.setResumeToken(token);
+        sendMsg(session, OutboundFrame.server(FrameType.TOKEN, token));
+        if (cursor < 0) {
+            sendHistory(session, roomName, historySettings.getBackfill(), Long.MAX_VALUE);
+        } else if (!replay) {
+            if (acked < 0 && deliveryPolicy(roomName).isAcknowledged()) {
+                // Sekvensnumrene kommer ikke med over en genstart (se StateSnapshot), så hullet kan ikke
+                // genudsendes. Klienten regner fra ACK'en den får ved join, og resten kommer fra historikken
+                sendInfo(session, "Message numbering was reset by a server restart; unread messages are loaded from history. Use HISTORY for older ones.");
+            }
+            sendUnread(session, roomName, cursor);
+        }
+        sendRoster(session, room, null, presenceSettings.getPageSize());
+        deliverInbox(session, username);
+    }
+
+    // Efter RESUME: de ulæste beskeder fra ringbufferen, dog mindst den almindelige backfill, så en
+    // klient der har mistet sin visning også får sammenhæng. Antallet af ulæste sendes som INFO
+    private void sendUnread(SessionRecord session, String room, long cursor) {
+        HistoryStore.Since unread = history.since(room, cursor, historySettings.getMaxPage());
+        int count = unread.entries().size();
+        sendInfo(session, "Resumed session in room: " + room);
+        sendHistory(session, room, Math.max(historySettings.getBackfill(), count), Long.MAX_VALUE).thenRun(() -> {
+            if (count > 0) {
+                sendInfo(session, (unread.complete() ? "" : "At least ") + count + " unread message(s) since you disconnected.");
+            }
+        });
+    }
+
+    // Sender en side af rummets roster: rum|version|cursor|navn|navn|... Køres på rummets mailbox,
+    // så siden passer med versionen og efterfølgende PRESENCE-frames bygger videre på den
+    private void sendRoster(SessionRecord session, Room room, String after, int limit) {
+        room.execute(() -> {
+            Room.RosterPage page = room.rosterPage(after, limit);
+            StringBuilder sb = new StringBuilder(room.getName()).append('|').append(page.version()).append('|');
+            if (page.next() != null) sb.append(page.next());
+            for (String name : page.names()) sb.append('|').append(name);
+            sendMsg(session, OutboundFrame.server(FrameType.ROSTER, sb.toString()));
+        });
+    }
+
+    // En ændring i et rums roster sendes til rummets lokale deltagere som rum|version|+/-|navn|status.
+    // Kører på rummets mailbox; brugere på andre noder meldes af deres egen node via ClusterBus
+    private void presenceChanged(Room room, PresenceChange change) {
+        if (draining) {
+            return;
+        }
+        String content = change.room() + "|" + change.version() + "|" + (change.joined() ? "+" : "-") + "|"
+                + change.user() + "|" + change.status();
+        OutboundFrame frame = new OutboundFrame(OutboundFrame.SERVER, OutboundFrame.SERVER_COLOR,
+                clock.millis(), FrameType.PRESENCE, content);
+        if (change.joined()) {
+            startAcks(room, change.user());
         }
+        deliverFromMailbox(room, frame);
+    }
+
+    // Sender en side historik (ældste først) efterfulgt af en HISTORY-frame med
+    // cursor til næste side (0 når der ikke er flere)
+    private CompletableFuture<Void> sendHistory(SessionRecord session, String room, int limit, long before) {
+        return history.before(room, before, limit).thenAccept(entries -> {
+            for (HistoryEntry e : entries) {
+                sendMsg(session, new OutboundFrame(e.message().getSender().getName(), e.color(),
+                        e.message().getTimestamp().getTime(), FrameType.valueOf(e.message().getType().name()), e.text()));
+            }
+            long next = entries.size() < limit ? 0 : entries.get(0).seq();
+            sendMsg(session, OutboundFrame.server(FrameType.HISTORY, Long.toString(next)));
+        });
     }
 
     @Override
-    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
-        // Fjerner bruger og opdaterer rum når forbindelsen lukkes
-        String user = sessions.remove(session);
+    public void afterConnectionClosed(WebSocketSession webSocketSession, CloseStatus status) {
+        SessionRecord session = registry.session(webSocketSession.getId());
+        if (session == null) {
+            return;
+        }
+        // Oprydningen køres efter de beskeder der allerede venter fra sessionen
+        Executor executor = session.getInbound();
+        if (executor == null) {
+            connectionClosed(session, status);
+        } else {
+            executor.execute(() -> connectionClosed(session, status));
+        }
+    }
+
+    private void connectionClosed(SessionRecord session, CloseStatus status) {
+        // Fjerner bruger og opdaterer rum når forbindelsen lukkes. Kun første gang, da en
+        // overtaget session også lukkes af containeren bagefter
+        if (!registry.remove(session)) {
+            return;
+        }
+        session.getOutbox().close(status);
+        FileStore.Upload upload = session.takeUpload();
+        if (upload != null) upload.abort();
+        // Venter på et login der er i gang (se completeLogin)
+        String user;
+        synchronized (session) {
+            user = session.getName();
+        }
         if (user != null) {
-            users.remove(user);
-            userColors.remove(user);
-            String room = userRooms.getOrDefault(user, "general");
-            rooms.getOrDefault(room, Collections.emptySet()).remove(user);
-            userRooms.remove(user);
-            broadcastRoom(room, "SERVER", now(), "INFO", user + " left the chat.");
+            // Alt med seq over cursoren er ulæst når brugeren genoptager sessionen
+            String token = session.getResumeToken();
+            if (token != null) {
+                String room = currentRoom(user);
+                AckState acks = session.getAcks();
+                credentialCache.suspend(token, session.colorText(), room, history.lastSeq(),
+                        acks != null && acks.getRoom().equals(room) ? acks.getAcked() : -1);
+            }
+            registry.release(session.getUser(), session);
+            // Rummet melder brugeren som OFFLINE til de andre deltagere
+            roomRegistry.logout(session.getClient());
+            bus.publish(ClusterMessage.leave(bus.nodeId(), user));
         }
     }
 
-    // Sender besked til en enkelt session
-    private void sendMsg(WebSocketSession session, String msg) {
+    // Drænes før genstart: nye forbindelser afvises, og hver session får RECONNECT|ms før den lukkes.
+    // ms spredes jævnt fra after til after + spread, så sessionerne ikke forbinder til den næste
+    // server på én gang. Lukningen gemmer sessionens farve, rum og cursor på dens token som ellers.
+    // Venter højst timeout på at den sidste sessions outbox har lukket sin forbindelse; de sessioner
+    // containeren ikke har nået at melde lukket, og dem der ikke blev lukket i tide, lukkes herfra.
+    // Returnerer antallet af sessioner
+    public int drain(Duration after, Duration spread, Duration timeout) {
+        draining = true;
+        List<SessionRecord> open = new ArrayList<>(registry.sessionCount());
+        registry.forEach(open::add);
+        long base = after.toMillis();
+        long width = spread.toMillis();
+        for (int i = 0; i < open.size(); i++) {
+            SessionRecord s = open.get(i);
+            sendMsg(s, OutboundFrame.server(FrameType.RECONNECT, Long.toString(base + width * i / open.size())));
+            s.getOutbox().closeWhenFlushed(CloseStatus.SERVICE_RESTARTED);
+        }
+        CompletableFuture<?>[] closing = new CompletableFuture<?>[open.size()];
+        for (int i = 0; i < closing.length; i++) {
+            closing[i] = open.get(i).getOutbox().terminated();
+        }
         try {
-            session.sendMessage(new TextMessage(msg));
-        } catch (Exception ignored) {}
-    }
-
-    // Sender besked til alle brugere i et rum
-    private void broadcastRoom(String room, String sender, String timestamp, String type, String content) {
-        Set<String> roomUsers = rooms.getOrDefault(room, Collections.emptySet());
-        String color = "SERVER".equals(sender) ? "#000000" : userColors.getOrDefault(sender, "#000000");
-        String msg = sender + "|" + color + "|" + timestamp + "|" + type + "|" + content;
-        roomUsers.forEach(u -> {
-            WebSocketSession s = users.get(u);
-            if (s != null && s.isOpen()) sendMsg(s, msg);
+            CompletableFuture.allOf(closing).get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // Resten lukkes herunder
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        registry.forEach(s -> connectionClosed(s, CloseStatus.SERVICE_RESTARTED));
+        return open.size();
+    }
+
+    // Sender en INFO-besked fra serveren til en enkelt session
+    private void sendInfo(SessionRecord session, String text) {
+        sendMsg(session, OutboundFrame.server(FrameType.INFO, text));
+    }
+
+    // Sender en ERROR-besked fra serveren til en enkelt session
+    private void sendError(SessionRecord session, String text) {
+        sendMsg(session, OutboundFrame.server(FrameType.ERROR, text));
+    }
+
+    // Lægger framen i sessionens udgående kø, kodet i den protokol sessionen bruger
+    private void sendMsg(SessionRecord session, OutboundFrame frame) {
+        SessionOutbox outbox = session.getOutbox();
+        BinaryFrameCodec.Symbols symbols = session.getSymbols();
+        if (symbols == null) {
+            outbox.send(frame.text(clock));
+            return;
+        }
+        BinaryMessage message = session.isCompressed() ? frame.binary(codec, compressor) : frame.binary(codec);
+        // Frames til sessionen sendes fra flere tråde (rummenes mailboxe, fanout-lanes, PRIVATE). Under
+        // låsen kommer en afsenders SYMBOL i køen før enhver frame der bruger id'et, også fra andre tråde
+        synchronized (symbols) {
+            announce(outbox, symbols, frame);
+            outbox.send(message);
+        }
+    }
+
+    // Afsenderne i framen, også inde i BATCH og SEQ
+    private void announce(SessionOutbox outbox, BinaryFrameCodec.Symbols symbols, OutboundFrame frame) {
+        if (frame.getParts() == null) {
+            announce(outbox, symbols, frame.getSender());
+        } else {
+            for (OutboundFrame part : frame.getParts()) announce(outbox, symbols, part);
+        }
+    }
+
+    // Sender en SYMBOL-frame første gang en binær session møder afsenderen. Den droppes ikke når
+    // køen er fuld, for id'et er markeret kendt og sendes ikke igen
+    private void announce(SessionOutbox outbox, BinaryFrameCodec.Symbols symbols, String sender) {
+        int senderId = codec.intern(sender);
+        if (symbols.markKnown(senderId)) {
+            outbox.sendRequired(new BinaryMessage(codec.symbol(senderId, sender)));
+        }
+    }
+
+    // Antal frames der venter i hver sessions udgående kø (nøgle: session id)
+    public Map<String, Integer> outboundQueueDepths() {
+        Map<String, Integer> depths = new HashMap<>();
+        registry.forEach(s -> depths.put(s.getId(), s.getOutbox().depth()));
+        return depths;
+    }
+
+    // Sender besked til alle brugere i et rum, på denne node og via bussen på de andre
+    private void broadcastRoom(String room, String sender, int color, FrameType type, String content) {
+        // Frame bygges én gang og kodes højst én gang pr. protokol for alle modtagere (tekst dog
+        // kun til en String; se OutboundFrame)
+        OutboundFrame frame = new OutboundFrame(sender, color, clock.millis(), type, content);
+        deliverRoom(room, frame);
+        bus.publish(ClusterMessage.room(bus.nodeId(), room, frame));
+    }
+
+    // Leverer kun til rummets sessioner på denne node
+    private void deliverRoom(String room, OutboundFrame frame) {
+        Room r = roomRegistry.find(room);
+        if (r == null) {
+            return;
+        }
+        r.execute(() -> deliverFromMailbox(r, frame));
+    }
+
+    // Kører på rummets mailbox: tager deltagerne som de er nu og leverer på rummets leveringslane.
+    // I AT_LEAST_ONCE-rum nummereres framen her; PRESENCE har sin egen version og nummereres ikke
+    private void deliverFromMailbox(Room r, OutboundFrame frame) {
+        int[] recipients = r.participantNumbers();
+        OutboundFrame f = frame.getType() != FrameType.PRESENCE && r.getDeliveryPolicy().isAcknowledged()
+                ? stamp(r, frame) : frame;
+        onLane(r, () -> deliverOnLane(r, r.getName(), f, recipients));
+    }
+
+    // Kører opgaven på rummets leveringslane. Kaldes fra mailboxen, som er lanen når der ikke er en fanout-pool
+    private void onLane(Room r, Runnable task) {
+        if (fanoutExecutor == null) {
+            task.run();
+        } else {
+            deliveryLane(r).execute(task);
+        }
+    }
+
+    // Giver framen rummets næste sekvensnummer. Kører på rummets mailbox
+    private OutboundFrame stamp(Room r, OutboundFrame frame) {
+        return window(r).stamp(frame, System.nanoTime());
+    }
+
+    private RetransmitWindow window(Room r) {
+        RetransmitWindow w = windows.get(r.getName());
+        return w != null ? w : windows.computeIfAbsent(r.getName(),
+                n -> new RetransmitWindow(n, deliverySettings.getRetransmitWindow()));
+    }
+
+    // Kører på rummets mailbox når en lokal bruger er kommet ind, i samme opgave som den gør det, så
+    // sessionen regner fra præcis det seq hvor den begyndte at være modtager. Ved RESUME sendes
+    // hullet siden sidste ACK fra vinduet, eller ulæste beskeder fra historikken hvis det er for stort
+    private void startAcks(Room r, String user) {
+        SessionRecord s = registry.user(user);
+        if (s == null) {
+            return;
+        }
+        AckState previous = s.getAcks();
+        if (!r.getDeliveryPolicy().isAcknowledged()) {
+            if (previous != null) s.setAcks(null);
+            return;
+        }
+        String room = r.getName();
+        RetransmitWindow w = window(r);
+        long head = w.head();
+        if (previous == null || !previous.isResuming() || !previous.getRoom().equals(room)) {
+            s.setAcks(AckState.joined(room, head));
+            onLane(r, () -> sendMsg(s, ackFrame(room, head)));
+            return;
+        }
+        long from = previous.getAcked();
+        if (!w.covers(from)) {
+            metrics.deliveryGap();
+            s.setAcks(AckState.joined(room, head));
+            onLane(r, () -> sendMsg(s, ackFrame(room, head)));
+            sendUnread(s, room, previous.getCursor());
+            return;
+        }
+        List<OutboundFrame> gap = w.since(from);
+        AckState acks = AckState.joined(room, from);
+        // Hullet er en genudsendelse, så timeouten regnes herfra og ikke fra da framesene fik nummer
+        acks.retransmitted(System.nanoTime());
+        s.setAcks(acks);
+        metrics.retransmitted(gap.size());
+        onLane(r, () -> {
+            sendInfo(s, "Resumed session in room: " + room);
+            sendMsg(s, ackFrame(room, from));
+            gap.forEach(f -> sendMsg(s, f));
+            if (!gap.isEmpty()) sendInfo(s, gap.size() + " unread message(s) since you disconnected.");
         });
     }
 
-    // Returnerer nuværende tidspunkt som string
-    private String now() {
-        return LocalDateTime.now().format(TIME);
+    // Det seq klienten skal regne fra i rummet (kumulativt: alt til og med er modtaget)
+    private static OutboundFrame ackFrame(String room, long seq) {
+        return OutboundFrame.server(FrameType.ACK, room + "|" + seq);
     }
 
-    // Hasher adgangskode med SHA-256
-    private String hashPassword(String password) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(password.getBytes());
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hash) {
-                sb.append(String.format("%02x", b));
+    // Kører på deliveryTimer: sessioner med frames der ikke er bekræftet tjekkes på rummets mailbox
+    private void checkAcks() {
+        registry.forEach(s -> {
+            AckState a = s.getAcks();
+            if (a == null || a.isResuming()) return;
+            RetransmitWindow w = windows.get(a.getRoom());
+            if (w == null || a.getAcked() >= w.head()) return;
+            Room r = roomRegistry.find(a.getRoom());
+            if (r != null) r.execute(() -> retransmit(s, a, r, w));
+        });
+    }
+
+    // Sender alt efter sessionens sidste ACK igen når den ældste ubekræftede frame er ældre end
+    // ack-timeout. Efter max-retransmits forsøg uden fremgang, eller hvis hullet ikke længere er i
+    // vinduet, regner sessionen fra nu og får besked om at hente resten med HISTORY
+    private void retransmit(SessionRecord s, AckState a, Room r, RetransmitWindow w) {
+        if (s.getAcks() != a || !s.isOpen()) {
+            return;
+        }
+        long acked = a.getAcked();
+        long head = w.head();
+        if (acked >= head) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (w.covers(acked)) {
+            if (!a.due(w.stampedAt(acked + 1), now, ackTimeoutNanos)) {
+                return;
+            }
+            if (a.retransmitted(now) <= deliverySettings.getMaxRetransmits()) {
+                List<OutboundFrame> gap = w.since(acked);
+                metrics.retransmitted(gap.size());
+                onLane(r, () -> gap.forEach(f -> sendMsg(s, f)));
+                return;
+            }
+        }
+        metrics.deliveryGap();
+        a.skipTo(head);
+        onLane(r, () -> {
+            sendMsg(s, ackFrame(r.getName(), head));
+            sendInfo(s, "Some messages could not be redelivered. Use HISTORY to catch up.");
+        });
+    }
+
+    // Leverer til deltagerne fra mailboxen da framen blev sendt. Kører på rummets leveringslane
+    private void deliverOnLane(Room r, String room, OutboundFrame frame, int[] recipients) {
+        MessageDeliveryPolicy policy = r.getDeliveryPolicy();
+        if (!policy.isCoalescing()) {
+            deliverNow(room, frame, recipients);
+            return;
+        }
+        // Første frame i vinduet planlægger udsendelsen; resten lægges bare i batchen, der
+        // sendes til deltagerne fra den seneste frame
+        PendingBatch batch = pendingBatches.computeIfAbsent(room, k -> new PendingBatch());
+        batch.frames.add(frame);
+        batch.recipients = recipients;
+        if (batch.frames.size() == 1) {
+            batch.timer = deliveryTimer.schedule(() -> deliveryLane(r).execute(() -> flushBatch(room, batch)),
+                    policy.getWindow().toNanos(), TimeUnit.NANOSECONDS);
+        } else if (batch.frames.size() >= deliverySettings.getMaxBatch()) {
+            // Fuld før vinduet er gået: timeren må ikke sende den næste batch før dens eget vindue
+            batch.timer.cancel(false);
+            flushBatch(room, batch);
+        }
+    }
+
+    // Sender batchen som én BATCH-frame (eller alene hvis der kun er én frame), hvis den stadig
+    // venter. Kører på rummets leveringslane
+    private void flushBatch(String room, PendingBatch batch) {
+        if (!pendingBatches.remove(room, batch) || batch.frames.isEmpty()) {
+            return;
+        }
+        List<OutboundFrame> frames = batch.frames;
+        metrics.batch(frames.size());
+        deliverNow(room, frames.size() == 1 ? frames.get(0) : OutboundFrame.batch(frames, clock.millis()), batch.recipients);
+    }
+
+    // Giver framen til de lokale deltagere. Kører på rummets leveringslane
+    private void deliverNow(String room, OutboundFrame frame, int[] recipients) {
+        boolean sampled = metrics.sampleBroadcast();
+        long start = sampled ? System.nanoTime() : 0;
+        for (int user : recipients) {
+            SessionRecord s = registry.user(user);
+            if (s != null && s.isOpen()) sendMsg(s, frame);
+        }
+        metrics.fanout(recipients.length);
+        if (sampled) metrics.broadcastDuration(room, System.nanoTime() - start);
+    }
+
+    // Levering af en domænebesked til én deltager (Room.broadcast)
+    private void deliverMessage(Client recipient, Message message) {
+        SessionRecord s = recipient.getNumber() != 0 ? registry.user(recipient.getNumber()) : registry.user(recipient.getName());
+        if (s == null || !s.isOpen()) {
+            return;
+        }
+        String sender = message.getSender().getName();
+        SessionRecord from = registry.user(sender);
+        sendMsg(s, new OutboundFrame(sender, from == null ? 0 : from.getColor(),
+                message.getTimestamp().getTime(), FrameType.valueOf(message.getType().name()), HistoryEntry.textOf(message)));
+    }
+
+    // COALESCE for alle rum eller kun for de rum der er nævnt i chat.delivery.coalesced-rooms,
+    // og tilsvarende AT_LEAST_ONCE med chat.delivery.guarantee og acknowledged-rooms
+    private MessageDeliveryPolicy deliveryPolicy(String room) {
+        MessageDeliveryPolicy policy = MessageDeliveryPolicy.IMMEDIATE;
+        if (deliverySettings.getMode() == MessageDeliveryPolicy.Mode.COALESCE
+                || deliverySettings.getCoalescedRooms().contains(room)) {
+            policy = MessageDeliveryPolicy.coalesce(deliverySettings.getWindow());
+        }
+        if (deliverySettings.getGuarantee() == MessageDeliveryPolicy.Guarantee.AT_LEAST_ONCE
+                || deliverySettings.getAcknowledgedRooms().contains(room)) {
+            policy = policy.withGuarantee(MessageDeliveryPolicy.Guarantee.AT_LEAST_ONCE);
+        }
+        return policy;
+    }
+
+    private String currentRoom(String user) {
+        String room = roomRegistry.roomOf(user);
+        return room == null ? RoomRegistry.DEFAULT_ROOM : room;
+    }
+
+    // Besked fra en anden node
+    @Override
+    public void onClusterMessage(ClusterMessage message) {
+        switch (message.kind()) {
+            case ROOM -> deliverRoom(message.target(), message.toFrame());
+            case PRIVATE -> {
+                SessionRecord s = registry.user(message.target());
+                if (s != null && s.isOpen()) sendMsg(s, message.toFrame());
+            }
+            case PRESENCE -> {
+                String user = message.target();
+                String room = message.content();
+                ClusterPresence.Entry old = presence.update(user, message.origin(), room);
+                if (old != null && old.room().equals(room)) return;
+                if (old != null) remoteLeft(user, old, ClientStatus.ONLINE);
+                roomRegistry.room(room).addRemoteMember(user);
+            }
+            case LEAVE -> {
+                ClusterPresence.Entry old = presence.remove(message.target(), message.origin());
+                if (old != null) remoteLeft(message.target(), old, ClientStatus.OFFLINE);
             }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
         }
     }
+
+    private void remoteLeft(String user, ClusterPresence.Entry entry, ClientStatus status) {
+        Room r = roomRegistry.find(entry.room());
+        if (r != null) r.removeRemoteMember(user, status);
+    }
+
+    // En ny node skal kende de brugere der allerede er logget ind her
+    @Override
+    public void onNodeUp(String nodeId) {
+        roomRegistry.forEachPlacement((user, room) -> bus.publish(ClusterMessage.presence(bus.nodeId(), user, room)));
+    }
+
+    @Override
+    public void onNodeDown(String nodeId) {
+        presence.removeNode(nodeId).forEach((user, entry) -> remoteLeft(user, entry, ClientStatus.OFFLINE));
+    }
+
+    // Et rums frames i det nuværende COALESCE-vindue og deltagerne de skal sendes til
+    private static final class PendingBatch {
+        final List<OutboundFrame> frames = new ArrayList<>();
+        int[] recipients;
+        // Sender batchen når vinduet er gået
+        ScheduledFuture<?> timer;
+    }
 }
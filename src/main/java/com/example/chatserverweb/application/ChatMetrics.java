@@ -0,0 +1,243 @@
+package com.example.chatserverweb.application;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+// Micrometer-målinger for chatserveren. Alle meters på hot path slås op én gang
+// ved opstart (tællere pr. frametype ligger i et array efter kode), så en måling
+// kun koster en atomisk optælling. Broadcast-tid pr. rum måles kun for hver
+// N'te udsendelse og for højst maxSampledRooms rum, så antallet af tags er begrænset.
+public class ChatMetrics {
+
+    private static final String OTHER_ROOM = "other";
+
+    // Writer-trådene med en WriteQueue foran
+    public enum Writer {
+        HISTORY, INBOX, SEARCH
+    }
+
+    private final MeterRegistry registry;
+    private final Counter[] inbound = new Counter[256];
+    private final Counter unknownInbound;
+    private final Counter outboundDropped;
+    private final Counter sendFailures;
+    private final Counter limitedSession;
+    private final Counter limitedRoom;
+    private final DistributionSummary fanout;
+    private final DistributionSummary batch;
+    private final Counter retransmitted;
+    private final Counter deliveryGaps;
+    private final Counter outboundFrames;
+    private final Timer[] auth = new Timer[Authenticator.Result.values().length];
+    private final Timer historyWrite;
+    private final DistributionSummary historyBatch;
+    private final Timer historyRead;
+    private final Timer inboxWrite;
+    private final DistributionSummary inboxDrained;
+    private final Counter fileBytesIn;
+    private final Counter fileBytesOut;
+    private final Timer searchIndex;
+    private final DistributionSummary searchBatch;
+    private final Timer searchQuery;
+    private final Counter[] writeOverflow = new Counter[Writer.values().length];
+    private final Counter[] writeLost = new Counter[Writer.values().length];
+    private final Timer[] stages = new Timer[MessagePipeline.Step.values().length];
+    private final int broadcastSample;
+    private final int stageSample;
+    private final int maxSampledRooms;
+    private final Map<String, Timer> broadcastTimers = new ConcurrentHashMap<>();
+
+    public ChatMetrics(MeterRegistry registry, int broadcastSample, int maxSampledRooms) {
+        this(registry, broadcastSample, 0, maxSampledRooms);
+    }
+
+    public ChatMetrics(MeterRegistry registry, int broadcastSample, int stageSample, int maxSampledRooms) {
+        this.registry = registry;
+        this.broadcastSample = broadcastSample;
+        this.stageSample = stageSample;
+        this.maxSampledRooms = maxSampledRooms;
+        for (FrameType type : FrameType.values()) {
+            inbound[type.getCode()] = Counter.builder("chat.messages.inbound")
+                    .description("Frames received from clients").tag("type", type.name()).register(registry);
+        }
+        unknownInbound = Counter.builder("chat.messages.inbound")
+                .description("Frames received from clients").tag("type", "UNKNOWN").register(registry);
+        outboundDropped = Counter.builder("chat.outbound.dropped")
+                .description("Frames dropped because a session's outbound queue was full").register(registry);
+        sendFailures = Counter.builder("chat.outbound.failures")
+                .description("Sends that failed and closed the session").register(registry);
+        limitedSession = Counter.builder("chat.messages.limited")
+                .description("Frames rejected by the rate limiter").tag("scope", "session").register(registry);
+        limitedRoom = Counter.builder("chat.messages.limited")
+                .description("Frames rejected by the rate limiter").tag("scope", "room").register(registry);
+        fanout = DistributionSummary.builder("chat.broadcast.fanout")
+                .description("Local recipients per room broadcast").register(registry);
+        batch = DistributionSummary.builder("chat.delivery.batch")
+                .description("Frames coalesced into one BATCH frame").register(registry);
+        retransmitted = Counter.builder("chat.delivery.retransmitted")
+                .description("Frames sent again because they were not acknowledged (AT_LEAST_ONCE)").register(registry);
+        deliveryGaps = Counter.builder("chat.delivery.gaps")
+                .description("Times a session could not be brought up to date from the retransmit window").register(registry);
+        outboundFrames = Counter.builder("chat.outbound.frames")
+                .description("WebSocket frames written to sessions").register(registry);
+        for (Authenticator.Result result : Authenticator.Result.values()) {
+            auth[result.ordinal()] = Timer.builder("chat.auth.duration")
+                    .description("Login verification time including queueing").tag("result", result.name()).register(registry);
+        }
+        historyWrite = Timer.builder("chat.history.write")
+                .description("Time to write one batch of history entries").register(registry);
+        historyBatch = DistributionSummary.builder("chat.history.batch")
+                .description("History entries per group commit").register(registry);
+        historyRead = Timer.builder("chat.history.read")
+                .description("Time to load a history page from the database").register(registry);
+        inboxWrite = Timer.builder("chat.inbox.write")
+                .description("Time to write one batch of offline private messages").register(registry);
+        inboxDrained = DistributionSummary.builder("chat.inbox.drained")
+                .description("Offline private messages delivered at login").register(registry);
+        fileBytesIn = Counter.builder("chat.files.bytes").baseUnit("bytes")
+                .description("File bytes uploaded and downloaded").tag("direction", "in").register(registry);
+        fileBytesOut = Counter.builder("chat.files.bytes").baseUnit("bytes")
+                .description("File bytes uploaded and downloaded").tag("direction", "out").register(registry);
+        searchIndex = Timer.builder("chat.search.index")
+                .description("Time to add one batch of messages to the search index").register(registry);
+        searchBatch = DistributionSummary.builder("chat.search.batch")
+                .description("Messages per search index commit").register(registry);
+        searchQuery = Timer.builder("chat.search.query")
+                .description("Time to run one search query").register(registry);
+        for (Writer writer : Writer.values()) {
+            String tag = writer.name().toLowerCase();
+            writeOverflow[writer.ordinal()] = Counter.builder("chat.writer.overflow")
+                    .description("Writes dropped because the writer's queue was full").tag("writer", tag)
+                    .register(registry);
+            writeLost[writer.ordinal()] = Counter.builder("chat.writer.lost")
+                    .description("Writes given up after the database failed every retry").tag("writer", tag)
+                    .register(registry);
+        }
+        for (MessagePipeline.Step step : MessagePipeline.Step.values()) {
+            stages[step.ordinal()] = Timer.builder("chat.pipeline.stage")
+                    .description("Sampled time spent in one message pipeline stage").tag("stage", step.name())
+                    .register(registry);
+        }
+    }
+
+    public void inbound(FrameType type) {
+        if (type == null) {
+            unknownInbound.increment();
+        } else {
+            inbound[type.getCode()].increment();
+        }
+    }
+
+    public void outboundDropped() {
+        outboundDropped.increment();
+    }
+
+    public void sendFailed() {
+        sendFailures.increment();
+    }
+
+    public void limited(boolean room) {
+        (room ? limitedRoom : limitedSession).increment();
+    }
+
+    public void batch(int frames) {
+        batch.record(frames);
+    }
+
+    public void retransmitted(int frames) {
+        retransmitted.increment(frames);
+    }
+
+    public void deliveryGap() {
+        deliveryGaps.increment();
+    }
+
+    public void outboundFrame() {
+        outboundFrames.increment();
+    }
+
+    public void fanout(int recipients) {
+        fanout.record(recipients);
+    }
+
+    public void auth(Authenticator.Result result, long nanos) {
+        auth[result.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void historyWrite(int entries, long nanos) {
+        historyWrite.record(nanos, TimeUnit.NANOSECONDS);
+        historyBatch.record(entries);
+    }
+
+    public void historyRead(long nanos) {
+        historyRead.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void inboxWrite(long nanos) {
+        inboxWrite.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void inboxDrained(int entries) {
+        inboxDrained.record(entries);
+    }
+
+    public void fileBytes(boolean upload, long bytes) {
+        (upload ? fileBytesIn : fileBytesOut).increment(bytes);
+    }
+
+    public void searchIndexed(int entries, long nanos) {
+        searchIndex.record(nanos, TimeUnit.NANOSECONDS);
+        searchBatch.record(entries);
+    }
+
+    public void searchQuery(long nanos) {
+        searchQuery.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void writeOverflow(Writer writer) {
+        writeOverflow[writer.ordinal()].increment();
+    }
+
+    public void writeLost(Writer writer, int entries) {
+        writeLost[writer.ordinal()].increment(entries);
+    }
+
+    // Om denne udsendelse skal tidsmåles (chat.metrics.broadcast-sample, 0 = aldrig)
+    public boolean sampleBroadcast() {
+        return broadcastSample > 0 && ThreadLocalRandom.current().nextInt(broadcastSample) == 0;
+    }
+
+    // Om denne besked skal tidsmåles i hvert pipeline-trin (chat.metrics.stage-sample, 0 = aldrig)
+    public boolean sampleStage() {
+        return stageSample > 0 && ThreadLocalRandom.current().nextInt(stageSample) == 0;
+    }
+
+    public void stage(MessagePipeline.Step step, long nanos) {
+        stages[step.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void broadcastDuration(String room, long nanos) {
+        Timer timer = broadcastTimers.get(room);
+        if (timer == null) {
+            String tag = broadcastTimers.size() < maxSampledRooms ? room : OTHER_ROOM;
+            timer = broadcastTimers.computeIfAbsent(tag, r -> Timer.builder("chat.broadcast.duration")
+                    .description("Sampled time to hand one broadcast to every local recipient").tag("room", r)
+                    .register(registry));
+        }
+        timer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Gauge der aflæses når metrics hentes, ikke på hot path
+    public <T> void gauge(String name, String description, T state, ToDoubleFunction<T> value) {
+        Gauge.builder(name, state, value).description(description).register(registry);
+    }
+}
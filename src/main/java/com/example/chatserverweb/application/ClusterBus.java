@@ -0,0 +1,35 @@
+package com.example.chatserverweb.application;
+
+// Forbindelse mellem chat-noder. En node leverer selv til sine egne sessioner og
+// publicerer beskeden, så de andre noder kan levere til deres.
+public interface ClusterBus extends AutoCloseable {
+
+    // IN_MEMORY: noder i samme JVM (én node = almindelig enkelt server). SOCKET: TCP mellem processer
+    enum Transport {
+        IN_MEMORY, SOCKET
+    }
+
+    // Denne nodes id
+    String nodeId();
+
+    // Sender beskeden til alle andre noder (ikke til denne node selv)
+    void publish(ClusterMessage message);
+
+    void subscribe(Listener listener);
+
+    @Override
+    void close();
+
+    interface Listener {
+
+        void onClusterMessage(ClusterMessage message);
+
+        // En ny node kan nu modtage beskeder fra denne node
+        default void onNodeUp(String nodeId) {
+        }
+
+        // En node er forsvundet, og dens brugere skal glemmes
+        default void onNodeDown(String nodeId) {
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.chatserverweb.application;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// En besked mellem noder. target er rummet (ROOM), modtageren (PRIVATE) eller
+// brugeren (PRESENCE/LEAVE, hvor content er brugerens rum)
+public record ClusterMessage(Kind kind, String origin, String target, String sender, String color,
+                             long timestamp, FrameType type, String content) {
+
+    public enum Kind {
+        ROOM, PRIVATE, PRESENCE, LEAVE
+    }
+
+    public static ClusterMessage room(String origin, String room, OutboundFrame frame) {
+        return new ClusterMessage(Kind.ROOM, origin, room, frame.getSender(), frame.getColor(),
+                frame.getTimestamp(), frame.getType(), frame.getContent());
+    }
+
+    public static ClusterMessage direct(String origin, String recipient, OutboundFrame frame) {
+        return new ClusterMessage(Kind.PRIVATE, origin, recipient, frame.getSender(), frame.getColor(),
+                frame.getTimestamp(), frame.getType(), frame.getContent());
+    }
+
+    public static ClusterMessage presence(String origin, String user, String room) {
+        return new ClusterMessage(Kind.PRESENCE, origin, user, "", "", 0, FrameType.INFO, room);
+    }
+
+    public static ClusterMessage leave(String origin, String user) {
+        return new ClusterMessage(Kind.LEAVE, origin, user, "", "", 0, FrameType.INFO, "");
+    }
+
+    // Framen som den skal leveres til lokale sessioner
+    public OutboundFrame toFrame() {
+        return new OutboundFrame(sender, color, timestamp, type, content);
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(kind.ordinal());
+        writeString(out, origin);
+        writeString(out, target);
+        writeString(out, sender);
+        writeString(out, color);
+        out.writeLong(timestamp);
+        out.writeByte(type.getCode());
+        writeString(out, content);
+    }
+
+    public static ClusterMessage readFrom(DataInputStream in) throws IOException {
+        int kind = in.readUnsignedByte();
+        if (kind >= Kind.values().length) {
+            throw new IOException("Unknown cluster message kind: " + kind);
+        }
+        String origin = readString(in);
+        String target = readString(in);
+        String sender = readString(in);
+        String color = readString(in);
+        long timestamp = in.readLong();
+        FrameType type = FrameType.fromCode(in.readUnsignedByte());
+        if (type == null) {
+            throw new IOException("Unknown frame type in cluster message");
+        }
+        return new ClusterMessage(Kind.values()[kind], origin, target, sender, color, timestamp, type, readString(in));
+    }
+
+    // writeUTF er begrænset til 64 KB, så længden skrives som int
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0 || len > 16 * 1024 * 1024) {
+            throw new IOException("Invalid string length in cluster message: " + len);
+        }
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.chatserverweb.application;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Hvilke brugere der er logget ind på andre noder, og i hvilket rum.
+// Opdateres ud fra PRESENCE/LEAVE-beskeder på ClusterBus
+public class ClusterPresence {
+
+    public record Entry(String node, String room) {
+    }
+
+    private final Map<String, Entry> remote = new ConcurrentHashMap<>();
+
+    // Returnerer brugerens tidligere placering, eller null
+    public Entry update(String user, String node, String room) {
+        return remote.put(user, new Entry(node, room));
+    }
+
+    // Fjerner kun brugeren hvis den stadig hører til den node der sendte LEAVE.
+    // Returnerer den fjernede placering, eller null
+    public Entry remove(String user, String node) {
+        Entry[] removed = new Entry[1];
+        remote.computeIfPresent(user, (u, e) -> {
+            if (!e.node().equals(node)) return e;
+            removed[0] = e;
+            return null;
+        });
+        return removed[0];
+    }
+
+    // Fjerner alle brugere fra noden. Returnerer de fjernede brugere og deres placering
+    public Map<String, Entry> removeNode(String node) {
+        Map<String, Entry> removed = new HashMap<>();
+        remote.forEach((user, e) -> {
+            if (e.node().equals(node) && remote.remove(user, e)) removed.put(user, e);
+        });
+        return removed;
+    }
+
+    public String nodeOf(String user) {
+        Entry e = remote.get(user);
+        return e == null ? null : e.node();
+    }
+
+    public List<String> usersInRoom(String room) {
+        List<String> result = new ArrayList<>();
+        remote.forEach((user, e) -> {
+            if (e.room().equals(room)) result.add(user);
+        });
+        return result;
+    }
+}
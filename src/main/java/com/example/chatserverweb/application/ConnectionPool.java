@@ -0,0 +1,117 @@
+package com.example.chatserverweb.application;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Lille fast pulje af SQLite-forbindelser i WAL-mode. Hver forbindelse husker sine
+// PreparedStatements, så SQL kun parses én gang pr. forbindelse.
+public class ConnectionPool implements AutoCloseable {
+
+    private static final long ACQUIRE_TIMEOUT_SECONDS = 10;
+
+    private final BlockingQueue<PooledConnection> idle;
+    private final List<PooledConnection> all = new ArrayList<>();
+
+    public ConnectionPool(String url, int size) throws SQLException {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+        // Fair, så ventende tråde får en forbindelse i den rækkefølge de bad om den. Ellers kan en
+        // tråd der lige har lagt sin tilbage tage den igen, og under mange samtidige logins kan en
+        // anden vente til ACQUIRE_TIMEOUT_SECONDS
+        this.idle = new ArrayBlockingQueue<>(size, true);
+        for (int i = 0; i < size; i++) {
+            Connection conn = DriverManager.getConnection(url);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA journal_mode=WAL");
+                stmt.execute("PRAGMA synchronous=NORMAL");
+                stmt.execute("PRAGMA busy_timeout=5000");
+            }
+            PooledConnection pooled = new PooledConnection(conn);
+            all.add(pooled);
+            idle.add(pooled);
+        }
+    }
+
+    // Låner en forbindelse, kører arbejdet og lægger forbindelsen tilbage
+    public <T> T withConnection(SqlWork<T> work) throws SQLException {
+        PooledConnection conn = acquire();
+        try {
+            return work.apply(conn);
+        } finally {
+            idle.offer(conn);
+        }
+    }
+
+    private PooledConnection acquire() throws SQLException {
+        try {
+            PooledConnection conn = idle.poll(ACQUIRE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (conn == null) {
+                throw new SQLException("Timed out waiting for a database connection");
+            }
+            return conn;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (PooledConnection conn : all) {
+            conn.close();
+        }
+    }
+
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        T apply(PooledConnection conn) throws SQLException;
+    }
+
+    // En forbindelse fra puljen med cache af PreparedStatements
+    public static class PooledConnection {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        // Returnerer et cachet statement med nulstillede parametre
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement stmt = statements.get(sql);
+            if (stmt == null) {
+                stmt = connection.prepareStatement(sql);
+                statements.put(sql, stmt);
+            } else {
+                stmt.clearParameters();
+            }
+            return stmt;
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        void close() {
+            try {
+                for (PreparedStatement stmt : statements.values()) {
+                    stmt.close();
+                }
+                connection.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
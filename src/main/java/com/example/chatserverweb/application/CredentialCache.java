@@ -0,0 +1,103 @@
+package com.example.chatserverweb.application;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Husker allerede verificerede brugere under et tilfældigt token, så en klient
+// der genopretter forbindelsen kan logge ind uden at køre KDF'en igen. Når sessionen
+// lukkes, gemmes dens farve, rum, ulæst-cursor og (i et AT_LEAST_ONCE-rum) hvor langt den
+// havde bekræftet på tokenet, så en RESUME kan genskabe sessionen uden at spørge databasen.
+// Tokens fra en tidligere server (StateSnapshot) slås op der, når de ikke findes her
+public class CredentialCache {
+
+    private static final int PURGE_EVERY = 1024;
+
+    // Brugeren bag et token og, hvis sessionen er lukket, dens tilstand (ellers null og 0).
+    // acked er -1 når rummet ikke bruger ACK
+    public record Resumed(String username, String color, String room, long cursor, long acked) {
+
+        public boolean hasState() {
+            return room != null;
+        }
+    }
+
+    private final Map<String, Entry> tokens = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicInteger issued = new AtomicInteger();
+    private final long ttlMillis;
+    private final StateSnapshot snapshot;
+
+    public CredentialCache(Duration ttl) {
+        this(ttl, StateSnapshot.empty());
+    }
+
+    public CredentialCache(Duration ttl, StateSnapshot snapshot) {
+        this.ttlMillis = ttl.toMillis();
+        this.snapshot = snapshot;
+    }
+
+    // Udsteder et nyt token for en verificeret bruger
+    public String issue(String username) {
+        if (issued.incrementAndGet() % PURGE_EVERY == 0) {
+            purgeExpired();
+        }
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String token = Hex.encode(bytes);
+        tokens.put(token, new Entry(new Resumed(username, null, null, 0, -1), System.currentTimeMillis() + ttlMillis));
+        return token;
+    }
+
+    // Gemmer sessionens tilstand på tokenet når forbindelsen lukkes. Levetiden regnes fra nu,
+    // så en klient der var forbundet længe stadig kan genoptage
+    public void suspend(String token, String color, String room, long cursor, long acked) {
+        tokens.computeIfPresent(token, (t, e) -> new Entry(new Resumed(e.resumed.username(), color, room, cursor, acked),
+                System.currentTimeMillis() + ttlMillis));
+    }
+
+    // Bruger tokenet (det kan kun bruges én gang). Returnerer brugeren og evt. tilstand, eller null
+    public Resumed consume(String token) {
+        Entry entry = tokens.remove(token);
+        if (entry == null) {
+            return snapshot.consume(token, System.currentTimeMillis());
+        }
+        if (entry.expiresAt < System.currentTimeMillis()) {
+            return null;
+        }
+        return entry.resumed;
+    }
+
+    // Tokens med en lukket sessions tilstand, også dem fra snapshottet der ikke er brugt endnu,
+    // til det næste snapshot
+    public List<StateSnapshot.Token> suspended() {
+        long now = System.currentTimeMillis();
+        List<StateSnapshot.Token> result = new ArrayList<>();
+        tokens.forEach((token, e) -> {
+            if (e.resumed.hasState() && e.expiresAt >= now) {
+                long[] hash = StateSnapshot.hash(token);
+                Resumed r = e.resumed;
+                result.add(new StateSnapshot.Token(hash[0], hash[1], r.username(), r.color(), r.room(), r.cursor(),
+                        e.expiresAt));
+            }
+        });
+        snapshot.forEachUnused(now, result::add);
+        return result;
+    }
+
+    public int size() {
+        return tokens.size();
+    }
+
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        tokens.values().removeIf(e -> e.expiresAt < now);
+    }
+
+    private record Entry(Resumed resumed, long expiresAt) {
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.chatserverweb.application;
+
+// Hvor indkommende beskeder behandles. CONTAINER: direkte på Tomcats tråd.
+// VIRTUAL: på en virtuel tråd pr. opgave (Java 21+), serielt pr. session
+public enum ExecutionMode {
+    CONTAINER, VIRTUAL
+}
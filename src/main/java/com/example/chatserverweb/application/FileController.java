@@ -0,0 +1,106 @@
+package com.example.chatserverweb.application;
+
+import com.example.chatserverweb.Domain.FileMesssage;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+// Download af filer delt i chatten: GET /files/{id}. Indholdet kopieres aldrig gennem heapen:
+// Tomcat sender filen med sendfile når connectoren understøtter det, ellers bruges
+// FileChannel.transferTo direkte til responsens kanal.
+//
+// Filnavn og dermed content type vælges af den der uploader, og filerne serveres fra chattens eget
+// origin. Kun rasterbilleder vises i browseren; alt andet (også SVG og HTML) hentes som vedhæftet
+// fil, browseren må ikke gætte en anden type, og CSP'en tillader hverken script eller andre kilder.
+@RestController
+public class FileController {
+
+    private static final Logger LOGGER = Logger.getLogger(FileController.class.getName());
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    private static final String CONTENT_SECURITY_POLICY = "default-src 'none'; img-src 'self'; sandbox";
+
+    private final FileStore files;
+    private final ChatMetrics metrics;
+
+    public FileController(FileStore files, ChatMetrics metrics) {
+        this.files = files;
+        this.metrics = metrics;
+    }
+
+    @GetMapping("/files/{id}")
+    public void download(@PathVariable String id, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        response.setHeader("X-Content-Type-Options", "nosniff");
+        response.setHeader("Content-Security-Policy", CONTENT_SECURITY_POLICY);
+        FileStore.StoredFile file;
+        try {
+            file = files.find(id);
+        } catch (SQLException e) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        if (file == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file.path(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        try (channel) {
+            // Filen på disken kan være kortere end registreret (afkortet eller ændret udefra). Så kan
+            // Content-Length ikke holdes, og transferTo ville blive ved med at returnere 0
+            if (channel.size() < file.size()) {
+                LOGGER.warning("Stored file " + file.id() + " is " + channel.size() + " bytes, expected " + file.size());
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                return;
+            }
+            // Rasterbilleder vises i browseren, alt andet gemmes som fil
+            ContentDisposition disposition = (FileMesssage.isInlineImage(file.contentType())
+                    ? ContentDisposition.inline() : ContentDisposition.attachment())
+                    .filename(file.name(), StandardCharsets.UTF_8).build();
+            response.setContentType(file.contentType());
+            response.setContentLengthLong(file.size());
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, disposition.toString());
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "private, max-age=31536000, immutable");
+            metrics.fileBytes(false, file.size());
+            if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+                request.setAttribute(SENDFILE_FILENAME, file.path().toAbsolutePath().toString());
+                request.setAttribute(SENDFILE_START, 0L);
+                request.setAttribute(SENDFILE_END, file.size());
+                return;
+            }
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = 0;
+            long end = Math.min(file.size(), channel.size());
+            while (position < end) {
+                long sent = channel.transferTo(position, end - position, out);
+                // 0 hvis filen er blevet kortere undervejs
+                if (sent <= 0) {
+                    throw new IOException("Stored file " + file.id() + " ended after " + position + " of " + end + " bytes");
+                }
+                position += sent;
+            }
+        }
+    }
+}
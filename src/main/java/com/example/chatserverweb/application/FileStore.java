@@ -0,0 +1,272 @@
+package com.example.chatserverweb.application;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Filer uploadet i chunks over WebSocket. Hver chunk kopieres ud af WebSocket-bufferen og
+// skrives med en FileChannel på en I/O-tråd (seriel pr. upload), så disken aldrig blokerer
+// tekstbeskederne. Klienten må højst have window bytes der ikke er skrevet endnu, og hver
+// bruger har en kvote, så hukommelse og disk er begrænset uanset filens størrelse.
+// Færdige filer flyttes fra tmp/ og registreres i files-tabellen.
+public class FileStore {
+
+    private static final Logger LOGGER = Logger.getLogger(FileStore.class.getName());
+
+    private static final String INSERT =
+            "INSERT INTO files (id, owner, name, size, content_type, created) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String SELECT = "SELECT owner, name, size, content_type FROM files WHERE id = ?";
+    private static final String DEFAULT_TYPE = "application/octet-stream";
+
+    // En færdig fil
+    public record StoredFile(String id, String owner, String name, long size, String contentType, Path path) {
+    }
+
+    // Får besked om en uploads fremskridt. Kaldes på uploadens I/O-tråd
+    public interface UploadListener {
+        void onProgress(Upload upload, long received);
+
+        void onComplete(Upload upload, StoredFile file);
+
+        void onFailed(Upload upload, String reason);
+    }
+
+    private final Path dir;
+    private final Path tmp;
+    private final ConnectionPool pool;
+    private final Executor ioPool;
+    private final long maxSize;
+    private final long quota;
+    private final int window;
+    private final ChatMetrics metrics;
+    private final Map<String, AtomicLong> usage = new ConcurrentHashMap<>();
+    private final AtomicInteger handles = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final SecureRandom random = new SecureRandom();
+
+    public FileStore(Path dir, ConnectionPool pool, Executor ioPool, long maxSize, long quota, int window,
+                     ChatMetrics metrics) throws IOException, SQLException {
+        this.dir = dir;
+        this.tmp = dir.resolve("tmp");
+        this.pool = pool;
+        this.ioPool = ioPool;
+        this.maxSize = maxSize;
+        this.quota = quota;
+        this.window = window;
+        this.metrics = metrics;
+        Files.createDirectories(tmp);
+        // Halve uploads fra sidste kørsel kan ikke genoptages
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(tmp)) {
+            for (Path p : leftovers) Files.deleteIfExists(p);
+        }
+        pool.withConnection(conn -> {
+            try (Statement stmt = conn.getConnection().createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS files (id TEXT PRIMARY KEY, owner TEXT NOT NULL, "
+                        + "name TEXT NOT NULL, size INTEGER NOT NULL, content_type TEXT NOT NULL, created INTEGER NOT NULL)");
+                stmt.execute("CREATE INDEX IF NOT EXISTS files_owner ON files (owner)");
+                try (ResultSet rs = stmt.executeQuery("SELECT owner, SUM(size) FROM files GROUP BY owner")) {
+                    while (rs.next()) usage.put(rs.getString(1), new AtomicLong(rs.getLong(2)));
+                }
+            }
+            return null;
+        });
+        metrics.gauge("chat.files.uploads", "Uploads in progress", active, AtomicInteger::get);
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    // Starter en upload og reserverer pladsen i brugerens kvote. Kaster IllegalArgumentException
+    // med en besked til klienten hvis filen er for stor eller kvoten er brugt
+    public Upload begin(String owner, String name, long size, UploadListener listener) {
+        if (size <= 0 || size > maxSize) {
+            throw new IllegalArgumentException("File size must be between 1 and " + maxSize + " bytes.");
+        }
+        AtomicLong used = usage.computeIfAbsent(owner, o -> new AtomicLong());
+        if (used.addAndGet(size) > quota) {
+            used.addAndGet(-size);
+            throw new IllegalArgumentException("Upload quota exceeded.");
+        }
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String id = Hex.encode(bytes);
+        try {
+            FileChannel channel = FileChannel.open(tmp.resolve(id), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            active.incrementAndGet();
+            return new Upload(handles.incrementAndGet(), id, owner, name, size, channel, listener);
+        } catch (IOException e) {
+            used.addAndGet(-size);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Den færdige fil med id'et, eller null
+    public StoredFile find(String id) throws SQLException {
+        if (id.length() != 32 || !id.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            return null;
+        }
+        return pool.withConnection(conn -> {
+            PreparedStatement select = conn.prepare(SELECT);
+            select.setString(1, id);
+            try (ResultSet rs = select.executeQuery()) {
+                if (!rs.next()) return null;
+                return new StoredFile(id, rs.getString(1), rs.getString(2), rs.getLong(3), rs.getString(4), dir.resolve(id));
+            }
+        });
+    }
+
+    public static String contentType(String name) {
+        String type = URLConnection.guessContentTypeFromName(name);
+        return type == null ? DEFAULT_TYPE : type;
+    }
+
+    // Én upload i gang. write kaldes fra WebSocket-tråden, resten sker på I/O-tråden
+    public class Upload {
+        private final int handle;
+        private final String id;
+        private final String owner;
+        private final String name;
+        private final long size;
+        private final FileChannel channel;
+        private final UploadListener listener;
+        private final Executor io = new SerialExecutor(ioPool);
+        // Modtaget fra klienten, og modtaget men endnu ikke skrevet
+        private final AtomicLong accepted = new AtomicLong();
+        private final AtomicLong buffered = new AtomicLong();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        // Kun på I/O-tråden
+        private long written;
+
+        private Upload(int handle, String id, String owner, String name, long size, FileChannel channel,
+                       UploadListener listener) {
+            this.handle = handle;
+            this.id = id;
+            this.owner = owner;
+            this.name = name;
+            this.size = size;
+            this.channel = channel;
+            this.listener = listener;
+        }
+
+        public int getHandle() {
+            return handle;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        // Lægger en chunk i kø til disken. Returnerer false hvis klienten har sendt mere end
+        // window bytes der ikke er kvitteret for, eller mere end filens størrelse
+        public boolean write(ByteBuffer chunk) {
+            int n = chunk.remaining();
+            if (finished.get() || accepted.addAndGet(n) > size || buffered.addAndGet(n) > window) {
+                return false;
+            }
+            ByteBuffer copy = ByteBuffer.allocate(n).put(chunk).flip();
+            metrics.fileBytes(true, n);
+            io.execute(() -> writeChunk(copy));
+            return true;
+        }
+
+        private void writeChunk(ByteBuffer chunk) {
+            if (finished.get()) return;
+            int n = chunk.remaining();
+            try {
+                while (chunk.hasRemaining()) channel.write(chunk);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not write upload " + id, e);
+                fail("Could not store file.");
+                return;
+            }
+            buffered.addAndGet(-n);
+            written += n;
+            listener.onProgress(this, written);
+            if (written == size) complete();
+        }
+
+        private void complete() {
+            if (!finished.compareAndSet(false, true)) return;
+            active.decrementAndGet();
+            String contentType = contentType(name);
+            try {
+                channel.close();
+                Files.move(tmp.resolve(id), dir.resolve(id), StandardCopyOption.ATOMIC_MOVE);
+                pool.withConnection(conn -> {
+                    PreparedStatement insert = conn.prepare(INSERT);
+                    insert.setString(1, id);
+                    insert.setString(2, owner);
+                    insert.setString(3, name);
+                    insert.setLong(4, size);
+                    insert.setString(5, contentType);
+                    insert.setLong(6, System.currentTimeMillis());
+                    return insert.executeUpdate();
+                });
+            } catch (IOException | SQLException e) {
+                LOGGER.log(Level.WARNING, "Could not complete upload " + id, e);
+                release();
+                listener.onFailed(this, "Could not store file.");
+                return;
+            }
+            listener.onComplete(this, new StoredFile(id, owner, name, size, contentType, dir.resolve(id)));
+        }
+
+        // Afbryder uploaden (fx når sessionen lukkes) og giver kvoten tilbage
+        public void abort() {
+            io.execute(() -> {
+                if (finished.compareAndSet(false, true)) {
+                    active.decrementAndGet();
+                    release();
+                }
+            });
+        }
+
+        private void fail(String reason) {
+            if (finished.compareAndSet(false, true)) {
+                active.decrementAndGet();
+                release();
+                listener.onFailed(this, reason);
+            }
+        }
+
+        private void release() {
+            try {
+                channel.close();
+                Files.deleteIfExists(tmp.resolve(id));
+                Files.deleteIfExists(dir.resolve(id));
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Could not remove partial upload " + id, e);
+            }
+            usage.get(owner).addAndGet(-size);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.chatserverweb.application;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Komprimering af binære frames for sessioner med subprotokollen chat.bin.v1+deflate.
+// I modsætning til permessage-deflate, hvor Tomcat komprimerer pr. forbindelse, komprimeres
+// en frame her én gang og den samme buffer sendes til alle modtagere. Alle bruger samme
+// niveau og faste ordbog, så resultatet er ens for alle. Frames under threshold sendes ukomprimeret.
+//
+// DEFLATE:  u8 type | varint ukomprimeret længde | raw deflate (med ordbog) af den oprindelige frame
+public class FrameCompressor {
+
+    public static final String PROTOCOL = BinaryFrameCodec.PROTOCOL + "+deflate";
+
+    // Tekst der ofte går igen i frames. Det vigtigste står sidst, tættest på data
+    private static final byte[] DICTIONARY = (
+            "Rate limit exceeded for TEXT.Invalid message format.User not found: Please login first."
+                    + "Welcome! Please login: LOGIN|yourName|yourPassword"
+                    + "Users in room: |OFFLINE|ONLINEJoined room: general"
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private final int threshold;
+    private final int level;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[4096]);
+
+    public FrameCompressor(int threshold, int level) {
+        this.threshold = threshold;
+        this.level = level;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(this.level, true));
+    }
+
+    // Den komprimerede frame, eller null hvis framen er under threshold eller ikke bliver mindre
+    public ByteBuffer compress(ByteBuffer frame) {
+        int length = frame.remaining();
+        if (length < threshold) {
+            return null;
+        }
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(frame.duplicate());
+        deflater.finish();
+        byte[] out = buffers.get();
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+                buffers.set(out);
+            }
+            size += deflater.deflate(out, size, out.length - size);
+        }
+        if (size + 6 >= length) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(1 + 5 + size);
+        buf.put((byte) FrameType.DEFLATE.getCode());
+        BinaryFrameCodec.putVarint(buf, length);
+        buf.put(out, 0, size);
+        buf.flip();
+        return buf;
+    }
+
+    // Pakker en DEFLATE-frame ud (bufferen står efter type-byten). Til klienter og tests
+    public static ByteBuffer inflate(ByteBuffer buf) {
+        int length = BinaryFrameCodec.getVarint(buf);
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setDictionary(DICTIONARY);
+            inflater.setInput(buf);
+            byte[] out = new byte[length];
+            int size = 0;
+            while (size < length && !inflater.finished()) {
+                int n = inflater.inflate(out, size, length - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                size += n;
+            }
+            if (size != length) {
+                throw new IllegalArgumentException("Truncated compressed frame");
+            }
+            return ByteBuffer.wrap(out);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Invalid compressed frame", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.chatserverweb.application;
+
+import java.util.List;
+
+// Felterne i en frame fra klienten, uanset protokol. I tekstprotokollen er de adskilt af | i
+// content, så kun det sidste felt der bruges (hentet med from) kan indeholde |. I den binære
+// protokol er hvert felt længde-præfikset og kan indeholde hvad som helst. Felt 0 findes
+// altid, evt. tomt
+public abstract class FrameFields {
+
+    // Felt i, eller null hvis frame har færre felter
+    public abstract String get(int i);
+
+    // Felt i og resten af framen (i den binære protokol de efterfølgende felter adskilt af |),
+    // eller null hvis frame har færre felter
+    public abstract String from(int i);
+
+    // Sand hvis et felt indeholder et kontroltegn ud over tab og linjeskift
+    public abstract boolean hasControlCharacters();
+
+    public static FrameFields text(String content) {
+        return new Text(content);
+    }
+
+    public static FrameFields of(List<String> fields) {
+        return new Listed(fields.isEmpty() ? List.of("") : fields);
+    }
+
+    private static final class Text extends FrameFields {
+        private final String content;
+
+        Text(String content) {
+            this.content = content;
+        }
+
+        @Override
+        public String get(int i) {
+            int start = start(i);
+            if (start < 0) {
+                return null;
+            }
+            int end = content.indexOf('|', start);
+            return end < 0 ? content.substring(start) : content.substring(start, end);
+        }
+
+        @Override
+        public String from(int i) {
+            int start = start(i);
+            return start < 0 ? null : content.substring(start);
+        }
+
+        @Override
+        public boolean hasControlCharacters() {
+            return isControl(content);
+        }
+
+        // Hvor felt i starter, eller -1
+        private int start(int i) {
+            int pos = 0;
+            for (int k = 0; k < i; k++) {
+                int sep = content.indexOf('|', pos);
+                if (sep < 0) return -1;
+                pos = sep + 1;
+            }
+            return pos;
+        }
+    }
+
+    private static final class Listed extends FrameFields {
+        private final List<String> fields;
+
+        Listed(List<String> fields) {
+            this.fields = fields;
+        }
+
+        @Override
+        public String get(int i) {
+            return i < fields.size() ? fields.get(i) : null;
+        }
+
+        @Override
+        public String from(int i) {
+            if (i >= fields.size()) {
+                return null;
+            }
+            return i == fields.size() - 1 ? fields.get(i) : String.join("|", fields.subList(i, fields.size()));
+        }
+
+        @Override
+        public boolean hasControlCharacters() {
+            for (String field : fields) {
+                if (isControl(field)) return true;
+            }
+            return false;
+        }
+    }
+
+    private static boolean isControl(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isISOControl(c) && c != '\t' && c != '\n' && c != '\r') return true;
+        }
+        return false;
+    }
+}
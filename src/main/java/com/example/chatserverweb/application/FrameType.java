@@ -0,0 +1,71 @@
+package com.example.chatserverweb.application;
+
+import com.example.chatserverweb.Domain.MessageType;
+
+// Alle frame-typer på wire-protokollen. Beskedtyperne genbruger koden fra
+// Domain.MessageType, kontroltyperne har deres egne koder
+public enum FrameType {
+    TEXT(MessageType.TEXT),
+    IMAGE(MessageType.IMAGE),
+    FILE(MessageType.FILE),
+    EMOJI(MessageType.EMOJI),
+    PRIVATE(MessageType.PRIVATE),
+    // Klient -> server
+    LOGIN(16),
+    RESUME(17),
+    JOIN_ROOM(18),
+    HISTORY(19),
+    ROSTER(20),
+    UPLOAD(21),
+    FILE_CHUNK(22),
+    SEARCH(23),
+    // Kumulativ bekræftelse rum|seq (AT_LEAST_ONCE). Serveren sender den også, med det seq
+    // klienten skal regne fra, når den kommer ind i et rum
+    ACK(24),
+    // Server -> klient
+    INFO(32),
+    ERROR(33),
+    TOKEN(34),
+    SYMBOL(35),
+    BATCH(36),
+    DEFLATE(37),
+    PRESENCE(38),
+    FILE_ACK(39),
+    RESULT(40),
+    // rum|seq efterfulgt af den frame der har fået nummeret (AT_LEAST_ONCE)
+    SEQ(41),
+    // Serveren lukker for genstart: forbind igen om så mange millisekunder og brug RESUME
+    RECONNECT(42);
+
+    private static final FrameType[] BY_CODE = new FrameType[256];
+
+    static {
+        for (FrameType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    private final int code;
+
+    FrameType(MessageType messageType) {
+        this(messageType.getCode());
+    }
+
+    FrameType(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    // Typer en klient må sende. IMAGE og FILE laver serveren selv når en upload er færdig
+    public boolean isInbound() {
+        return code < INFO.code && this != IMAGE && this != FILE;
+    }
+
+    // Slår typen op ud fra koden, null hvis koden er ukendt
+    public static FrameType fromCode(int code) {
+        return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+}
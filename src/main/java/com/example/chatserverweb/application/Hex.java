@@ -0,0 +1,36 @@
+package com.example.chatserverweb.application;
+
+// Hex-kodning med opslagstabel i stedet for String.format pr. byte
+public final class Hex {
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private Hex() {
+    }
+
+    public static String encode(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0, j = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xFF;
+            out[j++] = DIGITS[b >>> 4];
+            out[j++] = DIGITS[b & 0x0F];
+        }
+        return new String(out);
+    }
+
+    public static byte[] decode(String hex) {
+        if ((hex.length() & 1) != 0) {
+            throw new IllegalArgumentException("Hex string must have an even length");
+        }
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("Invalid hex character in: " + hex);
+            }
+            out[i] = (byte) ((hi << 4) | lo);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.chatserverweb.application;
+
+import com.example.chatserverweb.Domain.Client;
+import com.example.chatserverweb.Domain.Cred;
+import com.example.chatserverweb.Domain.EmojiMessage;
+import com.example.chatserverweb.Domain.FileMesssage;
+import com.example.chatserverweb.Domain.Message;
+import com.example.chatserverweb.Domain.MessageType;
+import com.example.chatserverweb.Domain.PrivateMessage;
+import com.example.chatserverweb.Domain.TextMessage;
+
+import java.util.Date;
+
+// En gemt besked i et rums historik. seq er global og stigende og bruges som cursor
+public record HistoryEntry(long seq, String room, String color, Message message) {
+
+    // Beskedens tekstindhold uanset type (for filer referencen, ikke indholdet)
+    public String text() {
+        return textOf(message);
+    }
+
+    public static String textOf(Message message) {
+        if (message instanceof TextMessage m) return m.getText();
+        if (message instanceof EmojiMessage m) return m.getEmoji();
+        if (message instanceof PrivateMessage m) return m.getText();
+        if (message instanceof FileMesssage m) return m.getReference();
+        return "";
+    }
+
+    // Genskaber en gemt besked ud fra dens felter (fra databasen eller et snapshot). Fil- og
+    // billedbeskeder er gemt som deres reference: fileId|filnavn|størrelse|content type
+    public static HistoryEntry of(long seq, String room, String sender, String color, long ts, String type, String content) {
+        Client client = new Client(sender, sender, new Cred());
+        Date date = new Date(ts);
+        Message message;
+        if (MessageType.EMOJI.name().equals(type)) {
+            message = new EmojiMessage(content, client, date, Long.toString(seq));
+        } else if (MessageType.FILE.name().equals(type) || MessageType.IMAGE.name().equals(type)) {
+            String[] parts = content.split("\\|", 4);
+            message = new FileMesssage(Long.toString(seq), client, date, parts[0], parts[1], Long.parseLong(parts[2]), parts[3]);
+        } else {
+            message = new TextMessage(content, client, date, Long.toString(seq));
+        }
+        return new HistoryEntry(seq, room, color, message);
+    }
+}
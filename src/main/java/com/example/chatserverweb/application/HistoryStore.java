@@ -0,0 +1,304 @@
+package com.example.chatserverweb.application;
+
+import com.example.chatserverweb.Domain.Message;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Historik pr. rum. Nye beskeder lægges i en ringbuffer i hukommelsen og skrives
+// til messages-tabellen i batches af en writer-tråd (group commit), så broadcast
+// aldrig venter på disken (kan writeren ikke følge med, se WriteQueue, findes beskeden kun i
+// ringbufferen). Ældre sider hentes fra databasen. Efter en varm genstart
+// fyldes et rums ringbuffer med rummets beskeder fra snapshottet første gang den bruges.
+public class HistoryStore implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(HistoryStore.class.getName());
+
+    private static final String INSERT =
+            "INSERT INTO messages (id, room, sender, color, ts, type, content) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String SELECT_BEFORE =
+            "SELECT id, sender, color, ts, type, content FROM messages WHERE room = ? AND id < ? ORDER BY id DESC LIMIT ?";
+
+    private final ConnectionPool pool;
+    private final Executor readExecutor;
+    private final int ringSize;
+    private final int batchSize;
+    private final ChatMetrics metrics;
+    private final StateSnapshot snapshot;
+    private final Map<String, Ring> rings = new ConcurrentHashMap<>();
+    private final WriteQueue<HistoryEntry> pending;
+    private final AtomicLong seq;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public HistoryStore(ConnectionPool pool, Executor readExecutor, int ringSize, int batchSize, int queueCapacity,
+                        ChatMetrics metrics) throws SQLException {
+        this(pool, readExecutor, ringSize, batchSize, queueCapacity, metrics, StateSnapshot.empty());
+    }
+
+    public HistoryStore(ConnectionPool pool, Executor readExecutor, int ringSize, int batchSize, int queueCapacity,
+                        ChatMetrics metrics, StateSnapshot snapshot) throws SQLException {
+        this.pool = pool;
+        this.snapshot = snapshot;
+        this.readExecutor = readExecutor;
+        this.ringSize = ringSize;
+        this.batchSize = batchSize;
+        this.metrics = metrics;
+        this.pending = new WriteQueue<>(ChatMetrics.Writer.HISTORY, "history entries", queueCapacity, metrics, LOGGER);
+        metrics.gauge("chat.history.pending", "History entries waiting to be written", pending, WriteQueue::size);
+        long maxId = pool.withConnection(conn -> {
+            try (Statement stmt = conn.getConnection().createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS messages (id INTEGER PRIMARY KEY, room TEXT NOT NULL, "
+                        + "sender TEXT NOT NULL, color TEXT, ts INTEGER NOT NULL, type TEXT NOT NULL, content TEXT NOT NULL)");
+                stmt.execute("CREATE INDEX IF NOT EXISTS messages_room_id ON messages (room, id)");
+                long max;
+                try (ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) FROM messages")) {
+                    max = rs.next() ? rs.getLong(1) : 0L;
+                }
+                // Private beskeder får seq fra nextSeq og findes kun i søgeindekset, så de nyeste
+                // seq før en genstart kan være der og ikke i messages
+                try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'search'")) {
+                    if (!rs.next()) return max;
+                }
+                try (ResultSet rs = stmt.executeQuery("SELECT rowid FROM search ORDER BY rowid DESC LIMIT 1")) {
+                    return rs.next() ? Math.max(max, rs.getLong(1)) : max;
+                }
+            }
+        });
+        this.seq = new AtomicLong(maxId);
+        this.writer = new NamedThreadFactory("chat-history").newThread(this::runWriter);
+        this.writer.start();
+    }
+
+    // Tildeler næste seq, bygger beskeden og gemmer den i rummets historik
+    public HistoryEntry append(String room, String color, LongFunction<Message> factory) {
+        Ring ring = ring(room, true);
+        HistoryEntry entry;
+        synchronized (ring) {
+            long id = seq.incrementAndGet();
+            entry = new HistoryEntry(id, room, color, factory.apply(id));
+            ring.add(entry);
+        }
+        pending.offer(entry);
+        return entry;
+    }
+
+    // Reserverer en seq uden at gemme en besked (private beskeder i søgeindekset)
+    public long nextSeq() {
+        return seq.incrementAndGet();
+    }
+
+    // Seneste tildelte seq. Alt der tilføjes herefter har større seq, uanset rum
+    public long lastSeq() {
+        return seq.get();
+    }
+
+    // De nyeste op til limit beskeder med seq > after, ældste først, kun fra ringbufferen.
+    // Rakte ringen ikke tilbage til after, er complete false, og resten må hentes med before()
+    public Since since(String room, long after, int limit) {
+        List<HistoryEntry> recent = new ArrayList<>();
+        boolean complete = true;
+        Ring ring = ring(room, false);
+        if (ring != null) {
+            synchronized (ring) {
+                complete = ring.collectAfter(after, limit, recent);
+            }
+        }
+        Collections.reverse(recent);
+        return new Since(recent, complete);
+    }
+
+    public record Since(List<HistoryEntry> entries, boolean complete) {
+    }
+
+    // Returnerer op til limit beskeder med seq < before, ældste først.
+    // Ringbufferen bruges hvis den rækker, ellers suppleres fra databasen
+    public CompletableFuture<List<HistoryEntry>> before(String room, long before, int limit) {
+        List<HistoryEntry> recent = new ArrayList<>();
+        Ring ring = ring(room, false);
+        if (ring != null) {
+            synchronized (ring) {
+                ring.collectBefore(before, limit, recent);
+            }
+        }
+        if (recent.size() >= limit) {
+            Collections.reverse(recent);
+            return CompletableFuture.completedFuture(recent);
+        }
+        long dbBefore = recent.isEmpty() ? before : recent.get(recent.size() - 1).seq();
+        int missing = limit - recent.size();
+        return CompletableFuture.supplyAsync(() -> {
+            List<HistoryEntry> result = new ArrayList<>(recent);
+            try {
+                result.addAll(load(room, dbBefore, missing));
+            } catch (SQLException e) {
+                LOGGER.log(Level.WARNING, "Could not load history for room " + room, e);
+            }
+            Collections.reverse(result);
+            return result;
+        }, readExecutor);
+    }
+
+    // De nyeste op til limit beskeder i hvert rum, ældste først, til et snapshot. Rum fra det
+    // forrige snapshot der ikke er brugt i denne kørsel kommer med som de var
+    public Map<String, List<HistoryEntry>> recent(int limit) {
+        Map<String, List<HistoryEntry>> result = new HashMap<>();
+        rings.forEach((room, ring) -> {
+            List<HistoryEntry> entries = new ArrayList<>();
+            synchronized (ring) {
+                ring.collectBefore(Long.MAX_VALUE, limit, entries);
+            }
+            Collections.reverse(entries);
+            if (!entries.isEmpty()) result.put(room, entries);
+        });
+        for (String room : snapshot.rooms()) {
+            if (!result.containsKey(room) && !rings.containsKey(room)) {
+                List<HistoryEntry> entries = snapshot.history(room);
+                result.put(room, entries.subList(Math.max(0, entries.size() - limit), entries.size()));
+            }
+        }
+        return result;
+    }
+
+    // Rummets ringbuffer, eller null hvis rummet ikke har en og create er falsk. En ny ringbuffer
+    // starter med rummets beskeder fra snapshottet
+    private Ring ring(String room, boolean create) {
+        Ring ring = rings.get(room);
+        if (ring != null || (!create && !snapshot.hasRoom(room))) {
+            return ring;
+        }
+        return rings.computeIfAbsent(room, r -> {
+            Ring fresh = new Ring(ringSize);
+            snapshot.history(r).forEach(fresh::add);
+            return fresh;
+        });
+    }
+
+    private List<HistoryEntry> load(String room, long before, int limit) throws SQLException {
+        long start = System.nanoTime();
+        List<HistoryEntry> loaded = pool.withConnection(conn -> {
+            PreparedStatement select = conn.prepare(SELECT_BEFORE);
+            select.setString(1, room);
+            select.setLong(2, before);
+            select.setInt(3, limit);
+            List<HistoryEntry> result = new ArrayList<>();
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    result.add(HistoryEntry.of(rs.getLong(1), room, rs.getString(2), rs.getString(3), rs.getLong(4),
+                            rs.getString(5), rs.getString(6)));
+                }
+            }
+            return result;
+        });
+        metrics.historyRead(System.nanoTime() - start);
+        return loaded;
+    }
+
+    // Writer-tråd: samler alt der venter (op til batchSize) og skriver det i én transaktion
+    private void runWriter() {
+        List<HistoryEntry> batch = new ArrayList<>(batchSize);
+        while (running || !pending.isEmpty()) {
+            try {
+                if (pending.take(batch, batchSize)) pending.write(batch, this::write);
+            } catch (InterruptedException e) {
+                running = false;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<HistoryEntry> batch) throws SQLException {
+        long start = System.nanoTime();
+        pool.withConnection(conn -> {
+            Connection c = conn.getConnection();
+            c.setAutoCommit(false);
+            try {
+                PreparedStatement insert = conn.prepare(INSERT);
+                for (HistoryEntry e : batch) {
+                    insert.setLong(1, e.seq());
+                    insert.setString(2, e.room());
+                    insert.setString(3, e.message().getSender().getName());
+                    insert.setString(4, e.color());
+                    insert.setLong(5, e.message().getTimestamp().getTime());
+                    insert.setString(6, e.message().getType().name());
+                    insert.setString(7, e.text());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+            return null;
+        });
+        metrics.historyWrite(batch.size(), System.nanoTime() - start);
+    }
+
+    // Stopper writer-tråden når alt ventende er skrevet
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Fast ringbuffer med de nyeste beskeder i et rum
+    private static class Ring {
+        private final HistoryEntry[] entries;
+        private int next;
+        private int size;
+
+        Ring(int capacity) {
+            this.entries = new HistoryEntry[capacity];
+        }
+
+        void add(HistoryEntry entry) {
+            entries[next] = entry;
+            next = (next + 1) % entries.length;
+            if (size < entries.length) size++;
+        }
+
+        // Samler nyeste først. Sand hvis alle beskeder med seq > after kom med
+        boolean collectAfter(long after, int limit, List<HistoryEntry> out) {
+            for (int i = 1; i <= size; i++) {
+                HistoryEntry e = entries[(next - i + entries.length) % entries.length];
+                if (e.seq() <= after) return true;
+                if (out.size() == limit) return false;
+                out.add(e);
+            }
+            // Hele ringen er nyere end after; ældre beskeder kan være skubbet ud
+            return size < entries.length;
+        }
+
+        // Samler nyeste først
+        void collectBefore(long before, int limit, List<HistoryEntry> out) {
+            for (int i = 1; i <= size && out.size() < limit; i++) {
+                HistoryEntry e = entries[(next - i + entries.length) % entries.length];
+                if (e.seq() < before) out.add(e);
+            }
+        }
+    }
+}
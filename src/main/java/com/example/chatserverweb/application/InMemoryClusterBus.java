@@ -0,0 +1,73 @@
+package com.example.chatserverweb.application;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// ClusterBus mellem noder i samme JVM. Noder der deler en Hub ser hinandens
+// beskeder. Med kun én node i hubben er publish en no-op (standard ved én server).
+public class InMemoryClusterBus implements ClusterBus {
+
+    private final String nodeId;
+    private final Hub hub;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public InMemoryClusterBus(String nodeId, Hub hub) {
+        this.nodeId = nodeId;
+        this.hub = hub;
+        hub.join(this);
+    }
+
+    @Override
+    public String nodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void publish(ClusterMessage message) {
+        for (InMemoryClusterBus node : hub.nodes) {
+            if (node != this) node.deliver(message);
+        }
+    }
+
+    @Override
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+        hub.announce(this, listener);
+    }
+
+    @Override
+    public void close() {
+        hub.leave(this);
+    }
+
+    private void deliver(ClusterMessage message) {
+        for (Listener l : listeners) {
+            l.onClusterMessage(message);
+        }
+    }
+
+    // De noder der er forbundet i denne JVM
+    public static class Hub {
+        private final List<InMemoryClusterBus> nodes = new CopyOnWriteArrayList<>();
+
+        private void join(InMemoryClusterBus node) {
+            nodes.add(node);
+        }
+
+        // Først når noden lytter, kan den modtage de andres tilstedeværelse
+        private void announce(InMemoryClusterBus node, Listener listener) {
+            for (InMemoryClusterBus other : nodes) {
+                if (other == node) continue;
+                other.listeners.forEach(l -> l.onNodeUp(node.nodeId));
+                listener.onNodeUp(other.nodeId);
+            }
+        }
+
+        private void leave(InMemoryClusterBus node) {
+            nodes.remove(node);
+            for (InMemoryClusterBus other : nodes) {
+                other.listeners.forEach(l -> l.onNodeDown(node.nodeId));
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.chatserverweb.application;
+
+import com.example.chatserverweb.Domain.Message;
+import com.example.chatserverweb.Domain.Room;
+
+import java.util.concurrent.Executor;
+import java.util.function.UnaryOperator;
+
+// Vejen en chatbesked fra en klient går: DECODE, AUTHENTICATE, RATE_CHECK, ROUTE, PERSIST, ENCODE
+// og DELIVER. Hvert trin får en uforanderlig Envelope og returnerer den næste udgave, eller null
+// når beskeden stopper (trinnet har så selv svaret klienten). Trinene kan udskiftes eller pakkes
+// ind med replace.
+//
+// Hvert trin har en Lane der vælger hvilken executor det kører på. Skifter lanen mellem to trin,
+// lægges resten af pipelinen på den nye executor; ellers køres videre på samme tråd. Lanes skal
+// være serielle for det de ordner efter (sessionen, rummet), så rækkefølgen bevares.
+//
+// Tiden i hvert trin måles for hver N'te besked (chat.metrics.stage-sample), uden ventetiden
+// mellem lanes.
+public class MessagePipeline {
+
+    public enum Step {
+        DECODE, AUTHENTICATE, RATE_CHECK, ROUTE, PERSIST, ENCODE, DELIVER
+    }
+
+    // Hvor beskeden skal hen efter ROUTE
+    public enum Route {
+        ROOM, LOCAL, REMOTE, OFFLINE
+    }
+
+    @FunctionalInterface
+    public interface Stage {
+        Envelope apply(Envelope envelope);
+    }
+
+    // Executoren et trin kører på for beskeden, eller null for at blive på den nuværende tråd
+    @FunctionalInterface
+    public interface Lane {
+        Executor executor(Envelope envelope);
+    }
+
+    // Kører på den tråd der afleverede beskeden (sessionens inbound-tråd)
+    public static final Lane CALLER = envelope -> null;
+
+    // En besked på vej gennem pipelinen. Felterne udfyldes efterhånden: content og recipient af
+    // DECODE, message af AUTHENTICATE (med tomt id indtil PERSIST), route og room/target af ROUTE,
+    // rummets deltagere (taget på mailboxen) af PERSIST og frame af ENCODE
+    public record Envelope(SessionRecord session, FrameType type, String content, String recipient,
+                           Message message, Route route, Room room, SessionRecord target,
+                           int[] recipients, OutboundFrame frame, boolean sampled) {
+
+        public Envelope withContent(FrameType type, String content, String recipient) {
+            return new Envelope(session, type, content, recipient, message, route, room, target, recipients, frame, sampled);
+        }
+
+        public Envelope withMessage(Message message) {
+            return new Envelope(session, type, content, recipient, message, route, room, target, recipients, frame, sampled);
+        }
+
+        public Envelope withRoute(Route route, Room room, SessionRecord target) {
+            return new Envelope(session, type, content, recipient, message, route, room, target, recipients, frame, sampled);
+        }
+
+        public Envelope withRecipients(int[] recipients) {
+            return new Envelope(session, type, content, recipient, message, route, room, target, recipients, frame, sampled);
+        }
+
+        public Envelope withFrame(OutboundFrame frame) {
+            return new Envelope(session, type, content, recipient, message, route, room, target, recipients, frame, sampled);
+        }
+    }
+
+    private static final Step[] STEPS = Step.values();
+
+    private final Stage[] stages = new Stage[STEPS.length];
+    private final Lane[] lanes = new Lane[STEPS.length];
+    private final ChatMetrics metrics;
+
+    public MessagePipeline(ChatMetrics metrics) {
+        this.metrics = metrics;
+        for (int i = 0; i < STEPS.length; i++) {
+            stages[i] = envelope -> envelope;
+            lanes[i] = CALLER;
+        }
+    }
+
+    // Sætter trinnet og dets lane. Skal ske før den første besked
+    public MessagePipeline stage(Step step, Lane lane, Stage stage) {
+        lanes[step.ordinal()] = lane;
+        stages[step.ordinal()] = stage;
+        return this;
+    }
+
+    // Erstatter trinnet med en udgave bygget af det nuværende, fx for at pakke det ind
+    public MessagePipeline replace(Step step, UnaryOperator<Stage> replacement) {
+        stages[step.ordinal()] = replacement.apply(stages[step.ordinal()]);
+        return this;
+    }
+
+    // Sender en frame fra klienten gennem pipelinen. recipient er modtageren af en PRIVATE, ellers null
+    public void submit(SessionRecord session, FrameType type, String content, String recipient) {
+        run(new Envelope(session, type, content, recipient, null, null, null, null, null, null, metrics.sampleStage()), 0, false);
+    }
+
+    private void run(Envelope envelope, int from, boolean arrived) {
+        for (int i = from; i < STEPS.length; i++) {
+            if (!arrived && i > 0 && lanes[i] != lanes[i - 1]) {
+                Executor executor = lanes[i].executor(envelope);
+                if (executor != null) {
+                    Envelope e = envelope;
+                    int step = i;
+                    executor.execute(() -> run(e, step, true));
+                    return;
+                }
+            }
+            arrived = false;
+            long start = envelope.sampled() ? System.nanoTime() : 0;
+            Envelope next = stages[i].apply(envelope);
+            if (envelope.sampled()) metrics.stage(STEPS[i], System.nanoTime() - start);
+            if (next == null) return;
+            envelope = next;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.chatserverweb.application;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Internaliserer navne til faste, tætte tal fra 1 og op (0 betyder "intet navn"), så tabeller
+// over brugere kan være arrays indekseret med tallet i stedet for maps med strenge som nøgle.
+// Et tal genbruges aldrig; tabellen vokser med antallet af forskellige navne processen har set
+public class NameTable {
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    // names[id] er navnet. Erstattes med en større kopi under låsen; læses uden lås
+    private volatile String[] names = new String[1024];
+    private int size;
+
+    // Det faste tal for navnet, tildelt første gang navnet ses
+    public int intern(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : ids.computeIfAbsent(name, this::assign);
+    }
+
+    // Tallet for navnet, eller 0 hvis det ikke er internaliseret
+    public int find(String name) {
+        Integer id = ids.get(name);
+        return id == null ? 0 : id;
+    }
+
+    // Navnet for tallet, eller null
+    public String name(int id) {
+        String[] n = names;
+        return id > 0 && id < n.length ? n[id] : null;
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    private synchronized int assign(String name) {
+        int id = ++size;
+        String[] n = names;
+        if (id == n.length) {
+            n = Arrays.copyOf(n, n.length * 2);
+        }
+        n[id] = name;
+        names = n;
+        return id;
+    }
+}
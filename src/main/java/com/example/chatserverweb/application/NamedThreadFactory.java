@@ -0,0 +1,22 @@
+package com.example.chatserverweb.application;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Opretter daemon-tråde med et genkendeligt navn, så de er nemme at finde i thread dumps
+public class NamedThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    public NamedThreadFactory(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable task) {
+        Thread t = new Thread(task, prefix + "-" + counter.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.chatserverweb.application;
+
+import com.example.chatserverweb.Domain.Client;
+import com.example.chatserverweb.Domain.Cred;
+import com.example.chatserverweb.Domain.PrivateMessage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Private beskeder til brugere der ikke er logget ind. De skrives til inbox-tabellen i
+// batches af en writer-tråd, og når modtageren logger ind, hentes alt på én gang (side for
+// side via indekset på modtager) og slettes i samme transaktion. Udtømning kører på samme
+// writer-tråd, så den altid ser de beskeder der er lagt i kø før den. Er køen fuld (se WriteQueue),
+// fejler store, så afsenderen får besked, og en udtømning venter til næste login.
+public class OfflineInbox implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(OfflineInbox.class.getName());
+
+    // Gemmer kun hvis modtageren er en kendt bruger
+    private static final String INSERT = "INSERT INTO inbox (id, recipient, sender, color, ts, content) "
+            + "SELECT ?, ?, ?, ?, ?, ? WHERE EXISTS (SELECT 1 FROM users WHERE username = ?)";
+    private static final String SELECT_PAGE =
+            "SELECT id, sender, color, ts, content FROM inbox WHERE recipient = ? AND id > ? ORDER BY id LIMIT ?";
+    private static final String DELETE_UPTO = "DELETE FROM inbox WHERE recipient = ? AND id <= ?";
+
+    // En gemt besked og afsenderens farve
+    public record Entry(long id, String color, PrivateMessage message) {
+    }
+
+    private interface Task {
+    }
+
+    private record Store(Entry entry, CompletableFuture<Boolean> stored) implements Task {
+    }
+
+    private record Drain(String recipient, Consumer<List<Entry>> pages, CompletableFuture<Integer> drained) implements Task {
+    }
+
+    private final ConnectionPool pool;
+    private final int batchSize;
+    private final int pageSize;
+    private final ChatMetrics metrics;
+    private final WriteQueue<Task> pending;
+    private final AtomicLong seq;
+    // Modtagere med beskeder i inboxen, så et login uden post ikke behøver databasen
+    private final Set<String> recipients = ConcurrentHashMap.newKeySet();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public OfflineInbox(ConnectionPool pool, int batchSize, int queueCapacity, int pageSize, ChatMetrics metrics)
+            throws SQLException {
+        this.pool = pool;
+        this.batchSize = batchSize;
+        this.pageSize = pageSize;
+        this.metrics = metrics;
+        this.pending = new WriteQueue<>(ChatMetrics.Writer.INBOX, "offline messages", queueCapacity, metrics, LOGGER);
+        metrics.gauge("chat.inbox.pending", "Offline messages and drains waiting for the inbox writer", pending,
+                WriteQueue::size);
+        long maxId = pool.withConnection(conn -> {
+            try (Statement stmt = conn.getConnection().createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS inbox (id INTEGER PRIMARY KEY, recipient TEXT NOT NULL, "
+                        + "sender TEXT NOT NULL, color TEXT, ts INTEGER NOT NULL, content TEXT NOT NULL)");
+                stmt.execute("CREATE INDEX IF NOT EXISTS inbox_recipient_id ON inbox (recipient, id)");
+                try (ResultSet rs = stmt.executeQuery("SELECT DISTINCT recipient FROM inbox")) {
+                    while (rs.next()) recipients.add(rs.getString(1));
+                }
+                try (ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) FROM inbox")) {
+                    return rs.next() ? rs.getLong(1) : 0L;
+                }
+            }
+        });
+        this.seq = new AtomicLong(maxId);
+        this.writer = new NamedThreadFactory("chat-inbox").newThread(this::runWriter);
+        this.writer.start();
+    }
+
+    // Lægger beskeden i kø til modtagerens inbox. Fuldføres med false hvis modtageren ikke findes
+    public CompletableFuture<Boolean> store(String color, LongFunction<PrivateMessage> factory) {
+        CompletableFuture<Boolean> stored = new CompletableFuture<>();
+        long id = seq.incrementAndGet();
+        if (!pending.offer(new Store(new Entry(id, color, factory.apply(id)), stored))) {
+            stored.completeExceptionally(new IllegalStateException("Inbox write queue is full"));
+        }
+        return stored;
+    }
+
+    // Sand hvis der er skrevet beskeder til brugeren som endnu ikke er hentet
+    public boolean hasMail(String recipient) {
+        return recipients.contains(recipient);
+    }
+
+    // Henter og sletter alt i modtagerens inbox, ældste først. pages kaldes på writer-tråden
+    // med én side ad gangen. Fuldføres med antallet af beskeder
+    public CompletableFuture<Integer> drain(String recipient, Consumer<List<Entry>> pages) {
+        CompletableFuture<Integer> drained = new CompletableFuture<>();
+        if (!pending.offer(new Drain(recipient, pages, drained))) {
+            drained.completeExceptionally(new IllegalStateException("Inbox write queue is full"));
+        }
+        return drained;
+    }
+
+    // Writer-tråd: skriver alle ventende beskeder (op til batchSize) i én transaktion og
+    // udtømmer derefter de inboxes der er bedt om. En udtømning prøves ikke igen, da siderne
+    // allerede kan være sendt; den rulles tilbage, og beskederne hentes ved næste login
+    private void runWriter() {
+        List<Task> batch = new ArrayList<>(batchSize);
+        List<Store> stores = new ArrayList<>(batchSize);
+        while (running || !pending.isEmpty()) {
+            try {
+                if (!pending.take(batch, batchSize)) continue;
+                for (Task task : batch) {
+                    if (task instanceof Store store) stores.add(store);
+                }
+                if (!stores.isEmpty() && !pending.write(stores, this::write)) {
+                    IllegalStateException lost = new IllegalStateException("Could not write offline messages");
+                    stores.forEach(s -> s.stored().completeExceptionally(lost));
+                }
+                for (Task task : batch) {
+                    if (task instanceof Drain drain) drain(drain);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            } finally {
+                batch.clear();
+                stores.clear();
+            }
+        }
+    }
+
+    private void write(List<Store> stores) throws SQLException {
+        long start = System.nanoTime();
+        int[] counts = pool.withConnection(conn -> {
+            Connection c = conn.getConnection();
+            c.setAutoCommit(false);
+            try {
+                PreparedStatement insert = conn.prepare(INSERT);
+                for (Store s : stores) {
+                    PrivateMessage m = s.entry().message();
+                    insert.setLong(1, s.entry().id());
+                    insert.setString(2, m.getReceiver().getName());
+                    insert.setString(3, m.getSender().getName());
+                    insert.setString(4, s.entry().color());
+                    insert.setLong(5, m.getTimestamp().getTime());
+                    insert.setString(6, m.getText());
+                    insert.setString(7, m.getReceiver().getName());
+                    insert.addBatch();
+                }
+                int[] result = insert.executeBatch();
+                c.commit();
+                return result;
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        });
+        for (int i = 0; i < stores.size(); i++) {
+            if (counts[i] > 0) recipients.add(stores.get(i).entry().message().getReceiver().getName());
+            stores.get(i).stored().complete(counts[i] > 0);
+        }
+        metrics.inboxWrite(System.nanoTime() - start);
+    }
+
+    private void drain(Drain drain) {
+        try {
+            int total = pool.withConnection(conn -> {
+                Connection c = conn.getConnection();
+                c.setAutoCommit(false);
+                try {
+                    PreparedStatement select = conn.prepare(SELECT_PAGE);
+                    long last = 0;
+                    int count = 0;
+                    while (true) {
+                        select.setString(1, drain.recipient());
+                        select.setLong(2, last);
+                        select.setInt(3, pageSize);
+                        List<Entry> page = new ArrayList<>();
+                        try (ResultSet rs = select.executeQuery()) {
+                            while (rs.next()) {
+                                Client sender = new Client(rs.getString(2), rs.getString(2), new Cred());
+                                Client receiver = new Client(drain.recipient(), drain.recipient(), new Cred());
+                                long id = rs.getLong(1);
+                                page.add(new Entry(id, rs.getString(3), new PrivateMessage(Long.toString(id), sender,
+                                        receiver, new Date(rs.getLong(4)), rs.getString(5))));
+                            }
+                        }
+                        if (page.isEmpty()) break;
+                        drain.pages().accept(page);
+                        last = page.get(page.size() - 1).id();
+                        count += page.size();
+                        if (page.size() < pageSize) break;
+                    }
+                    if (count > 0) {
+                        PreparedStatement delete = conn.prepare(DELETE_UPTO);
+                        delete.setString(1, drain.recipient());
+                        delete.setLong(2, last);
+                        delete.executeUpdate();
+                    }
+                    c.commit();
+                    return count;
+                } catch (SQLException e) {
+                    c.rollback();
+                    throw e;
+                } finally {
+                    c.setAutoCommit(true);
+                }
+            });
+            recipients.remove(drain.recipient());
+            metrics.inboxDrained(total);
+            drain.drained().complete(total);
+        } catch (SQLException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not drain inbox for " + drain.recipient(), e);
+            drain.drained().completeExceptionally(e);
+        }
+    }
+
+    // Stopper writer-tråden når alt ventende er skrevet
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.chatserverweb.application;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+// En udgående frame. Den bygges højst én gang pr. protokol, uanset hvor mange modtagere den
+// sendes til. I den binære protokol er det de færdige bytes, som alle modtagere deler. I
+// tekstprotokollen er det strengen: Jakarta WebSocket kan kun sende en tekst-frame som String,
+// så containeren koder den til UTF-8 ved hver afsendelse (FanoutBench måler forskellen)
+public final class OutboundFrame {
+
+    public static final String SERVER = "SERVER";
+    public static final String SERVER_COLOR = "#000000";
+    public static final char RECORD_SEPARATOR = '\u001E';
+
+    private final String sender;
+    // RGB; formateres som #RRGGBB først når tekstprotokollen eller bussen skal bruge det
+    private final int color;
+    private final long timestamp;
+    private final FrameType type;
+    private final String content;
+    // Kun for BATCH og SEQ: de samlede frames i rækkefølge (for SEQ den nummererede frame)
+    private final List<OutboundFrame> parts;
+    private volatile TextMessage text;
+    private volatile ByteBuffer binary;
+    // Komprimeret udgave, eller UNCOMPRESSED hvis framen ikke blev mindre
+    private volatile ByteBuffer deflated;
+
+    private static final ByteBuffer UNCOMPRESSED = ByteBuffer.allocate(0);
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    public OutboundFrame(String sender, String color, long timestamp, FrameType type, String content) {
+        this(sender, parseColor(color), timestamp, type, content, null);
+    }
+
+    public OutboundFrame(String sender, int color, long timestamp, FrameType type, String content) {
+        this(sender, color, timestamp, type, content, null);
+    }
+
+    private OutboundFrame(String sender, int color, long timestamp, FrameType type, String content,
+                          List<OutboundFrame> parts) {
+        this.sender = sender;
+        this.color = color;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.content = content;
+        this.parts = parts;
+    }
+
+    // Flere frames samlet i én. I tekstprotokollen er indholdet de enkelte frames
+    // adskilt af RECORD_SEPARATOR. ChatHandler afviser frames med kontroltegn fra klienterne,
+    // så tegnet kan ikke stå i en brugers indhold, navn eller rum
+    public static OutboundFrame batch(List<OutboundFrame> parts, long timestamp) {
+        return new OutboundFrame(SERVER, 0, timestamp, FrameType.BATCH, "", List.copyOf(parts));
+    }
+
+    // Framen med rummets sekvensnummer (AT_LEAST_ONCE). I tekstprotokollen følger framen efter
+    // rum|seq adskilt af RECORD_SEPARATOR, så en klient der splitter en BATCH ser SEQ lige før framen
+    public static OutboundFrame sequenced(String room, long seq, OutboundFrame frame) {
+        return new OutboundFrame(SERVER, 0, frame.getTimestamp(), FrameType.SEQ, room + "|" + seq, List.of(frame));
+    }
+
+    // Frame fra serveren selv (INFO, ERROR osv.) med nuværende tidspunkt
+    public static OutboundFrame server(FrameType type, String content) {
+        return new OutboundFrame(SERVER, 0, System.currentTimeMillis(), type, content);
+    }
+
+    // RGB som #RRGGBB
+    public static String colorText(int rgb) {
+        char[] c = new char[7];
+        c[0] = '#';
+        for (int i = 6; i > 0; i--) {
+            c[i] = HEX[rgb & 0xF];
+            rgb >>>= 4;
+        }
+        return new String(c);
+    }
+
+    // #RRGGBB som RGB; 0 (sort) hvis farven er ugyldig
+    public static int parseColor(String color) {
+        if (color == null || color.length() != 7 || color.charAt(0) != '#') {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(color, 1, 7, 16);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getColor() {
+        return colorText(color);
+    }
+
+    public int getRgb() {
+        return color;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public FrameType getType() {
+        return type;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    // De samlede frames for BATCH og SEQ, ellers null
+    public List<OutboundFrame> getParts() {
+        return parts;
+    }
+
+    // Tekstprotokollen: sender|color|timestamp|type|content. Alle modtagere får samme TextMessage
+    public TextMessage text(ChatClock clock) {
+        TextMessage t = text;
+        if (t == null) {
+            String body = content;
+            if (parts != null) {
+                StringBuilder sb = new StringBuilder(content);
+                for (OutboundFrame part : parts) {
+                    if (sb.length() > 0) sb.append(RECORD_SEPARATOR);
+                    sb.append(part.text(clock).getPayload());
+                }
+                body = sb.toString();
+            }
+            t = new TextMessage(sender + "|" + colorText(color) + "|" + clock.format(timestamp) + "|" + type + "|" + body);
+            text = t;
+        }
+        return t;
+    }
+
+    // Binær protokol, kodet én gang. Hver modtager får sin egen view af den samme buffer, da
+    // containeren flytter bufferens position når den sender; selve bytes skrives aldrig igen
+    public BinaryMessage binary(BinaryFrameCodec codec) {
+        return new BinaryMessage(encoded(codec).duplicate());
+    }
+
+    // Binær protokol med komprimering. Framen komprimeres én gang og deles af alle
+    // modtagere med chat.bin.v1+deflate; små frames sendes som de er
+    public BinaryMessage binary(BinaryFrameCodec codec, FrameCompressor compressor) {
+        ByteBuffer d = deflated;
+        if (d == null) {
+            d = compressor.compress(encoded(codec));
+            if (d == null) d = UNCOMPRESSED;
+            deflated = d;
+        }
+        return d == UNCOMPRESSED ? binary(codec) : new BinaryMessage(d.duplicate());
+    }
+
+    private ByteBuffer encoded(BinaryFrameCodec codec) {
+        ByteBuffer b = binary;
+        if (b == null) {
+            b = type == FrameType.BATCH ? codec.encodeBatch(parts) : codec.encode(this);
+            binary = b;
+        }
+        return b;
+    }
+}
@@ -0,0 +1,6 @@
+package com.example.chatserverweb.application;
+
+// Hvad der sker når en sessions udgående kø er fuld
+public enum OverflowPolicy {
+    DROP_OLDEST, DROP_NEW, DISCONNECT
+}
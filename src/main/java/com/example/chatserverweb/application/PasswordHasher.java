@@ -0,0 +1,88 @@
+package com.example.chatserverweb.application;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+// Salted PBKDF2-hashing af adgangskoder. Gamle usaltede SHA-256 hashes kan stadig
+// verificeres, så eksisterende brugere kan logge ind og blive opgraderet.
+// Format: pbkdf2$<iterationer>$<salt hex>$<hash hex>
+public class PasswordHasher {
+
+    private static final String PREFIX = "pbkdf2$";
+    private static final int SALT_BYTES = 16;
+    private static final int KEY_BITS = 256;
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final ThreadLocal<SecretKeyFactory> PBKDF2 = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+    public PasswordHasher(int iterations) {
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("Iterations must be positive");
+        }
+        this.iterations = iterations;
+    }
+
+    // Hasher adgangskoden med nyt tilfældigt salt
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        return PREFIX + iterations + "$" + Hex.encode(salt) + "$" + Hex.encode(pbkdf2(password, salt, iterations));
+    }
+
+    // Tjekker adgangskoden mod en gemt hash (PBKDF2 eller gammel SHA-256)
+    public boolean verify(String password, String stored) {
+        if (!stored.startsWith(PREFIX)) {
+            return MessageDigest.isEqual(legacyHash(password).getBytes(), stored.getBytes());
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        byte[] expected = Hex.decode(parts[3]);
+        byte[] actual = pbkdf2(password, Hex.decode(parts[2]), Integer.parseInt(parts[1]));
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    // Sand hvis hashen er i gammelt format eller med andet antal iterationer end nu
+    public boolean needsRehash(String stored) {
+        return !stored.startsWith(PREFIX + iterations + "$");
+    }
+
+    // Den oprindelige usaltede SHA-256 hash
+    static String legacyHash(String password) {
+        MessageDigest md = SHA256.get();
+        md.reset();
+        return Hex.encode(md.digest(password.getBytes()));
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_BITS);
+        try {
+            return PBKDF2.get().generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
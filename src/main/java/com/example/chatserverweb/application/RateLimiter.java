@@ -0,0 +1,65 @@
+package com.example.chatserverweb.application;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Token bucket pr. frametype som GCRA: hver bucket er én long (det teoretiske
+// ankomsttidspunkt i nanosekunder) i et AtomicLongArray, så et tjek er en CAS
+// uden låse og uden allokering. Typer uden grænse har ingen plads i arrayet.
+public class RateLimiter {
+
+    // Højst perSecond frames i gennemsnit med op til burst frames på én gang
+    public record Limit(double perSecond, int burst) {
+    }
+
+    private final long[] emission = new long[256];
+    private final long[] tolerance = new long[256];
+    private final int[] slot = new int[256];
+    private final int slots;
+    // nanoTime kan være negativ, så tiden regnes fra oprettelsen (tomme buckets er 0)
+    private final long origin = System.nanoTime();
+
+    public RateLimiter(Map<FrameType, Limit> limits) {
+        int next = 0;
+        for (int i = 0; i < slot.length; i++) slot[i] = -1;
+        for (Map.Entry<FrameType, Limit> e : limits.entrySet()) {
+            Limit limit = e.getValue();
+            if (limit.perSecond() <= 0) continue;
+            int code = e.getKey().getCode();
+            emission[code] = (long) (1_000_000_000L / limit.perSecond());
+            tolerance[code] = emission[code] * Math.max(0, limit.burst() - 1);
+            slot[code] = next++;
+        }
+        this.slots = next;
+    }
+
+    // Buckets til én session eller ét rum, eller null hvis ingen typer er begrænset
+    public AtomicLongArray newBuckets() {
+        return slots == 0 ? null : new AtomicLongArray(slots);
+    }
+
+    public boolean limits(FrameType type) {
+        return slot[type.getCode()] >= 0;
+    }
+
+    // Tager en token for typen. nowNanos er System.nanoTime(). Returnerer false hvis grænsen er nået
+    public boolean tryAcquire(AtomicLongArray buckets, FrameType type, long nowNanos) {
+        long now = nowNanos - origin;
+        int code = type.getCode();
+        int i = slot[code];
+        if (i < 0 || buckets == null) {
+            return true;
+        }
+        long t = emission[code];
+        while (true) {
+            long tat = buckets.get(i);
+            long start = Math.max(tat, now);
+            if (start - now > tolerance[code]) {
+                return false;
+            }
+            if (buckets.compareAndSet(i, tat, start + t)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.chatserverweb.application;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Et AT_LEAST_ONCE-rums sekvensnumre og de seneste nummererede frames, så en session der
+// mangler nogle kan få dem igen. Numrene starter ved 1 og stiger med én pr. frame. Ringen
+// holder de sidste capacity frames; en session der er længere bagud end det kan ikke hentes
+// op herfra. Frames deles af alle modtagere, så vinduet koster én reference pr. frame uanset
+// hvor mange der er i rummet.
+//
+// Skrives og læses kun fra rummets mailbox; head kan læses fra andre tråde
+public class RetransmitWindow {
+
+    private final String room;
+    private final OutboundFrame[] frames;
+    // nanoTime for hvornår hver frame fik sit nummer
+    private final long[] stampedAt;
+    private volatile long head;
+
+    public RetransmitWindow(String room, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.room = room;
+        this.frames = new OutboundFrame[capacity];
+        this.stampedAt = new long[capacity];
+    }
+
+    // Giver framen næste nummer, gemmer den og returnerer SEQ-framen der skal sendes
+    public OutboundFrame stamp(OutboundFrame frame, long nowNanos) {
+        long seq = head + 1;
+        OutboundFrame sequenced = OutboundFrame.sequenced(room, seq, frame);
+        int i = (int) (seq % frames.length);
+        frames[i] = sequenced;
+        stampedAt[i] = nowNanos;
+        head = seq;
+        return sequenced;
+    }
+
+    // Det seneste nummer, 0 før den første frame
+    public long head() {
+        return head;
+    }
+
+    // Om alle frames efter after stadig er i vinduet
+    public boolean covers(long after) {
+        return after >= 0 && after <= head && head - after <= frames.length;
+    }
+
+    // Frames med nummer over after, ældste først. Kræver covers(after)
+    public List<OutboundFrame> since(long after) {
+        if (!covers(after)) {
+            throw new IllegalArgumentException("Sequence " + after + " is outside the window");
+        }
+        List<OutboundFrame> result = new ArrayList<>((int) (head - after));
+        for (long seq = after + 1; seq <= head; seq++) {
+            result.add(frames[(int) (seq % frames.length)]);
+        }
+        return result;
+    }
+
+    // Hvornår framen med nummeret blev sendt (nanoTime). Kræver at den er i vinduet
+    public long stampedAt(long seq) {
+        return stampedAt[(int) (seq % frames.length)];
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.chatserverweb.application;
+
+import com.example.chatserverweb.Domain.Client;
+import com.example.chatserverweb.Domain.Message;
+import com.example.chatserverweb.Domain.MessageDeliveryPolicy;
+import com.example.chatserverweb.Domain.PresenceChange;
+import com.example.chatserverweb.Domain.Room;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Rummene og hvilket rum hver bruger er i. Et rumskift lægger "forlad" i det gamle
+// rums mailbox og "deltag" i det nye inde i compute for brugerens nøgle, så
+// samtidige skift og disconnects for samme bruger altid ender med brugeren i
+// præcis ét rum (eller intet efter leave), uden en global lås.
+public class RoomRegistry {
+
+    public static final String DEFAULT_ROOM = "general";
+
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private final Map<String, String> userRooms = new ConcurrentHashMap<>();
+    private final Executor pool;
+    private final BiConsumer<Client, Message> delivery;
+    private final Function<String, MessageDeliveryPolicy> policies;
+    private final BiConsumer<Room, PresenceChange> presence;
+
+    public RoomRegistry(Executor pool, BiConsumer<Client, Message> delivery) {
+        this(pool, delivery, room -> MessageDeliveryPolicy.IMMEDIATE);
+    }
+
+    // policies giver leveringspolitikken for et nyt rum ud fra navnet
+    public RoomRegistry(Executor pool, BiConsumer<Client, Message> delivery,
+                        Function<String, MessageDeliveryPolicy> policies) {
+        this(pool, delivery, policies, (room, change) -> {
+        });
+    }
+
+    // presence får rosterændringer i alle rum; kaldes på det pågældende rums mailbox
+    public RoomRegistry(Executor pool, BiConsumer<Client, Message> delivery,
+                        Function<String, MessageDeliveryPolicy> policies, BiConsumer<Room, PresenceChange> presence) {
+        this.pool = pool;
+        this.delivery = delivery;
+        this.policies = policies;
+        this.presence = presence;
+    }
+
+    // Rummet med navnet, oprettet hvis det ikke findes
+    public Room room(String name) {
+        return rooms.computeIfAbsent(name, n -> {
+            Room room = new Room(n, new SerialExecutor(pool), delivery, presence);
+            room.setDeliveryPolicy(policies.apply(n));
+            return room;
+        });
+    }
+
+    // Rummet med navnet, eller null hvis ingen har været i det
+    public Room find(String name) {
+        return rooms.get(name);
+    }
+
+    // Rummet brugeren er i, eller null hvis brugeren ikke er i et rum
+    public String roomOf(String user) {
+        return userRooms.get(user);
+    }
+
+    // Flytter klienten til rummet (forlader det nuværende først)
+    public Room join(Client client, String roomName) {
+        Room target = room(roomName);
+        userRooms.compute(client.getName(), (user, old) -> {
+            client.leaveRoom();
+            client.joinRoom(target);
+            target.addParticipant(client);
+            return roomName;
+        });
+        return target;
+    }
+
+    // Fjerner klienten fra sit rum. Returnerer rummets navn, eller null
+    public String leave(Client client) {
+        return leave(client, Client::leaveRoom);
+    }
+
+    // Som leave, men klienten logges ud, så rummet melder den som OFFLINE
+    public String logout(Client client) {
+        return leave(client, Client::logout);
+    }
+
+    private String leave(Client client, Consumer<Client> action) {
+        String[] left = new String[1];
+        userRooms.computeIfPresent(client.getName(), (user, old) -> {
+            action.accept(client);
+            left[0] = old;
+            return null;
+        });
+        return left[0];
+    }
+
+    public int roomCount() {
+        return rooms.size();
+    }
+
+    public void forEachPlacement(BiConsumer<String, String> action) {
+        userRooms.forEach(action);
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.chatserverweb.application;
+
+import org.sqlite.Function;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Fuldtekstsøgning i tekst- og private beskeder med SQLite FTS5 i chat.db. Beskeder lægges
+// i kø når de sendes og skrives i batches af en indekser-tråd, så søgeindekset aldrig
+// forsinker udsendelsen (kan indekseren ikke følge med, se WriteQueue, bliver beskeden ikke
+// søgbar). rowid er beskedens seq fra HistoryStore, så et hit kan bruges som
+// cursor til HISTORY. Adgang afgøres af scope-kolonnen: hvert rum og hver bruger har et token
+// (hash af navnet), så en søgning i ét rum eller i egne private beskeder er et opslag i
+// indekset og ikke en filtrering af alle hits. Navnene tjekkes bagefter, så en hash-kollision
+// aldrig giver adgang.
+public class SearchIndex implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(SearchIndex.class.getName());
+
+    private static final String INSERT = "INSERT INTO search (rowid, content, scope, room, sender, recipient, color, ts) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String COLUMNS = "SELECT rowid, room, sender, recipient, color, ts, content FROM search ";
+    private static final String SELECT_ROOM = COLUMNS
+            + "WHERE search MATCH ? AND room = ? AND rowid < ? ORDER BY rowid DESC LIMIT ?";
+    private static final String SELECT_PRIVATE = COLUMNS
+            + "WHERE search MATCH ? AND room = '' AND (sender = ? OR recipient = ?) AND rowid < ? ORDER BY rowid DESC LIMIT ?";
+    private static final String SELECT_ALL = COLUMNS
+            + "WHERE search MATCH ? AND (room <> '' OR sender = ? OR recipient = ?) AND rowid < ? ORDER BY rowid DESC LIMIT ?";
+    // Tekstbeskeder gemt før indekset fandtes. Idempotent, så en afbrudt indeksering blot gentages
+    private static final String BACKFILL = "INSERT INTO search (rowid, content, scope, room, sender, recipient, color, ts) "
+            + "SELECT m.id, m.content, 'room ' || scope_token('r', m.room), m.room, m.sender, NULL, m.color, m.ts "
+            + "FROM messages m WHERE m.type = 'TEXT' AND NOT EXISTS (SELECT 1 FROM search s WHERE s.rowid = m.id)";
+
+    // Hvor der søges: et rum, egne private beskeder, eller alle rum plus egne private beskeder
+    public enum Scope {
+        ROOM, PRIVATE, ALL
+    }
+
+    // Et hit. room er tom for private beskeder, recipient er null for rumbeskeder
+    public record Hit(long id, String room, String sender, String recipient, String color, long ts, String text) {
+    }
+
+    // En side hits, nyeste først. next er cursoren til næste side (0 når der ikke er flere)
+    public record Page(List<Hit> hits, long next) {
+    }
+
+    private record Doc(long id, String room, String sender, String recipient, String color, long ts, String text) {
+    }
+
+    private final ConnectionPool pool;
+    private final Executor readExecutor;
+    private final int batchSize;
+    private final ChatMetrics metrics;
+    private final WriteQueue<Doc> pending;
+    private final boolean backfill;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public SearchIndex(ConnectionPool pool, Executor readExecutor, int batchSize, int queueCapacity, ChatMetrics metrics)
+            throws SQLException {
+        this.pool = pool;
+        this.readExecutor = readExecutor;
+        this.batchSize = batchSize;
+        this.metrics = metrics;
+        this.pending = new WriteQueue<>(ChatMetrics.Writer.SEARCH, "messages for search", queueCapacity, metrics, LOGGER);
+        metrics.gauge("chat.search.pending", "Messages waiting to be indexed", this, SearchIndex::pending);
+        this.backfill = pool.withConnection(conn -> {
+            try (Statement stmt = conn.getConnection().createStatement()) {
+                stmt.execute("CREATE VIRTUAL TABLE IF NOT EXISTS search USING fts5(content, scope, room UNINDEXED, "
+                        + "sender UNINDEXED, recipient UNINDEXED, color UNINDEXED, ts UNINDEXED, "
+                        + "tokenize = 'unicode61 remove_diacritics 2')");
+                stmt.execute("CREATE TABLE IF NOT EXISTS search_state (name TEXT PRIMARY KEY, value INTEGER NOT NULL)");
+                try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM search_state WHERE name = 'backfilled'")) {
+                    return !rs.next();
+                }
+            }
+        });
+        this.writer = new NamedThreadFactory("chat-search").newThread(this::runWriter);
+        this.writer.start();
+    }
+
+    // Lægger en rumbesked i kø til indekset
+    public void indexRoom(long id, String room, String sender, String color, long ts, String text) {
+        pending.offer(new Doc(id, room, sender, null, color, ts, text));
+    }
+
+    // Lægger en privat besked i kø til indekset. Kun afsender og modtager kan finde den
+    public void indexPrivate(long id, String sender, String recipient, String color, long ts, String text) {
+        pending.offer(new Doc(id, "", sender, recipient, color, ts, text));
+    }
+
+    // Beskeder der venter på indekseren
+    public int pending() {
+        return pending.size();
+    }
+
+    // Søger efter beskeder der indeholder alle ord i query (et ord der ender på * matcher som
+    // præfiks), nyeste først med rowid < before. Fuldføres med null hvis query ikke har nogen ord
+    public CompletableFuture<Page> search(String user, Scope scope, String room, String query, long before, int limit) {
+        String terms = terms(query);
+        if (terms == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String match = switch (scope) {
+            case ROOM -> "scope : " + token("r", room) + " AND content : (" + terms + ")";
+            case PRIVATE -> "scope : " + token("p", user) + " AND content : (" + terms + ")";
+            case ALL -> "scope : (room OR " + token("p", user) + ") AND content : (" + terms + ")";
+        };
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                List<Hit> hits = pool.withConnection(conn -> {
+                    PreparedStatement select = conn.prepare(switch (scope) {
+                        case ROOM -> SELECT_ROOM;
+                        case PRIVATE -> SELECT_PRIVATE;
+                        case ALL -> SELECT_ALL;
+                    });
+                    int i = 1;
+                    select.setString(i++, match);
+                    if (scope == Scope.ROOM) {
+                        select.setString(i++, room);
+                    } else {
+                        select.setString(i++, user);
+                        select.setString(i++, user);
+                    }
+                    select.setLong(i++, before);
+                    select.setInt(i, limit);
+                    List<Hit> result = new ArrayList<>();
+                    try (ResultSet rs = select.executeQuery()) {
+                        while (rs.next()) {
+                            result.add(new Hit(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                                    rs.getString(5), rs.getLong(6), rs.getString(7)));
+                        }
+                    }
+                    return result;
+                });
+                metrics.searchQuery(System.nanoTime() - start);
+                return new Page(hits, hits.size() < limit ? 0 : hits.get(hits.size() - 1).id());
+            } catch (SQLException e) {
+                throw new IllegalStateException("Search failed", e);
+            }
+        }, readExecutor);
+    }
+
+    // Gør brugerens ord til en FTS5-forespørgsel hvor hvert ord er en citeret frase, så
+    // tegn som " - : ( ) ikke tolkes som syntaks. Null hvis der ikke er nogen ord
+    static String terms(String query) {
+        StringBuilder sb = new StringBuilder();
+        for (String word : query.trim().split("\\s+")) {
+            boolean prefix = word.length() > 1 && word.endsWith("*");
+            if (prefix) word = word.substring(0, word.length() - 1);
+            if (word.isEmpty() || word.equals("*")) continue;
+            if (!sb.isEmpty()) sb.append(" AND ");
+            sb.append('"').append(word.replace("\"", "\"\"")).append('"');
+            if (prefix) sb.append('*');
+        }
+        return sb.isEmpty() ? null : sb.toString();
+    }
+
+    // Scope-token for et rum (r) eller en bruger (p): præfiks plus 64-bit FNV-1a af navnet i hex,
+    // så det altid er ét token uanset hvilke tegn navnet indeholder
+    static String token(String kind, String name) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return kind + Long.toHexString(hash);
+    }
+
+    // Indekser-tråd: indekserer først gamle tekstbeskeder (én gang), derefter alt der venter
+    // (op til batchSize) i én transaktion
+    private void runWriter() {
+        if (backfill) backfill();
+        List<Doc> batch = new ArrayList<>(batchSize);
+        while (running || !pending.isEmpty()) {
+            try {
+                if (pending.take(batch, batchSize)) pending.write(batch, this::write);
+            } catch (InterruptedException e) {
+                running = false;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Doc> batch) throws SQLException {
+        long start = System.nanoTime();
+        pool.withConnection(conn -> {
+            Connection c = conn.getConnection();
+            c.setAutoCommit(false);
+            try {
+                PreparedStatement insert = conn.prepare(INSERT);
+                for (Doc d : batch) {
+                    insert.setLong(1, d.id());
+                    insert.setString(2, d.text());
+                    insert.setString(3, d.recipient() == null ? "room " + token("r", d.room())
+                            : token("p", d.sender()) + " " + token("p", d.recipient()));
+                    insert.setString(4, d.room());
+                    insert.setString(5, d.sender());
+                    insert.setString(6, d.recipient());
+                    insert.setString(7, d.color());
+                    insert.setLong(8, d.ts());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+            return null;
+        });
+        metrics.searchIndexed(batch.size(), System.nanoTime() - start);
+    }
+
+    private void backfill() {
+        long start = System.nanoTime();
+        try {
+            int count = pool.withConnection(conn -> {
+                Connection c = conn.getConnection();
+                Function.create(c, "scope_token", new Function() {
+                    @Override
+                    protected void xFunc() throws SQLException {
+                        result(token(value_text(0), value_text(1)));
+                    }
+                }, 2, Function.FLAG_DETERMINISTIC);
+                c.setAutoCommit(false);
+                try (Statement stmt = c.createStatement()) {
+                    int n = stmt.executeUpdate(BACKFILL);
+                    stmt.execute("INSERT INTO search_state (name, value) VALUES ('backfilled', " + System.currentTimeMillis() + ")");
+                    c.commit();
+                    return n;
+                } catch (SQLException e) {
+                    c.rollback();
+                    throw e;
+                } finally {
+                    c.setAutoCommit(true);
+                    Function.destroy(c, "scope_token");
+                }
+            });
+            LOGGER.info("Indexed " + count + " stored messages for search in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Could not index stored messages for search", e);
+        }
+    }
+
+    // Stopper indekser-tråden når alt ventende er skrevet
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.chatserverweb.application;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Kører opgaver én ad gangen og i rækkefølge oven på en delt trådpulje. Mange
+// SerialExecutors kan dele få tråde; efter BATCH opgaver giver den tråden fra sig,
+// så et travlt rum ikke sulter de andre.
+public class SerialExecutor implements Executor {
+
+    private static final Logger LOGGER = Logger.getLogger(SerialExecutor.class.getName());
+    private static final int BATCH = 64;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Executor pool;
+
+    public SerialExecutor(Executor pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            pool.execute(this::run);
+        }
+    }
+
+    private void run() {
+        try {
+            Runnable task;
+            for (int i = 0; i < BATCH && (task = tasks.poll()) != null; i++) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Serial task failed", e);
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            if (!tasks.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
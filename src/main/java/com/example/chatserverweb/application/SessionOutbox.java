@@ -0,0 +1,222 @@
+package com.example.chatserverweb.application;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Begrænset udgående kø for én session. Afsenderen lægger blot frames i køen,
+// og en writer-tråd tømmer den, så en langsom klient ikke blokerer resten af rummet.
+// Køen er en linket kø med en tæller som grænse, så en tom kø kun koster et par objekter
+// og ikke et array på capacity pladser for hver forbindelse.
+public class SessionOutbox {
+
+    private static final Logger LOGGER = Logger.getLogger(SessionOutbox.class.getName());
+
+    private final WebSocketSession session;
+    private final Queue<WebSocketMessage<?>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final Executor writer;
+    private final ChatMetrics metrics;
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    // Sat af closeWhenFlushed: sessionen lukkes med den når køen er tom
+    private volatile CloseStatus closeWhenEmpty;
+    // Fuldføres når close har lukket sessionen (eller fundet den lukket)
+    private final CompletableFuture<Void> terminated = new CompletableFuture<>();
+    // Frames fra sendRequired der stadig er i køen (efter identitet)
+    private final Set<WebSocketMessage<?>> required = Collections.newSetFromMap(
+            Collections.synchronizedMap(new IdentityHashMap<>()));
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public SessionOutbox(WebSocketSession session, int capacity, OverflowPolicy policy, Executor writer, ChatMetrics metrics) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.session = session;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.writer = writer;
+        this.metrics = metrics;
+    }
+
+    // Lægger en frame i køen. Returnerer false hvis framen blev droppet
+    public boolean send(WebSocketMessage<?> frame) {
+        if (closed.get()) {
+            return false;
+        }
+        if (!offer(frame)) {
+            switch (policy) {
+                case DROP_NEW:
+                    dropped.increment();
+                    metrics.outboundDropped();
+                    return false;
+                case DROP_OLDEST:
+                    do {
+                        if (evictOldest()) {
+                            dropped.increment();
+                            metrics.outboundDropped();
+                        } else if (size.get() >= capacity) {
+                            // Køen er fuld af frames fra sendRequired
+                            dropped.increment();
+                            metrics.outboundDropped();
+                            return false;
+                        }
+                    } while (!offer(frame));
+                    break;
+                case DISCONNECT:
+                    dropped.increment();
+                    metrics.outboundDropped();
+                    LOGGER.fine("Outbound queue full, disconnecting session " + session.getId());
+                    close(CloseStatus.SESSION_NOT_RELIABLE);
+                    return false;
+            }
+        }
+        scheduleDrain();
+        return true;
+    }
+
+    // Lægger en frame i køen som senere frames afhænger af (SYMBOL). Den tæller med i størrelsen, men
+    // lægges i køen selv når den er fuld, og fjernes ikke af DROP_OLDEST. Falsk hvis køen er lukket
+    public boolean sendRequired(BinaryMessage frame) {
+        if (closed.get()) {
+            return false;
+        }
+        required.add(frame);
+        size.incrementAndGet();
+        queue.offer(frame);
+        scheduleDrain();
+        return true;
+    }
+
+    // Lukker køen og (asynkront) selve sessionen
+    public void close(CloseStatus status) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        clear();
+        writer.execute(() -> {
+            try {
+                if (session.isOpen()) session.close(status);
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Could not close session " + session.getId(), e);
+            } finally {
+                terminated.complete(null);
+            }
+        });
+    }
+
+    // Fuldføres når køen er lukket og sessionen med den, uanset hvem der lukkede
+    public CompletableFuture<Void> terminated() {
+        return terminated;
+    }
+
+    // Lukker sessionen når det der allerede er i køen er sendt, fx en RECONNECT-frame ved drain
+    public void closeWhenFlushed(CloseStatus status) {
+        closeWhenEmpty = status;
+        scheduleDrain();
+    }
+
+    public WebSocketSession getSession() {
+        return session;
+    }
+
+    public int depth() {
+        return size.get();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    public long failures() {
+        return failures.sum();
+    }
+
+    // Sørger for at højst én writer-tråd tømmer køen ad gangen, så rækkefølgen bevares
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            writer.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            WebSocketMessage<?> frame;
+            while ((frame = poll()) != null) {
+                if (!session.isOpen()) {
+                    clear();
+                    return;
+                }
+                session.sendMessage(frame);
+                metrics.outboundFrame();
+            }
+        } catch (IOException | RuntimeException e) {
+            failures.increment();
+            metrics.sendFailed();
+            LOGGER.log(Level.WARNING, "Send to session " + session.getId() + " failed", e);
+            close(CloseStatus.SERVER_ERROR);
+        } finally {
+            draining.set(false);
+            if (size.get() > 0 && !closed.get()) {
+                scheduleDrain();
+            } else if (closeWhenEmpty != null) {
+                close(closeWhenEmpty);
+            }
+        }
+    }
+
+    // Pladsen reserveres i tælleren før framen lægges i køen, så køen aldrig overstiger capacity
+    private boolean offer(WebSocketMessage<?> frame) {
+        int n;
+        do {
+            n = size.get();
+            if (n >= capacity) return false;
+        } while (!size.compareAndSet(n, n + 1));
+        queue.offer(frame);
+        return true;
+    }
+
+    // Fjerner den ældste frame der ikke er sendt med sendRequired. Falsk hvis der ikke var nogen
+    private boolean evictOldest() {
+        for (WebSocketMessage<?> frame : queue) {
+            if (!required.contains(frame) && queue.remove(frame)) {
+                size.decrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private WebSocketMessage<?> poll() {
+        WebSocketMessage<?> frame = queue.poll();
+        if (frame != null) {
+            size.decrementAndGet();
+            if (!required.isEmpty()) required.remove(frame);
+        }
+        return frame;
+    }
+
+    private void clear() {
+        while (poll() != null) {
+            // Tømmer køen
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.chatserverweb.application;
+
+import com.example.chatserverweb.Domain.Client;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Alt serveren ved om én WebSocket-session, samlet ét sted i stedet for i en map pr. felt.
+// Forbindelsens dele er faste fra afterConnectionEstablished; brugeren sættes ved login
+public final class SessionRecord {
+
+    private final WebSocketSession session;
+    private final SessionOutbox outbox;
+    // Symbolerne sessionen kender, eller null for tekstprotokollen
+    private final BinaryFrameCodec.Symbols symbols;
+    private final boolean compressed;
+    // Seriel executor i VIRTUAL-mode, ellers null
+    private final Executor inbound;
+    // Rate limit-buckets, eller null når det er slået fra
+    private final AtomicLongArray buckets;
+
+    // Brugerens tal i SessionRegistry (0 før login), navn, farve (RGB) og domæneklient
+    private volatile int user;
+    private volatile String name;
+    private volatile int color;
+    private volatile Client client;
+    // Seneste login-token. Sessionens tilstand gemmes på det ved lukning
+    private volatile String resumeToken;
+    // Bekræftelser i et AT_LEAST_ONCE-rum, ellers null
+    private volatile AckState acks;
+    // Upload i gang, højst én ad gangen
+    private FileStore.Upload upload;
+
+    public SessionRecord(WebSocketSession session, SessionOutbox outbox, BinaryFrameCodec.Symbols symbols,
+                         boolean compressed, Executor inbound, AtomicLongArray buckets) {
+        this.session = session;
+        this.outbox = outbox;
+        this.symbols = symbols;
+        this.compressed = compressed;
+        this.inbound = inbound;
+        this.buckets = buckets;
+    }
+
+    public void login(int user, String name, int color, Client client) {
+        this.name = name;
+        this.color = color;
+        this.client = client;
+        this.user = user;
+    }
+
+    public boolean isLoggedIn() {
+        return user != 0;
+    }
+
+    public String getId() {
+        return session.getId();
+    }
+
+    public boolean isOpen() {
+        return session.isOpen();
+    }
+
+    public WebSocketSession getSession() {
+        return session;
+    }
+
+    public SessionOutbox getOutbox() {
+        return outbox;
+    }
+
+    public BinaryFrameCodec.Symbols getSymbols() {
+        return symbols;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public Executor getInbound() {
+        return inbound;
+    }
+
+    public AtomicLongArray getBuckets() {
+        return buckets;
+    }
+
+    public int getUser() {
+        return user;
+    }
+
+    // Brugernavnet, eller null før login
+    public String getName() {
+        return name;
+    }
+
+    public int getColor() {
+        return color;
+    }
+
+    // Farven som #RRGGBB, som den gemmes i historik og tokens
+    public String colorText() {
+        return OutboundFrame.colorText(color);
+    }
+
+    public Client getClient() {
+        return client;
+    }
+
+    public String getResumeToken() {
+        return resumeToken;
+    }
+
+    public void setResumeToken(String resumeToken) {
+        this.resumeToken = resumeToken;
+    }
+
+    public AckState getAcks() {
+        return acks;
+    }
+
+    public void setAcks(AckState acks) {
+        this.acks = acks;
+    }
+
+    public synchronized FileStore.Upload getUpload() {
+        return upload;
+    }
+
+    // Sætter uploaden hvis der ikke allerede er en i gang
+    public synchronized boolean startUpload(FileStore.Upload upload) {
+        if (this.upload != null) return false;
+        this.upload = upload;
+        return true;
+    }
+
+    // Fjerner uploaden hvis det stadig er den der er i gang
+    public synchronized boolean endUpload(FileStore.Upload upload) {
+        if (this.upload != upload) return false;
+        this.upload = null;
+        return true;
+    }
+
+    // Fjerner og returnerer uploaden i gang, eller null
+    public synchronized FileStore.Upload takeUpload() {
+        FileStore.Upload u = upload;
+        upload = null;
+        return u;
+    }
+}
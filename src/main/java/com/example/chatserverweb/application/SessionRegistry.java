@@ -0,0 +1,112 @@
+package com.example.chatserverweb.application;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+// Nodens sessioner: én SessionRecord pr. forbindelse (nøgle: session id) og den loggede ind
+// session for hver bruger i et array indekseret med brugerens tal fra names, så en udsendelse
+// finder modtagerens session med et array-opslag i stedet for et hash-opslag på navnet.
+// Arrayet er delt i sider på 4096, der oprettes efterhånden som tallene bruges
+public class SessionRegistry {
+
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private final NameTable names = new NameTable();
+    private final Map<String, SessionRecord> sessions = new ConcurrentHashMap<>();
+    // Erstattes med en større kopi under låsen; siderne selv opdateres med CAS
+    private volatile AtomicReferenceArray<SessionRecord>[] pages = newPages(16);
+    private final AtomicInteger users = new AtomicInteger();
+
+    // Tabellen brugernes tal kommer fra. Tallene er også afsender-id'er i den binære protokol
+    public NameTable names() {
+        return names;
+    }
+
+    public void add(SessionRecord record) {
+        sessions.put(record.getId(), record);
+    }
+
+    // Sessionen med id'et, eller null hvis den er lukket
+    public SessionRecord session(String id) {
+        return sessions.get(id);
+    }
+
+    // Fjerner sessionen. Falsk hvis den allerede var fjernet
+    public boolean remove(SessionRecord record) {
+        return sessions.remove(record.getId(), record);
+    }
+
+    // Gør sessionen til brugerens. Falsk hvis brugeren allerede har en session på noden
+    public boolean claim(int user, SessionRecord record) {
+        if (!page(user).compareAndSet(user & (PAGE_SIZE - 1), null, record)) {
+            return false;
+        }
+        users.incrementAndGet();
+        return true;
+    }
+
+    // Frigiver brugeren hvis det stadig er sessionen der har den
+    public boolean release(int user, SessionRecord record) {
+        if (user == 0 || !page(user).compareAndSet(user & (PAGE_SIZE - 1), record, null)) {
+            return false;
+        }
+        users.decrementAndGet();
+        return true;
+    }
+
+    // Brugerens session på noden, eller null
+    public SessionRecord user(int user) {
+        AtomicReferenceArray<SessionRecord>[] p = pages;
+        int i = user >>> PAGE_BITS;
+        if (user <= 0 || i >= p.length || p[i] == null) {
+            return null;
+        }
+        return p[i].get(user & (PAGE_SIZE - 1));
+    }
+
+    public SessionRecord user(String name) {
+        int id = names.find(name);
+        return id == 0 ? null : user(id);
+    }
+
+    public int sessionCount() {
+        return sessions.size();
+    }
+
+    public int userCount() {
+        return users.get();
+    }
+
+    public void forEach(Consumer<SessionRecord> action) {
+        sessions.values().forEach(action);
+    }
+
+    private AtomicReferenceArray<SessionRecord> page(int user) {
+        int i = user >>> PAGE_BITS;
+        AtomicReferenceArray<SessionRecord>[] p = pages;
+        if (i < p.length && p[i] != null) {
+            return p[i];
+        }
+        synchronized (this) {
+            p = pages;
+            if (i >= p.length) {
+                p = Arrays.copyOf(p, Math.max(p.length * 2, i + 1));
+            }
+            if (p[i] == null) {
+                p[i] = new AtomicReferenceArray<>(PAGE_SIZE);
+            }
+            pages = p;
+            return p[i];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AtomicReferenceArray<SessionRecord>[] newPages(int n) {
+        return (AtomicReferenceArray<SessionRecord>[]) new AtomicReferenceArray[n];
+    }
+}
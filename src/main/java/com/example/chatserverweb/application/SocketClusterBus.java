@@ -0,0 +1,184 @@
+package com.example.chatserverweb.application;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// ClusterBus over TCP mellem noder. Hver node lytter på en port og holder én
+// udgående forbindelse til hver peer. Beskeder sendes som længde-præfiksede
+// envelopes; en fuld kø til en peer betyder at beskeden droppes, så en langsom
+// node aldrig blokerer afsenderen.
+public class SocketClusterBus implements ClusterBus {
+
+    private static final Logger LOGGER = Logger.getLogger(SocketClusterBus.class.getName());
+    private static final long RECONNECT_MILLIS = 1000;
+
+    private final String nodeId;
+    private final int queueCapacity;
+    private final ServerSocket server;
+    private final ThreadFactory threads = new NamedThreadFactory("chat-cluster");
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final List<PeerLink> peers = new CopyOnWriteArrayList<>();
+    private final List<Socket> inbound = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    public SocketClusterBus(String nodeId, String host, int port, int queueCapacity) throws IOException {
+        this.nodeId = nodeId;
+        this.queueCapacity = queueCapacity;
+        this.server = new ServerSocket();
+        server.bind(new InetSocketAddress(host, port));
+        threads.newThread(this::acceptLoop).start();
+    }
+
+    @Override
+    public String nodeId() {
+        return nodeId;
+    }
+
+    // Den port noden lytter på (nyttigt når port 0 er brugt)
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    // Opretter en udgående forbindelse til en peer. Forbindelsen genoprettes hvis den falder
+    public void connect(InetSocketAddress address) {
+        PeerLink link = new PeerLink(address);
+        peers.add(link);
+        threads.newThread(link::run).start();
+    }
+
+    @Override
+    public void publish(ClusterMessage message) {
+        for (PeerLink link : peers) {
+            if (!link.queue.offer(message)) {
+                LOGGER.log(Level.FINE, "Cluster queue to {0} full, dropping message", link.address);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException ignored) {
+        }
+        for (PeerLink link : peers) link.close();
+        for (Socket s : inbound) closeQuietly(s);
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                inbound.add(socket);
+                threads.newThread(() -> readLoop(socket)).start();
+            } catch (IOException e) {
+                if (!closed) LOGGER.log(Level.WARNING, "Cluster accept failed", e);
+            }
+        }
+    }
+
+    // Læser beskeder fra en anden node. Første felt er afsenderens node id
+    private void readLoop(Socket socket) {
+        String remote = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            remote = in.readUTF();
+            while (!closed) {
+                ClusterMessage message = ClusterMessage.readFrom(in);
+                for (Listener l : listeners) {
+                    try {
+                        l.onClusterMessage(message);
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Cluster listener failed", e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) LOGGER.log(Level.INFO, "Cluster connection from {0} closed", remote);
+        } finally {
+            inbound.remove(socket);
+            closeQuietly(socket);
+            if (remote != null && !closed) {
+                for (Listener l : listeners) l.onNodeDown(remote);
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // Udgående forbindelse til én peer med sin egen begrænsede kø
+    private final class PeerLink {
+        private final InetSocketAddress address;
+        private final BlockingQueue<ClusterMessage> queue = new ArrayBlockingQueue<>(queueCapacity);
+        private volatile Socket socket;
+
+        private PeerLink(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        private void run() {
+            while (!closed) {
+                try (Socket s = new Socket()) {
+                    socket = s;
+                    s.connect(address, (int) RECONNECT_MILLIS);
+                    s.setTcpNoDelay(true);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                    out.writeUTF(nodeId);
+                    out.flush();
+                    for (Listener l : listeners) l.onNodeUp(address.toString());
+                    while (!closed) {
+                        ClusterMessage message = queue.poll(RECONNECT_MILLIS, TimeUnit.MILLISECONDS);
+                        if (message == null) continue;
+                        message.writeTo(out);
+                        // Tømmer resten af køen før flush, så en burst bliver til få TCP-skrivninger
+                        while ((message = queue.poll()) != null) {
+                            message.writeTo(out);
+                        }
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    if (!closed) LOGGER.log(Level.FINE, "Cluster peer {0} unavailable, retrying", address);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    Thread.sleep(RECONNECT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        private void close() {
+            Socket s = socket;
+            if (s != null) closeQuietly(s);
+        }
+    }
+}
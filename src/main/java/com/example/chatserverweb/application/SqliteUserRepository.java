@@ -0,0 +1,59 @@
+package com.example.chatserverweb.application;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Optional;
+
+// UserRepository oven på den delte SQLite-forbindelsespulje
+public class SqliteUserRepository implements UserRepository {
+
+    private static final String SELECT = "SELECT password FROM users WHERE username = ?";
+    private static final String INSERT = "INSERT OR IGNORE INTO users (username, password) VALUES (?, ?)";
+    private static final String UPDATE = "UPDATE users SET password = ? WHERE username = ?";
+
+    private final ConnectionPool pool;
+
+    public SqliteUserRepository(ConnectionPool pool) throws SQLException {
+        this.pool = pool;
+        // Opretter brugertabel hvis den ikke findes
+        pool.withConnection(conn -> {
+            try (Statement stmt = conn.getConnection().createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS users (username TEXT PRIMARY KEY, password TEXT)");
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public Optional<String> findPasswordHash(String username) throws SQLException {
+        return pool.withConnection(conn -> {
+            PreparedStatement select = conn.prepare(SELECT);
+            select.setString(1, username);
+            try (ResultSet rs = select.executeQuery()) {
+                return rs.next() ? Optional.of(rs.getString(1)) : Optional.empty();
+            }
+        });
+    }
+
+    @Override
+    public boolean create(String username, String passwordHash) throws SQLException {
+        return pool.withConnection(conn -> {
+            PreparedStatement insert = conn.prepare(INSERT);
+            insert.setString(1, username);
+            insert.setString(2, passwordHash);
+            return insert.executeUpdate() == 1;
+        });
+    }
+
+    @Override
+    public void updatePasswordHash(String username, String passwordHash) throws SQLException {
+        pool.withConnection(conn -> {
+            PreparedStatement update = conn.prepare(UPDATE);
+            update.setString(1, passwordHash);
+            update.setString(2, username);
+            return update.executeUpdate();
+        });
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.chatserverweb.application;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// Tilstand en server gemmer når den drænes, til den næste der starter: sessionernes tokens med
+// farve, rum og ulæst-cursor, og de seneste beskeder i hvert rum. Filen memory-mappes ved start,
+// og intet afkodes før det bruges: et token findes med binær søgning i indekset når det bruges
+// til RESUME, og et rums beskeder læses første gang rummets historik bruges.
+//
+// Tokens gemmes kun som (de første 16 bytes af) SHA-256, så filen ikke kan bruges til at logge
+// ind, og hvert token kan bruges én gang. Sekvensnumre fra AT_LEAST_ONCE-rum kommer ikke med,
+// da de starter forfra; en genoptaget session får de ulæste beskeder fra historikken og får at
+// vide at den skal bruge HISTORY i stedet for at vente på en genudsendelse.
+//
+// Layout (big-endian, str er int længde + UTF-8):
+//   int magic | int version | long skrevet (epoch millis) | int tokens | int rum
+//   tokens x (long hash | long hash | int offset), sorteret efter hash (uden fortegn)
+//   rum x int offset
+//   token: long udløber | str bruger | str farve | str rum | long cursor
+//   rum:   str navn | int antal | antal x (long seq | str afsender | str farve | long ts | str type | str indhold)
+// Offsets regnes fra starten af filen
+public final class StateSnapshot {
+
+    private static final int MAGIC = 0x43485331; // "CHS1"
+    private static final int VERSION = 1;
+    private static final int HEADER = 4 + 4 + 8 + 4 + 4;
+    private static final int INDEX_ENTRY = 8 + 8 + 4;
+
+    // Et token som det gemmes: hash af tokenet, brugerens tilstand og hvornår tokenet udløber
+    public record Token(long hashHigh, long hashLow, String username, String color, String room, long cursor,
+                        long expiresAt) {
+    }
+
+    private static final StateSnapshot EMPTY = new StateSnapshot(ByteBuffer.allocate(HEADER), 0, 0, Map.of());
+
+    private final ByteBuffer buf;
+    private final long writtenAt;
+    private final int tokens;
+    private final Map<String, Integer> rooms;
+    // Tokens der er brugt siden start (indeks i token-indekset)
+    private final BitSet used = new BitSet();
+
+    private StateSnapshot(ByteBuffer buf, long writtenAt, int tokens, Map<String, Integer> rooms) {
+        this.buf = buf;
+        this.writtenAt = writtenAt;
+        this.tokens = tokens;
+        this.rooms = rooms;
+    }
+
+    // Et snapshot uden indhold, når der ikke er noget at starte fra
+    public static StateSnapshot empty() {
+        return EMPTY;
+    }
+
+    // Memory-mapper filen og læser kun headeren og rumnavnene. Filen slettes bagefter (mappingen
+    // består), så tokens der bruges i denne kørsel ikke kan bruges igen efter et nedbrud. Findes
+    // filen ikke, er snapshottet tomt
+    public static StateSnapshot open(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return EMPTY;
+        }
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buf.limit() < HEADER || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw new IOException("Not a chat snapshot: " + file);
+        }
+        long writtenAt = buf.getLong(8);
+        int tokens = buf.getInt(16);
+        int roomCount = buf.getInt(20);
+        int roomsOffset = HEADER + tokens * INDEX_ENTRY;
+        Map<String, Integer> rooms = new HashMap<>(roomCount * 2);
+        for (int i = 0; i < roomCount; i++) {
+            int offset = buf.getInt(roomsOffset + i * 4);
+            rooms.put(string(buf, offset), offset);
+        }
+        try {
+            Files.delete(file);
+        } catch (IOException e) {
+            // Fx Windows, hvor en mappet fil ikke kan slettes; den overskrives ved næste drain
+        }
+        return new StateSnapshot(buf, writtenAt, tokens, rooms);
+    }
+
+    public long writtenAt() {
+        return writtenAt;
+    }
+
+    public int tokenCount() {
+        return tokens;
+    }
+
+    public Set<String> rooms() {
+        return Collections.unmodifiableSet(rooms.keySet());
+    }
+
+    public boolean hasRoom(String room) {
+        return rooms.containsKey(room);
+    }
+
+    // Bruger tokenet, hvis det er i snapshottet og ikke er udløbet eller brugt. Ellers null
+    public CredentialCache.Resumed consume(String token, long nowMillis) {
+        long[] hash = hash(token);
+        int i = find(hash[0], hash[1]);
+        if (i < 0) {
+            return null;
+        }
+        synchronized (used) {
+            if (used.get(i)) return null;
+            used.set(i);
+        }
+        Token t = token(i);
+        if (t.expiresAt() < nowMillis) {
+            return null;
+        }
+        return new CredentialCache.Resumed(t.username(), t.color(), t.room(), t.cursor(), -1);
+    }
+
+    // Tokens der ikke er brugt eller udløbet, så de kan komme med i det næste snapshot
+    public void forEachUnused(long nowMillis, Consumer<Token> action) {
+        for (int i = 0; i < tokens; i++) {
+            boolean skip;
+            synchronized (used) {
+                skip = used.get(i);
+            }
+            if (skip) continue;
+            Token t = token(i);
+            if (t.expiresAt() >= nowMillis) action.accept(t);
+        }
+    }
+
+    // Rummets gemte beskeder, ældste først. Afkodes hver gang, så kaldet bør kun ske én gang pr. rum
+    public List<HistoryEntry> history(String room) {
+        Integer offset = rooms.get(room);
+        if (offset == null) {
+            return List.of();
+        }
+        int[] pos = {offset};
+        string(buf, pos);
+        int count = buf.getInt(pos[0]);
+        pos[0] += 4;
+        List<HistoryEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long seq = buf.getLong(pos[0]);
+            pos[0] += 8;
+            String sender = string(buf, pos);
+            String color = string(buf, pos);
+            long ts = buf.getLong(pos[0]);
+            pos[0] += 8;
+            String type = string(buf, pos);
+            String content = string(buf, pos);
+            entries.add(HistoryEntry.of(seq, room, sender, color, ts, type, content));
+        }
+        return entries;
+    }
+
+    // Skriver et snapshot. Filen skrives ved siden af og flyttes på plads, så en halvt skrevet fil
+    // aldrig læses, og kan kun læses af ejeren hvor filsystemet understøtter det
+    public static void write(Path file, List<Token> tokens, Map<String, List<HistoryEntry>> rooms, long writtenAt)
+            throws IOException {
+        List<Token> sorted = new ArrayList<>(tokens);
+        sorted.sort((a, b) -> a.hashHigh() != b.hashHigh() ? Long.compareUnsigned(a.hashHigh(), b.hashHigh())
+                : Long.compareUnsigned(a.hashLow(), b.hashLow()));
+        int bodyStart = HEADER + sorted.size() * INDEX_ENTRY + rooms.size() * 4;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        int[] tokenOffsets = new int[sorted.size()];
+        for (int i = 0; i < sorted.size(); i++) {
+            Token t = sorted.get(i);
+            tokenOffsets[i] = bodyStart + body.size();
+            body.writeLong(t.expiresAt());
+            putString(body, t.username());
+            putString(body, t.color());
+            putString(body, t.room());
+            body.writeLong(t.cursor());
+        }
+        int[] roomOffsets = new int[rooms.size()];
+        int r = 0;
+        for (Map.Entry<String, List<HistoryEntry>> room : rooms.entrySet()) {
+            roomOffsets[r++] = bodyStart + body.size();
+            putString(body, room.getKey());
+            body.writeInt(room.getValue().size());
+            for (HistoryEntry e : room.getValue()) {
+                body.writeLong(e.seq());
+                putString(body, e.message().getSender().getName());
+                putString(body, e.color());
+                body.writeLong(e.message().getTimestamp().getTime());
+                putString(body, e.message().getType().name());
+                putString(body, e.text());
+            }
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        try {
+            Files.createFile(tmp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(tmp);
+        }
+        try (OutputStream stream = Files.newOutputStream(tmp, StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(writtenAt);
+            out.writeInt(sorted.size());
+            out.writeInt(rooms.size());
+            for (int i = 0; i < sorted.size(); i++) {
+                out.writeLong(sorted.get(i).hashHigh());
+                out.writeLong(sorted.get(i).hashLow());
+                out.writeInt(tokenOffsets[i]);
+            }
+            for (int offset : roomOffsets) {
+                out.writeInt(offset);
+            }
+            bytes.writeTo(out);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // De første 16 bytes af SHA-256 af tokenet som to longs
+    public static long[] hash(String token) {
+        try {
+            ByteBuffer digest = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256")
+                    .digest(token.getBytes(StandardCharsets.UTF_8)));
+            return new long[]{digest.getLong(), digest.getLong()};
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // Indekset i token-indekset, eller -1
+    private int find(long high, long low) {
+        int lo = 0;
+        int hi = tokens - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int at = HEADER + mid * INDEX_ENTRY;
+            int cmp = Long.compareUnsigned(buf.getLong(at), high);
+            if (cmp == 0) cmp = Long.compareUnsigned(buf.getLong(at + 8), low);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private Token token(int i) {
+        int at = HEADER + i * INDEX_ENTRY;
+        int[] pos = {buf.getInt(at + 16)};
+        long expiresAt = buf.getLong(pos[0]);
+        pos[0] += 8;
+        String username = string(buf, pos);
+        String color = string(buf, pos);
+        String room = string(buf, pos);
+        long cursor = buf.getLong(pos[0]);
+        return new Token(buf.getLong(at), buf.getLong(at + 8), username, color, room, cursor, expiresAt);
+    }
+
+    private static void putString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String string(ByteBuffer buf, int offset) {
+        return string(buf, new int[]{offset});
+    }
+
+    // Læser en streng ved pos[0] og flytter pos forbi den. Kun absolutte læsninger, så bufferen kan deles af tråde
+    private static String string(ByteBuffer buf, int[] pos) {
+        int len = buf.getInt(pos[0]);
+        byte[] b = new byte[len];
+        buf.get(pos[0] + 4, b);
+        pos[0] += 4 + len;
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
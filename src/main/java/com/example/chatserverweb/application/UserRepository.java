@@ -0,0 +1,17 @@
+package com.example.chatserverweb.application;
+
+import java.sql.SQLException;
+import java.util.Optional;
+
+// Adgang til gemte brugere og deres password-hashes
+public interface UserRepository {
+
+    // Finder den gemte hash for en bruger, tom hvis brugeren ikke findes
+    Optional<String> findPasswordHash(String username) throws SQLException;
+
+    // Opretter brugeren. Returnerer false hvis brugernavnet allerede var taget
+    boolean create(String username, String passwordHash) throws SQLException;
+
+    // Erstatter den gemte hash, fx når en gammel hash opgraderes
+    void updatePasswordHash(String username, String passwordHash) throws SQLException;
+}
@@ -0,0 +1,34 @@
+package com.example.chatserverweb.application;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+// Virtuelle tråde uden at kræve Java 21 ved kompilering. På ældre JVM'er bruges
+// i stedet en pulje af platformtråde, så VIRTUAL-mode stadig virker
+public final class VirtualThreads {
+
+    private static final Logger LOGGER = Logger.getLogger(VirtualThreads.class.getName());
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    // En virtuel tråd pr. opgave, eller en cached pulje med navngivne tråde før Java 21
+    public static ExecutorService newPerTaskExecutor(String fallbackPrefix) {
+        if (isSupported()) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                LOGGER.warning("Could not create virtual thread executor: " + e);
+            }
+        } else {
+            LOGGER.warning("Virtual threads need Java 21, running on " + Runtime.version().feature()
+                    + ". Falling back to platform threads.");
+        }
+        return Executors.newCachedThreadPool(new NamedThreadFactory(fallbackPrefix));
+    }
+}
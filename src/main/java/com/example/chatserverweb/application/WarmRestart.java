@@ -0,0 +1,80 @@
+package com.example.chatserverweb.application;
+
+import com.example.chatserverweb.config.ChatProperties;
+import org.springframework.context.SmartLifecycle;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Drain og snapshot ved nedlukning, så den næste server kan genoptage sessionerne uden at de
+// skal logge ind igen. Har den højeste fase, så den stoppes før webserveren, mens forbindelserne
+// stadig er åbne, og før historikkens writer-tråd lukkes
+public class WarmRestart implements SmartLifecycle {
+
+    private static final Logger LOGGER = Logger.getLogger(WarmRestart.class.getName());
+
+    private final ChatHandler handler;
+    private final CredentialCache credentials;
+    private final HistoryStore history;
+    private final StateSnapshot restored;
+    private final ChatProperties.Snapshot settings;
+    private volatile boolean running;
+
+    public WarmRestart(ChatHandler handler, CredentialCache credentials, HistoryStore history, StateSnapshot restored,
+                       ChatProperties.Snapshot settings) {
+        this.handler = handler;
+        this.credentials = credentials;
+        this.history = history;
+        this.restored = restored;
+        this.settings = settings;
+    }
+
+    // Serveren tager imod forbindelser. Tiden er fra JVM'en startede
+    @Override
+    public void start() {
+        running = true;
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        if (restored.tokenCount() > 0 || !restored.rooms().isEmpty()) {
+            LOGGER.info("Ready after " + uptime + " ms with snapshot from "
+                    + (System.currentTimeMillis() - restored.writtenAt()) + " ms ago: "
+                    + restored.tokenCount() + " sessions, " + restored.rooms().size() + " rooms");
+        } else {
+            LOGGER.info("Ready after " + uptime + " ms without snapshot");
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        long start = System.nanoTime();
+        int sessions = handler.drain(settings.getReconnectAfter(), settings.getReconnectSpread(),
+                settings.getDrainTimeout());
+        long drained = System.nanoTime();
+        if (settings.getFile().isBlank()) {
+            LOGGER.info("Drained " + sessions + " sessions in " + (drained - start) / 1_000_000 + " ms");
+            return;
+        }
+        Path file = Path.of(settings.getFile());
+        try {
+            List<StateSnapshot.Token> tokens = credentials.suspended();
+            Map<String, List<HistoryEntry>> rooms = history.recent(settings.getHistoryPerRoom());
+            StateSnapshot.write(file, tokens, rooms, System.currentTimeMillis());
+            LOGGER.info("Drained " + sessions + " sessions in " + (drained - start) / 1_000_000 + " ms, wrote "
+                    + tokens.size() + " tokens and " + rooms.size() + " rooms (" + Files.size(file) + " bytes) to "
+                    + file + " in " + (System.nanoTime() - drained) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not write snapshot to " + file, e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.chatserverweb.application;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Køen foran en writer-tråd (historik, offline-inbox, søgeindeks). Den er begrænset: kan databasen
+// ikke følge med og er køen fuld, afvises det nye element og tælles som overflow, for dem der lægger
+// i køen er rum-mailboxe og WebSocket-tråde, der ikke må vente på disken. En batch skrives i én
+// transaktion der rulles tilbage ved fejl, så den prøves forfra med voksende pause (SQLITE_BUSY,
+// en fuld disk der bliver ryddet). Lykkes det ikke på ATTEMPTS forsøg, opgives den og tælles som tabt
+final class WriteQueue<T> {
+
+    static final int ATTEMPTS = 4;
+    private static final long FIRST_BACKOFF_MILLIS = 50;
+
+    @FunctionalInterface
+    interface Batch<B> {
+        void write(List<B> batch) throws SQLException;
+    }
+
+    private final BlockingQueue<T> queue;
+    private final int capacity;
+    private final ChatMetrics.Writer writer;
+    private final String what;
+    private final ChatMetrics metrics;
+    private final Logger logger;
+    // Så der kun logges én gang hver gang køen løber fuld
+    private volatile boolean overflowing;
+
+    // what er hvad køen indeholder, til logbeskeder ("history entries")
+    WriteQueue(ChatMetrics.Writer writer, String what, int capacity, ChatMetrics metrics, Logger logger) {
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.capacity = capacity;
+        this.writer = writer;
+        this.what = what;
+        this.metrics = metrics;
+        this.logger = logger;
+    }
+
+    // Falsk hvis køen er fuld
+    boolean offer(T item) {
+        if (queue.offer(item)) {
+            if (overflowing) overflowing = false;
+            return true;
+        }
+        metrics.writeOverflow(writer);
+        if (!overflowing) {
+            overflowing = true;
+            logger.warning("Write queue full (" + capacity + " " + what + "), dropping new ones");
+        }
+        return false;
+    }
+
+    int size() {
+        return queue.size();
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    // Venter op til 100 ms på næste element og tager så op til max i alt. Falsk hvis der ikke kom noget
+    boolean take(List<T> batch, int max) throws InterruptedException {
+        T first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) return false;
+        batch.add(first);
+        queue.drainTo(batch, max - 1);
+        return true;
+    }
+
+    // Skriver batchen (eller den del af den writeren skriver), med nye forsøg. Falsk hvis den blev opgivet
+    <B> boolean write(List<B> batch, Batch<B> work) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                work.write(batch);
+                return true;
+            } catch (SQLException e) {
+                if (attempt == ATTEMPTS) {
+                    logger.log(Level.WARNING, "Could not write " + batch.size() + " " + what + " after " + ATTEMPTS
+                            + " attempts, giving up", e);
+                    metrics.writeLost(writer, batch.size());
+                    return false;
+                }
+                logger.log(Level.FINE, "Could not write " + batch.size() + " " + what + ", retrying", e);
+            }
+            try {
+                Thread.sleep(FIRST_BACKOFF_MILLIS << (attempt - 1));
+            } catch (InterruptedException e) {
+                metrics.writeLost(writer, batch.size());
+                throw e;
+            }
+        }
+    }
+}
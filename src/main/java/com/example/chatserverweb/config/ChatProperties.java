@@ -0,0 +1,761 @@
+package com.example.chatserverweb.config;
+
+import com.example.chatserverweb.Domain.MessageDeliveryPolicy;
+import com.example.chatserverweb.application.ChatClock;
+import com.example.chatserverweb.application.ClusterBus;
+import com.example.chatserverweb.application.ExecutionMode;
+import com.example.chatserverweb.application.FrameType;
+import com.example.chatserverweb.application.RateLimiter;
+import com.example.chatserverweb.application.OverflowPolicy;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Indstillinger for chatserveren (chat.* i application.properties)
+@ConfigurationProperties(prefix = "chat")
+public class ChatProperties {
+
+    private final Outbound outbound = new Outbound();
+    private final Db db = new Db();
+    private final Auth auth = new Auth();
+    private final History history = new History();
+    private final Clock clock = new Clock();
+    private final Cluster cluster = new Cluster();
+    private final Rooms rooms = new Rooms();
+    private final Execution execution = new Execution();
+    private final Metrics metrics = new Metrics();
+    private final Rate rate = new Rate();
+    private final Delivery delivery = new Delivery();
+    private final Compression compression = new Compression();
+    private final Presence presence = new Presence();
+    private final Inbox inbox = new Inbox();
+    private final Files files = new Files();
+    private final Search search = new Search();
+    private final Pipeline pipeline = new Pipeline();
+    private final Snapshot snapshot = new Snapshot();
+
+    public Outbound getOutbound() {
+        return outbound;
+    }
+
+    public Db getDb() {
+        return db;
+    }
+
+    public Auth getAuth() {
+        return auth;
+    }
+
+    public History getHistory() {
+        return history;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    public Cluster getCluster() {
+        return cluster;
+    }
+
+    public Rooms getRooms() {
+        return rooms;
+    }
+
+    public Execution getExecution() {
+        return execution;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public Rate getRate() {
+        return rate;
+    }
+
+    public Delivery getDelivery() {
+        return delivery;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public Presence getPresence() {
+        return presence;
+    }
+
+    public Inbox getInbox() {
+        return inbox;
+    }
+
+    public Files getFiles() {
+        return files;
+    }
+
+    public Search getSearch() {
+        return search;
+    }
+
+    public Pipeline getPipeline() {
+        return pipeline;
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    // Udgående kø pr. session
+    public static class Outbound {
+        private int capacity = 1024;
+        private OverflowPolicy overflow = OverflowPolicy.DROP_OLDEST;
+        private int writerThreads = 4;
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public OverflowPolicy getOverflow() {
+            return overflow;
+        }
+
+        public void setOverflow(OverflowPolicy overflow) {
+            this.overflow = overflow;
+        }
+
+        public int getWriterThreads() {
+            return writerThreads;
+        }
+
+        public void setWriterThreads(int writerThreads) {
+            this.writerThreads = writerThreads;
+        }
+    }
+
+    // SQLite-database og forbindelsespulje
+    public static class Db {
+        private String url = "jdbc:sqlite:chat.db";
+        private int poolSize = 4;
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+        }
+    }
+
+    // Login: tråde til verificering, PBKDF2-iterationer og levetid for login-tokens
+    public static class Auth {
+        private int threads = 2;
+        private int queueCapacity = 256;
+        private int iterations = 120_000;
+        private Duration tokenTtl = Duration.ofMinutes(30);
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        public void setIterations(int iterations) {
+            this.iterations = iterations;
+        }
+
+        public Duration getTokenTtl() {
+            return tokenTtl;
+        }
+
+        public void setTokenTtl(Duration tokenTtl) {
+            this.tokenTtl = tokenTtl;
+        }
+    }
+
+    // Beskedhistorik: ringbuffer pr. rum, batch-størrelse og kø for writer og sidestørrelser
+    public static class History {
+        private int ringSize = 200;
+        private int batchSize = 256;
+        private int queueCapacity = 100_000;
+        private int backfill = 20;
+        private int maxPage = 100;
+
+        public int getRingSize() {
+            return ringSize;
+        }
+
+        public void setRingSize(int ringSize) {
+            this.ringSize = ringSize;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getBackfill() {
+            return backfill;
+        }
+
+        public void setBackfill(int backfill) {
+            this.backfill = backfill;
+        }
+
+        public int getMaxPage() {
+            return maxPage;
+        }
+
+        public void setMaxPage(int maxPage) {
+            this.maxPage = maxPage;
+        }
+    }
+
+    // Tidsstempler i protokollen: formateret streng eller epoch millis, og hvor ofte den cachede streng opdateres
+    public static class Clock {
+        private ChatClock.Mode mode = ChatClock.Mode.FORMATTED;
+        private Duration tick = Duration.ofMillis(100);
+
+        public ChatClock.Mode getMode() {
+            return mode;
+        }
+
+        public void setMode(ChatClock.Mode mode) {
+            this.mode = mode;
+        }
+
+        public Duration getTick() {
+            return tick;
+        }
+
+        public void setTick(Duration tick) {
+            this.tick = tick;
+        }
+    }
+
+    // Flere noder: hvordan noderne forbindes, denne nodes id og adresse, og de andre noder (host:port)
+    public static class Cluster {
+        private ClusterBus.Transport transport = ClusterBus.Transport.IN_MEMORY;
+        private String nodeId = UUID.randomUUID().toString();
+        private String host = "127.0.0.1";
+        private int port = 7070;
+        private List<String> peers = new ArrayList<>();
+        private int queueCapacity = 8192;
+
+        public ClusterBus.Transport getTransport() {
+            return transport;
+        }
+
+        public void setTransport(ClusterBus.Transport transport) {
+            this.transport = transport;
+        }
+
+        public String getNodeId() {
+            return nodeId;
+        }
+
+        public void setNodeId(String nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public void setHost(String host) {
+            this.host = host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public void setPort(int port) {
+            this.port = port;
+        }
+
+        public List<String> getPeers() {
+            return peers;
+        }
+
+        public void setPeers(List<String> peers) {
+            this.peers = peers;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+    }
+
+    // Tråde der deles af alle rums mailboxes
+    public static class Rooms {
+        private int threads = Runtime.getRuntime().availableProcessors();
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+    }
+
+    // Hvor indkommende beskeder behandles: på containerens tråde eller på virtuelle tråde
+    public static class Execution {
+        private ExecutionMode mode = ExecutionMode.CONTAINER;
+
+        public ExecutionMode getMode() {
+            return mode;
+        }
+
+        public void setMode(ExecutionMode mode) {
+            this.mode = mode;
+        }
+    }
+
+    // Tidsmåling af hver N'te udsendelse pr. rum og hver N'te besked i pipelinens trin
+    // (0 = slået fra), og højst så mange rum som tags
+    public static class Metrics {
+        private int broadcastSample = 0;
+        private int stageSample = 100;
+        private int maxSampledRooms = 100;
+
+        public int getBroadcastSample() {
+            return broadcastSample;
+        }
+
+        public void setBroadcastSample(int broadcastSample) {
+            this.broadcastSample = broadcastSample;
+        }
+
+        public int getStageSample() {
+            return stageSample;
+        }
+
+        public void setStageSample(int stageSample) {
+            this.stageSample = stageSample;
+        }
+
+        public int getMaxSampledRooms() {
+            return maxSampledRooms;
+        }
+
+        public void setMaxSampledRooms(int maxSampledRooms) {
+            this.maxSampledRooms = maxSampledRooms;
+        }
+    }
+
+    // Grænser pr. frametype: pr. session og samlet pr. rum (per-second og burst)
+    public static class Rate {
+        private boolean enabled = true;
+        private final Map<FrameType, RateLimiter.Limit> session = new EnumMap<>(FrameType.class);
+        private final Map<FrameType, RateLimiter.Limit> room = new EnumMap<>(FrameType.class);
+
+        public Rate() {
+            session.put(FrameType.LOGIN, new RateLimiter.Limit(1, 5));
+            session.put(FrameType.RESUME, new RateLimiter.Limit(1, 5));
+            session.put(FrameType.TEXT, new RateLimiter.Limit(10, 20));
+            session.put(FrameType.EMOJI, new RateLimiter.Limit(10, 20));
+            session.put(FrameType.PRIVATE, new RateLimiter.Limit(10, 20));
+            session.put(FrameType.JOIN_ROOM, new RateLimiter.Limit(2, 10));
+            session.put(FrameType.HISTORY, new RateLimiter.Limit(5, 10));
+            session.put(FrameType.ROSTER, new RateLimiter.Limit(5, 20));
+            session.put(FrameType.UPLOAD, new RateLimiter.Limit(1, 5));
+            session.put(FrameType.SEARCH, new RateLimiter.Limit(2, 5));
+            room.put(FrameType.TEXT, new RateLimiter.Limit(200, 400));
+            room.put(FrameType.EMOJI, new RateLimiter.Limit(200, 400));
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Map<FrameType, RateLimiter.Limit> getSession() {
+            return session;
+        }
+
+        public Map<FrameType, RateLimiter.Limit> getRoom() {
+            return room;
+        }
+    }
+
+    // Levering i rum: IMMEDIATE eller COALESCE (samlet inden for window, højst maxBatch pr. frame).
+    // coalescedRooms bruger COALESCE selv når mode er IMMEDIATE
+    // guarantee AT_LEAST_ONCE (eller kun for acknowledgedRooms) gemmer de sidste retransmitWindow frames
+    // pr. rum og sender dem igen efter ackTimeout uden ACK, højst maxRetransmits gange i træk
+    public static class Delivery {
+        private MessageDeliveryPolicy.Mode mode = MessageDeliveryPolicy.Mode.IMMEDIATE;
+        private Duration window = Duration.ofMillis(20);
+        private int maxBatch = 256;
+        private List<String> coalescedRooms = new ArrayList<>();
+        private MessageDeliveryPolicy.Guarantee guarantee = MessageDeliveryPolicy.Guarantee.AT_MOST_ONCE;
+        private List<String> acknowledgedRooms = new ArrayList<>();
+        private int retransmitWindow = 1024;
+        private Duration ackTimeout = Duration.ofSeconds(2);
+        private int maxRetransmits = 5;
+
+        public MessageDeliveryPolicy.Mode getMode() {
+            return mode;
+        }
+
+        public void setMode(MessageDeliveryPolicy.Mode mode) {
+            this.mode = mode;
+        }
+
+        public Duration getWindow() {
+            return window;
+        }
+
+        public void setWindow(Duration window) {
+            this.window = window;
+        }
+
+        public int getMaxBatch() {
+            return maxBatch;
+        }
+
+        public void setMaxBatch(int maxBatch) {
+            this.maxBatch = maxBatch;
+        }
+
+        public List<String> getCoalescedRooms() {
+            return coalescedRooms;
+        }
+
+        public void setCoalescedRooms(List<String> coalescedRooms) {
+            this.coalescedRooms = coalescedRooms;
+        }
+
+        public MessageDeliveryPolicy.Guarantee getGuarantee() {
+            return guarantee;
+        }
+
+        public void setGuarantee(MessageDeliveryPolicy.Guarantee guarantee) {
+            this.guarantee = guarantee;
+        }
+
+        public List<String> getAcknowledgedRooms() {
+            return acknowledgedRooms;
+        }
+
+        public void setAcknowledgedRooms(List<String> acknowledgedRooms) {
+            this.acknowledgedRooms = acknowledgedRooms;
+        }
+
+        public int getRetransmitWindow() {
+            return retransmitWindow;
+        }
+
+        public void setRetransmitWindow(int retransmitWindow) {
+            this.retransmitWindow = retransmitWindow;
+        }
+
+        public Duration getAckTimeout() {
+            return ackTimeout;
+        }
+
+        public void setAckTimeout(Duration ackTimeout) {
+            this.ackTimeout = ackTimeout;
+        }
+
+        public int getMaxRetransmits() {
+            return maxRetransmits;
+        }
+
+        public void setMaxRetransmits(int maxRetransmits) {
+            this.maxRetransmits = maxRetransmits;
+        }
+    }
+
+    // Komprimering: permessage-deflate forhandles med klienter der beder om det (Tomcat komprimerer
+    // pr. forbindelse). Binære klienter med chat.bin.v1+deflate får i stedet frames komprimeret én gang
+    // for alle modtagere; frames under threshold bytes sendes ukomprimeret
+    public static class Compression {
+        private boolean permessageDeflate = true;
+        private int threshold = 256;
+        private int level = 6;
+
+        public boolean isPermessageDeflate() {
+            return permessageDeflate;
+        }
+
+        public void setPermessageDeflate(boolean permessageDeflate) {
+            this.permessageDeflate = permessageDeflate;
+        }
+
+        public int getThreshold() {
+            return threshold;
+        }
+
+        public void setThreshold(int threshold) {
+            this.threshold = threshold;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public void setLevel(int level) {
+            this.level = level;
+        }
+    }
+
+    // Roster-sider: pageSize navne sendes ved join og når klienten ikke angiver et antal, højst maxPage pr. side
+    public static class Presence {
+        private int pageSize = 100;
+        private int maxPage = 500;
+
+        public int getPageSize() {
+            return pageSize;
+        }
+
+        public void setPageSize(int pageSize) {
+            this.pageSize = pageSize;
+        }
+
+        public int getMaxPage() {
+            return maxPage;
+        }
+
+        public void setMaxPage(int maxPage) {
+            this.maxPage = maxPage;
+        }
+    }
+
+    // Offline-inbox: batch-størrelse og kø for writer og antal beskeder pr. BATCH-frame ved login
+    public static class Inbox {
+        private int batchSize = 256;
+        private int queueCapacity = 10_000;
+        private int pageSize = 256;
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getPageSize() {
+            return pageSize;
+        }
+
+        public void setPageSize(int pageSize) {
+            this.pageSize = pageSize;
+        }
+    }
+
+    // Filer og billeder: mappe, største fil, kvote pr. bruger, hvor mange bytes en upload må have
+    // undervejs til disken (window), største chunk og antal I/O-tråde
+    public static class Files {
+        private String dir = "files";
+        private DataSize maxSize = DataSize.ofMegabytes(256);
+        private DataSize quota = DataSize.ofGigabytes(1);
+        private DataSize window = DataSize.ofMegabytes(1);
+        private DataSize chunkSize = DataSize.ofKilobytes(64);
+        private int threads = 2;
+
+        public String getDir() {
+            return dir;
+        }
+
+        public void setDir(String dir) {
+            this.dir = dir;
+        }
+
+        public DataSize getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(DataSize maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public DataSize getQuota() {
+            return quota;
+        }
+
+        public void setQuota(DataSize quota) {
+            this.quota = quota;
+        }
+
+        public DataSize getWindow() {
+            return window;
+        }
+
+        public void setWindow(DataSize window) {
+            this.window = window;
+        }
+
+        public DataSize getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(DataSize chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+    }
+
+    // Søgeindeks: batch-størrelse og kø for indekseren og antal hits pr. side
+    public static class Search {
+        private int batchSize = 512;
+        private int queueCapacity = 100_000;
+        private int pageSize = 20;
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getPageSize() {
+            return pageSize;
+        }
+
+        public void setPageSize(int pageSize) {
+            this.pageSize = pageSize;
+        }
+    }
+
+    // Beskedpipelinen: med fanout-threads > 0 kører DELIVER på en seriel lane pr. rum i en pulje med
+    // så mange tråde, så rummets mailbox kun skal gemme beskeden og bygge framen (én gang) før den næste
+    public static class Pipeline {
+        private int fanoutThreads = 0;
+
+        public int getFanoutThreads() {
+            return fanoutThreads;
+        }
+
+        public void setFanoutThreads(int fanoutThreads) {
+            this.fanoutThreads = fanoutThreads;
+        }
+    }
+
+    // Drain og varm genstart: ved nedlukning får sessionerne RECONNECT spredt fra reconnect-after til
+    // reconnect-after + reconnect-spread, og tokens og de seneste history-per-room beskeder pr. rum
+    // skrives til file, som den næste server starter fra. Tom file: drain uden snapshot
+    public static class Snapshot {
+        private String file = "chat-snapshot.bin";
+        private int historyPerRoom = 50;
+        private Duration reconnectAfter = Duration.ofSeconds(1);
+        private Duration reconnectSpread = Duration.ofSeconds(10);
+        private Duration drainTimeout = Duration.ofSeconds(5);
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+
+        public int getHistoryPerRoom() {
+            return historyPerRoom;
+        }
+
+        public void setHistoryPerRoom(int historyPerRoom) {
+            this.historyPerRoom = historyPerRoom;
+        }
+
+        public Duration getReconnectAfter() {
+            return reconnectAfter;
+        }
+
+        public void setReconnectAfter(Duration reconnectAfter) {
+            this.reconnectAfter = reconnectAfter;
+        }
+
+        public Duration getReconnectSpread() {
+            return reconnectSpread;
+        }
+
+        public void setReconnectSpread(Duration reconnectSpread) {
+            this.reconnectSpread = reconnectSpread;
+        }
+
+        public Duration getDrainTimeout() {
+            return drainTimeout;
+        }
+
+        public void setDrainTimeout(Duration drainTimeout) {
+            this.drainTimeout = drainTimeout;
+        }
+    }
+}
@@ -1,24 +1,287 @@
 package com.example.chatserverweb.config;
 
+import com.example.chatserverweb.application.Authenticator;
+import com.example.chatserverweb.application.BinaryFrameCodec;
+import com.example.chatserverweb.application.ChatClock;
 import com.example.chatserverweb.application.ChatHandler;
+import com.example.chatserverweb.application.ChatMetrics;
+import com.example.chatserverweb.application.ClusterBus;
+import com.example.chatserverweb.application.ConnectionPool;
+import com.example.chatserverweb.application.CredentialCache;
+import com.example.chatserverweb.application.ExecutionMode;
+import com.example.chatserverweb.application.FileStore;
+import com.example.chatserverweb.application.FrameCompressor;
+import com.example.chatserverweb.application.HistoryStore;
+import com.example.chatserverweb.application.InMemoryClusterBus;
+import com.example.chatserverweb.application.NamedThreadFactory;
+import com.example.chatserverweb.application.OfflineInbox;
+import com.example.chatserverweb.application.PasswordHasher;
+import com.example.chatserverweb.application.SearchIndex;
+import com.example.chatserverweb.application.SocketClusterBus;
+import com.example.chatserverweb.application.SqliteUserRepository;
+import com.example.chatserverweb.application.StateSnapshot;
+import com.example.chatserverweb.application.UserRepository;
+import com.example.chatserverweb.application.VirtualThreads;
+import com.example.chatserverweb.application.WarmRestart;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.Filter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 @Configuration
 @EnableWebSocket
+@EnableConfigurationProperties(ChatProperties.class)
 public class WebSocketConfig implements WebSocketConfigurer {
 
+    private static final Logger LOGGER = Logger.getLogger(WebSocketConfig.class.getName());
+    private static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+
+    private final ChatProperties properties;
+    private final MeterRegistry meterRegistry;
+
+    public WebSocketConfig(ChatProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Bean
+    public ChatMetrics chatMetrics() {
+        ChatProperties.Metrics metrics = properties.getMetrics();
+        return new ChatMetrics(meterRegistry, metrics.getBroadcastSample(), metrics.getStageSample(),
+                metrics.getMaxSampledRooms());
+    }
+
+    // Tråde der tømmer sessionernes udgående køer
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService outboundExecutor() {
+        return Executors.newFixedThreadPool(properties.getOutbound().getWriterThreads(),
+                new NamedThreadFactory("chat-writer"));
+    }
+
+    @Bean(destroyMethod = "close")
+    public ConnectionPool connectionPool() {
+        try {
+            return new ConnectionPool(properties.getDb().getUrl(), properties.getDb().getPoolSize());
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not open chat database", e);
+        }
+    }
+
+    // Databaseopslag der ikke kan besvares fra hukommelsen kører her
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService dbExecutor() {
+        return Executors.newFixedThreadPool(properties.getDb().getPoolSize(), new NamedThreadFactory("chat-db"));
+    }
+
+    @Bean
+    public UserRepository userRepository() {
+        try {
+            return new SqliteUserRepository(connectionPool());
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not initialize users table", e);
+        }
+    }
+
+    // Login verificeres på sin egen begrænsede trådpulje, aldrig på WebSocket-trådene
+    @Bean(destroyMethod = "close")
+    public Authenticator authenticator() {
+        ChatProperties.Auth auth = properties.getAuth();
+        Authenticator authenticator = new Authenticator(userRepository(), new PasswordHasher(auth.getIterations()),
+                auth.getThreads(), auth.getQueueCapacity());
+        chatMetrics().gauge("chat.auth.queued", "Logins waiting for a verification thread", authenticator,
+                Authenticator::queueDepth);
+        return authenticator;
+    }
+
+    // Tilstanden den forrige server gemte da den blev drænet. Kun headeren læses her; tokens og
+    // rum læses når de bruges. Et ulæseligt snapshot springes over, så serveren stadig kan starte
+    @Bean
+    public StateSnapshot stateSnapshot() {
+        String file = properties.getSnapshot().getFile();
+        if (file.isBlank()) {
+            return StateSnapshot.empty();
+        }
+        try {
+            return StateSnapshot.open(Path.of(file));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Ignoring unreadable snapshot " + file, e);
+            return StateSnapshot.empty();
+        }
+    }
+
+    @Bean
+    public CredentialCache credentialCache() {
+        CredentialCache cache = new CredentialCache(properties.getAuth().getTokenTtl(), stateSnapshot());
+        chatMetrics().gauge("chat.auth.resume_tokens", "Resume tokens held in memory", cache, CredentialCache::size);
+        return cache;
+    }
+
+    @Bean(destroyMethod = "close")
+    public HistoryStore historyStore() {
+        ChatProperties.History history = properties.getHistory();
+        try {
+            return new HistoryStore(connectionPool(), dbExecutor(), history.getRingSize(), history.getBatchSize(),
+                    history.getQueueCapacity(), chatMetrics(), stateSnapshot());
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not initialize messages table", e);
+        }
+    }
+
+    // Efter userRepository, da inboxen kun gemmer beskeder til brugere i users-tabellen
+    @Bean(destroyMethod = "close")
+    public OfflineInbox offlineInbox() {
+        ChatProperties.Inbox inbox = properties.getInbox();
+        userRepository();
+        try {
+            return new OfflineInbox(connectionPool(), inbox.getBatchSize(), inbox.getQueueCapacity(), inbox.getPageSize(),
+                    chatMetrics());
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not initialize inbox table", e);
+        }
+    }
+
+    // Efter historyStore, da indekseringen af gemte beskeder læser messages-tabellen
+    @Bean(destroyMethod = "close")
+    public SearchIndex searchIndex() {
+        ChatProperties.Search search = properties.getSearch();
+        historyStore();
+        try {
+            return new SearchIndex(connectionPool(), dbExecutor(), search.getBatchSize(), search.getQueueCapacity(),
+                    chatMetrics());
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not initialize search index", e);
+        }
+    }
+
+    // Tråde der skriver uploadede chunks til disken
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService fileExecutor() {
+        return Executors.newFixedThreadPool(properties.getFiles().getThreads(), new NamedThreadFactory("chat-file"));
+    }
+
+    @Bean
+    public FileStore fileStore() {
+        ChatProperties.Files files = properties.getFiles();
+        try {
+            return new FileStore(Path.of(files.getDir()), connectionPool(), fileExecutor(), files.getMaxSize().toBytes(),
+                    files.getQuota().toBytes(), (int) files.getWindow().toBytes(), chatMetrics());
+        } catch (IOException | SQLException e) {
+            throw new IllegalStateException("Could not initialize file store in " + files.getDir(), e);
+        }
+    }
+
+    @Bean(destroyMethod = "close")
+    public ChatClock chatClock() {
+        return new ChatClock(properties.getClock().getMode(), properties.getClock().getTick());
+    }
+
+    // Delte tråde til rummenes mailboxes. Hvert rum kører én opgave ad gangen, men rum kører parallelt
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService roomExecutor() {
+        return Executors.newFixedThreadPool(properties.getRooms().getThreads(), new NamedThreadFactory("chat-room"));
+    }
+
+    // Tråde til rummenes fanout-lanes i beskedpipelinen. Bruges kun når chat.pipeline.fanout-threads > 0
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService fanoutExecutor() {
+        return Executors.newFixedThreadPool(Math.max(1, properties.getPipeline().getFanoutThreads()),
+                new NamedThreadFactory("chat-fanout"));
+    }
+
+    // Virtuelle tråde til indkommende beskeder. Bruges kun når chat.execution.mode=VIRTUAL
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService inboundExecutor() {
+        if (properties.getExecution().getMode() == ExecutionMode.VIRTUAL) {
+            return VirtualThreads.newPerTaskExecutor("chat-inbound");
+        }
+        return Executors.newCachedThreadPool(new NamedThreadFactory("chat-inbound"));
+    }
+
+    // Timer der udløser samlede udsendelser i rum med COALESCE
+    @Bean(destroyMethod = "shutdown")
+    public ScheduledExecutorService deliveryTimer() {
+        return Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("chat-delivery"));
+    }
+
+    // Forbindelsen til de andre chat-noder. Uden peers er serveren en enkelt node
+    @Bean(destroyMethod = "close")
+    public ClusterBus clusterBus() {
+        ChatProperties.Cluster cluster = properties.getCluster();
+        if (cluster.getTransport() == ClusterBus.Transport.IN_MEMORY) {
+            return new InMemoryClusterBus(cluster.getNodeId(), new InMemoryClusterBus.Hub());
+        }
+        SocketClusterBus bus;
+        try {
+            bus = new SocketClusterBus(cluster.getNodeId(), cluster.getHost(), cluster.getPort(), cluster.getQueueCapacity());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open cluster port " + cluster.getPort(), e);
+        }
+        for (String peer : cluster.getPeers()) {
+            int colon = peer.lastIndexOf(':');
+            bus.connect(new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+        }
+        return bus;
+    }
+
     @Bean
     public ChatHandler chatHandler() {
-        return new ChatHandler();
+        return new ChatHandler(properties, outboundExecutor(), authenticator(), credentialCache(), historyStore(),
+                offlineInbox(), fileStore(), searchIndex(), chatClock(), clusterBus(), roomExecutor(), fanoutExecutor(), inboundExecutor(), chatMetrics(), deliveryTimer());
+    }
+
+    // Drain og snapshot ved nedlukning
+    @Bean
+    public WarmRestart warmRestart() {
+        return new WarmRestart(chatHandler(), credentialCache(), historyStore(), stateSnapshot(), properties.getSnapshot());
+    }
+
+    // Tomcat forhandler udvidelser ud fra requestens headers (ikke handshake-handlerens valg), så når
+    // permessage-deflate er slået fra, skjules klientens tilbud før upgrade. Det er Tomcats eneste udvidelse
+    @Bean
+    public FilterRegistrationBean<Filter> extensionFilter() {
+        Filter filter = (request, response, chain) -> chain.doFilter(new HttpServletRequestWrapper((HttpServletRequest) request) {
+            @Override
+            public String getHeader(String name) {
+                return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? null : super.getHeader(name);
+            }
+
+            @Override
+            public Enumeration<String> getHeaders(String name) {
+                return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+            }
+        }, response);
+        FilterRegistrationBean<Filter> registration = new FilterRegistrationBean<>(filter);
+        registration.addUrlPatterns("/chat");
+        registration.setEnabled(!properties.getCompression().isPermessageDeflate());
+        return registration;
     }
 
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
-        registry.addHandler(chatHandler(), "/chat").setAllowedOrigins("*");
+        // Klienter der beder om subprotokollen chat.bin.v1 (eller chat.bin.v1+deflate) får den binære protokol, alle andre tekst
+        DefaultHandshakeHandler handshakeHandler = new DefaultHandshakeHandler();
+        handshakeHandler.setSupportedProtocols(FrameCompressor.PROTOCOL, BinaryFrameCodec.PROTOCOL);
+        registry.addHandler(chatHandler(), "/chat").setHandshakeHandler(handshakeHandler).setAllowedOrigins("*");
     }
 
 }
@@ -3,7 +3,8 @@ package com.example.chatserverweb;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(properties = {"chat.db.url=jdbc:sqlite:target/test-chat.db", "chat.files.dir=target/test-files",
+        "chat.snapshot.file=target/test-snapshot.bin"})
 class ChatServerWebApplicationTests {
 
     @Test
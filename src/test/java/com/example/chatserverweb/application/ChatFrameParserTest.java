@@ -0,0 +1,114 @@
+package com.example.chatserverweb.application;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Fuzz-test der sammenligner ChatFrameParser med den gamle split-baserede parsing
+class ChatFrameParserTest {
+
+    private static final String[] TYPES = {
+            "LOGIN", "login", "Resume", "TEXT", "text", "tExT", "EMOJI", "JOIN_ROOM", "join_room",
+            "HISTORY", "PRIVATE", "private", "INFO", "TOKEN", "FOO", "", "TEX", "TEXTS", "joın_room", "reſume"
+    };
+    private static final char[] ALPHABET = {'a', 'b', 'Z', '1', '|', '|', ' ', '/', 'w', 'ø', '😀'};
+
+    @Test
+    void matchesSplitBasedParsingOnRandomFrames() {
+        Random random = new Random(42);
+        ChatFrameParser parser = new ChatFrameParser();
+        for (int i = 0; i < 200_000; i++) {
+            String payload = randomPayload(random);
+            String[] parts = payload.split("\\|", 4);
+            boolean valid = parser.parse(payload);
+            assertEquals(parts.length >= 3, valid, payload);
+            if (!valid) continue;
+
+            assertEquals(parts[0], parser.clientId(), payload);
+            assertEquals(parts[1], parser.timestamp(), payload);
+            assertEquals(parts[2], parser.typeText(), payload);
+            String content = parts.length > 3 ? parts[3] : "";
+            assertEquals(content, parser.content(), payload);
+            assertEquals(referenceType(parts[2]), parser.type(), payload);
+
+            // Underfelter som LOGIN, PRIVATE og HISTORY deler med split("\\|", 2)
+            String[] pair = content.split("\\|", 2);
+            assertEquals(pair[0], ChatFrameParser.head(content), payload);
+            assertEquals(pair.length == 2 ? pair[1] : null, ChatFrameParser.tail(content), payload);
+            // JOIN_ROOM brugte split("\\|")[0], som kastede hvis indholdet kun bestod af |
+            String[] all = content.split("\\|");
+            if (all.length > 0) {
+                assertEquals(all[0], ChatFrameParser.head(content), payload);
+            }
+        }
+    }
+
+    @Test
+    void rejectsFramesWithFewerThanThreeFields() {
+        ChatFrameParser parser = new ChatFrameParser();
+        assertFalse(parser.parse(""));
+        assertFalse(parser.parse("a|b"));
+        assertTrue(parser.parse("a|b|"));
+        assertNull(parser.type());
+        assertEquals("", parser.content());
+    }
+
+    @Test
+    void keepsPipesInContent() {
+        ChatFrameParser parser = new ChatFrameParser();
+        assertTrue(parser.parse("alice|2026-01-01 10:00:00|login|alice|pa|ss"));
+        assertEquals(FrameType.LOGIN, parser.type());
+        assertEquals("alice|pa|ss", parser.content());
+        assertEquals("alice", ChatFrameParser.head(parser.content()));
+        assertEquals("pa|ss", ChatFrameParser.tail(parser.content()));
+    }
+
+    // Den gamle parsing: switch (type.toUpperCase()) over de typer klienten må sende
+    private static FrameType referenceType(String type) {
+        switch (type.toUpperCase()) {
+            case "LOGIN": return FrameType.LOGIN;
+            case "RESUME": return FrameType.RESUME;
+            case "TEXT": return FrameType.TEXT;
+            case "EMOJI": return FrameType.EMOJI;
+            case "JOIN_ROOM": return FrameType.JOIN_ROOM;
+            case "HISTORY": return FrameType.HISTORY;
+            case "PRIVATE": return FrameType.PRIVATE;
+            default: return null;
+        }
+    }
+
+    private static String randomPayload(Random random) {
+        StringBuilder sb = new StringBuilder();
+        if (random.nextInt(4) == 0) {
+            // Helt tilfældig streng
+            int len = random.nextInt(12);
+            for (int i = 0; i < len; i++) sb.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+            return sb.toString();
+        }
+        randomField(random, sb);
+        sb.append('|');
+        randomField(random, sb);
+        if (random.nextInt(10) > 0) {
+            sb.append('|').append(TYPES[random.nextInt(TYPES.length)]);
+            if (random.nextInt(5) > 0) {
+                sb.append('|');
+                int len = random.nextInt(10);
+                for (int i = 0; i < len; i++) sb.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void randomField(Random random, StringBuilder sb) {
+        int len = random.nextInt(4);
+        for (int i = 0; i < len; i++) {
+            char c = ALPHABET[random.nextInt(ALPHABET.length)];
+            sb.append(c == '|' ? 'x' : c);
+        }
+    }
+}
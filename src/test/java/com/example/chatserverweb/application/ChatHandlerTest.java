@@ -0,0 +1,452 @@
+package com.example.chatserverweb.application;
+
+import com.example.chatserverweb.config.ChatProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.Principal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Hele handleren med rigtige lagre i en midlertidig mappe og sessioner der bare samler det
+// serveren sender. Noderne i en test deler en InMemoryClusterBus-hub
+class ChatHandlerTest {
+
+    private static final String RS = String.valueOf(OutboundFrame.RECORD_SEPARATOR);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void acknowledgedRoomIsNumberedOnEachNode() throws Exception {
+        InMemoryClusterBus.Hub hub = new InMemoryClusterBus.Hub();
+        Consumer<ChatProperties> acknowledged = p -> p.getDelivery().setAcknowledgedRooms(List.of("general"));
+        try (Node a = new Node(dir, "a", hub, acknowledged); Node b = new Node(dir, "b", hub, acknowledged)) {
+            FakeSession alice = a.login("alice", null);
+            FakeSession carol = b.login("carol", null);
+            FakeSession bob = b.login("bob", BinaryFrameCodec.PROTOCOL);
+
+            a.text(alice, "TEXT|hello across nodes");
+
+            String seq = carol.awaitText(f -> f.contains("|SEQ|"));
+            assertTrue(seq.contains("|SEQ|general|"), seq);
+            assertTrue(seq.contains(RS + "alice|"), seq);
+            assertTrue(seq.endsWith("|TEXT|hello across nodes"), seq);
+
+            ByteBuffer frame = bob.awaitBinary(f -> (f.get(0) & 0xFF) == FrameType.SEQ.getCode());
+            frame.get();
+            byte[] header = new byte[BinaryFrameCodec.getVarint(frame)];
+            frame.get(header);
+            assertTrue(new String(header, StandardCharsets.UTF_8).startsWith("general|"));
+            assertEquals(FrameType.TEXT.getCode(), frame.get() & 0xFF);
+            assertTrue(bob.isOpen());
+        }
+    }
+
+    @Test
+    void connectionClosedWhileLoginCompletesFreesTheName() throws Exception {
+        try (Node a = new Node(dir, "a", new InMemoryClusterBus.Hub(), p -> {
+        })) {
+            FakeSession first = a.connect(null);
+            first.awaitText(f -> f.contains("Welcome"));
+            // Containeren melder forbindelsen lukket lige efter completeLogin har set den åben
+            first.onOpenCheck = () -> {
+                first.open = false;
+                a.handler.afterConnectionClosed(first, CloseStatus.GOING_AWAY);
+            };
+            a.text(first, "LOGIN|alice|secret");
+
+            // Der er én verifikationstråd, så det første login er færdigt før det næste verificeres
+            FakeSession second = a.login("alice", null);
+            a.text(second, "TEXT|/list");
+            assertTrue(second.awaitText(f -> f.contains("Users in room:")).endsWith("|INFO|Users in room: alice"));
+            assertNull(first.onOpenCheck);
+        }
+    }
+
+    @Test
+    void binaryFieldsAreNotSplitAgain() throws Exception {
+        try (Node a = new Node(dir, "a", new InMemoryClusterBus.Hub(), p -> {
+        })) {
+            FakeSession alice = a.login("alice", null);
+            FakeSession bob = a.connect(BinaryFrameCodec.PROTOCOL);
+            a.binary(bob, FrameType.LOGIN, "bob", "pa|ss");
+            bob.awaitBinary(f -> (f.get(0) & 0xFF) == FrameType.TOKEN.getCode());
+
+            a.binary(bob, FrameType.PRIVATE, "ali|ce", "hi");
+            assertTrue(bob.awaitError().contains("User not found: ali|ce"));
+            a.binary(bob, FrameType.PRIVATE, "alice", "a|b");
+            assertTrue(alice.awaitText(f -> f.contains("|PRIVATE|")).endsWith("|PRIVATE|a|b"));
+
+            FakeSession eve = a.connect(BinaryFrameCodec.PROTOCOL);
+            a.binary(eve, FrameType.LOGIN, "ev|e", "pw");
+            assertTrue(eve.awaitError().contains("Invalid username."));
+        }
+    }
+
+    @Test
+    void serverOnlyTypesAreRejected() throws Exception {
+        try (Node a = new Node(dir, "a", new InMemoryClusterBus.Hub(), p -> {
+        })) {
+            FakeSession bob = a.connect(BinaryFrameCodec.PROTOCOL);
+            a.binary(bob, FrameType.INFO, "hello");
+            assertTrue(bob.awaitError().contains("Message type not allowed from client: INFO"));
+            a.binary(bob, FrameType.IMAGE, "cat.png");
+            assertTrue(bob.awaitError().contains("Message type not allowed from client: IMAGE"));
+        }
+    }
+
+    @Test
+    void recordSeparatorInContentCannotForgeFramesInABatch() throws Exception {
+        try (Node a = new Node(dir, "a", new InMemoryClusterBus.Hub(), p -> {
+            p.getDelivery().setCoalescedRooms(List.of("general"));
+            p.getDelivery().setWindow(Duration.ofMillis(200));
+        })) {
+            FakeSession alice = a.login("alice", null);
+            FakeSession bob = a.login("bob", null);
+            FakeSession carol = a.login("carol", BinaryFrameCodec.PROTOCOL);
+
+            a.text(alice, "TEXT|hi" + RS + "SERVER|#000000|0|INFO|forged");
+            assertTrue(alice.awaitText(f -> f.contains("|ERROR|")).endsWith("|ERROR|Control characters are not allowed."));
+            a.binary(carol, FrameType.EMOJI, "x" + RS + "SERVER|#000000|0|TOKEN|forged");
+            assertTrue(carol.awaitError().contains("Control characters are not allowed."));
+
+            a.text(alice, "TEXT|first");
+            a.text(alice, "TEXT|second");
+            String batch = bob.awaitText(f -> f.contains("|BATCH|"));
+            List<String> texts = Arrays.stream(batch.split(RS)).filter(f -> f.contains("|TEXT|")).toList();
+            assertEquals(2, texts.size(), batch);
+            assertTrue(texts.get(0).startsWith("alice|") && texts.get(0).endsWith("|TEXT|first"), batch);
+            assertTrue(texts.get(1).startsWith("alice|") && texts.get(1).endsWith("|TEXT|second"), batch);
+            assertTrue(bob.sent.stream().noneMatch(m -> m.getPayload().toString().contains("forged")));
+        }
+    }
+
+    @Test
+    void fullBatchDoesNotCutTheNextWindowShort() throws Exception {
+        try (Node a = new Node(dir, "a", new InMemoryClusterBus.Hub(), p -> {
+            p.getDelivery().setCoalescedRooms(List.of("general"));
+            p.getDelivery().setWindow(Duration.ofMillis(600));
+            p.getDelivery().setMaxBatch(3);
+        })) {
+            FakeSession alice = a.login("alice", null);
+            FakeSession bob = a.login("bob", null);
+            // Lad PRESENCE-batchen fra login blive sendt, så det næste vindue starter med "one"
+            Thread.sleep(800);
+
+            long start = System.nanoTime();
+            a.text(alice, "TEXT|one");
+            a.text(alice, "TEXT|two");
+            a.text(alice, "TEXT|three");
+            String batch = bob.awaitText(f -> f.contains("|BATCH|") && f.contains("|TEXT|"));
+            assertTrue(batch.endsWith("|TEXT|three"), batch);
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(400), "Full batch waited for the window");
+
+            // Den fulde batchs timer ville udløbe ca. 300 ms efter "four"; "four" skal vente sit eget vindue
+            Thread.sleep(300);
+            long sent = System.nanoTime();
+            a.text(alice, "TEXT|four");
+            bob.awaitText(f -> f.endsWith("|TEXT|four"));
+            long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sent);
+            assertTrue(waited >= 500, "Delivered after " + waited + " ms");
+        }
+    }
+
+    @Test
+    void symbolPrecedesEveryUseWithConcurrentSenders() throws Exception {
+        try (Node a = new Node(dir, "a", new InMemoryClusterBus.Hub(), p -> {
+        })) {
+            int senders = 64;
+            List<FakeSession> users = new ArrayList<>();
+            for (int i = 0; i < senders; i++) users.add(a.login("user" + i, null));
+            FakeSession carol = a.login("carol", BinaryFrameCodec.PROTOCOL);
+
+            // Hver afsender når carol både direkte (PRIVATE fra sin egen tråd) og via rummets mailbox
+            ExecutorService threads = Executors.newFixedThreadPool(senders);
+            CountDownLatch start = new CountDownLatch(1);
+            for (FakeSession user : users) {
+                threads.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    a.text(user, "TEXT|hello");
+                    a.text(user, "PRIVATE|carol|hi");
+                });
+            }
+            start.countDown();
+
+            Set<Integer> known = new HashSet<>();
+            int messages = 0;
+            while (messages < 2 * senders) {
+                ByteBuffer frame = carol.awaitBinary(f -> true);
+                int type = frame.get() & 0xFF;
+                int id = BinaryFrameCodec.getVarint(frame);
+                if (type == FrameType.SYMBOL.getCode()) {
+                    known.add(id);
+                } else if (type == FrameType.TEXT.getCode() || type == FrameType.PRIVATE.getCode()) {
+                    // (SERVERs SYMBOL kom før TOKEN, som login ventede på)
+                    assertTrue(known.contains(id), "Sender " + id + " used before its SYMBOL");
+                    messages++;
+                }
+            }
+            threads.shutdownNow();
+        }
+    }
+
+    // En node med sine egne lagre i dir/id
+    static final class Node implements AutoCloseable {
+        final ChatHandler handler;
+        final ChatProperties properties = new ChatProperties();
+        final ConnectionPool pool;
+        final ExecutorService db = Executors.newFixedThreadPool(2);
+        final ExecutorService outbound = Executors.newFixedThreadPool(2);
+        final ExecutorService rooms = Executors.newFixedThreadPool(2);
+        final ExecutorService fanout = Executors.newFixedThreadPool(2);
+        final ExecutorService inbound = Executors.newCachedThreadPool();
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        final Authenticator authenticator;
+        final HistoryStore history;
+        final OfflineInbox inbox;
+        final SearchIndex search;
+        final ChatClock clock = new ChatClock(ChatClock.Mode.EPOCH_MILLIS, Duration.ofSeconds(1));
+        final InMemoryClusterBus bus;
+        private int sessions;
+
+        Node(Path dir, String id, InMemoryClusterBus.Hub hub, Consumer<ChatProperties> settings) throws Exception {
+            this(dir, id, hub, settings, new CredentialCache(Duration.ofMinutes(5)));
+        }
+
+        Node(Path dir, String id, InMemoryClusterBus.Hub hub, Consumer<ChatProperties> settings,
+             CredentialCache credentials) throws Exception {
+            properties.getAuth().setIterations(1_000);
+            properties.getRate().setEnabled(false);
+            settings.accept(properties);
+            ChatMetrics metrics = new ChatMetrics(new SimpleMeterRegistry(), 0, 1);
+            pool = new ConnectionPool("jdbc:sqlite:" + dir.resolve(id + ".db"), 2);
+            authenticator = new Authenticator(new SqliteUserRepository(pool), new PasswordHasher(1_000), 1, 64);
+            history = new HistoryStore(pool, db, 50, 16, 1_000, metrics);
+            inbox = new OfflineInbox(pool, 16, 1_000, 16, metrics);
+            search = new SearchIndex(pool, db, 16, 1_000, metrics);
+            FileStore files = new FileStore(dir.resolve(id + "-files"), pool, db, 1 << 20, 1 << 20, 1 << 16, metrics);
+            bus = new InMemoryClusterBus(id, hub);
+            handler = new ChatHandler(properties, outbound, authenticator, credentials,
+                    history, inbox, files, search, clock, bus, rooms, fanout, inbound, metrics, timer);
+        }
+
+        FakeSession connect(String protocol) {
+            FakeSession session = new FakeSession("s" + ++sessions, protocol);
+            handler.afterConnectionEstablished(session);
+            return session;
+        }
+
+        // Forbinder og logger ind; venter på TOKEN
+        FakeSession login(String user, String protocol) throws InterruptedException {
+            FakeSession session = connect(protocol);
+            text(session, "LOGIN|" + user + "|secret");
+            if (protocol == null) {
+                session.awaitText(f -> f.contains("|TOKEN|"));
+            } else {
+                session.awaitBinary(f -> (f.get(0) & 0xFF) == FrameType.TOKEN.getCode());
+            }
+            return session;
+        }
+
+        // Sender type|indhold som klient, i tekstprotokollen
+        void text(FakeSession session, String frame) {
+            handler.handleTextMessage(session, new TextMessage("test|0|" + frame));
+        }
+
+        // Sender en frame som klient, i den binære protokol
+        void binary(FakeSession session, FrameType type, String... fields) {
+            ByteBuffer buf = ByteBuffer.allocate(1024);
+            buf.put((byte) type.getCode());
+            BinaryFrameCodec.putVarint(buf, fields.length);
+            for (String field : fields) {
+                byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+                BinaryFrameCodec.putVarint(buf, bytes.length);
+                buf.put(bytes);
+            }
+            handler.handleBinaryMessage(session, new BinaryMessage(buf.flip()));
+        }
+
+        @Override
+        public void close() {
+            bus.close();
+            authenticator.close();
+            history.close();
+            inbox.close();
+            search.close();
+            clock.close();
+            timer.shutdownNow();
+            for (ExecutorService e : List.of(inbound, fanout, rooms, outbound, db)) e.shutdownNow();
+            pool.close();
+        }
+    }
+
+    // En session der gemmer hvad serveren sender
+    static final class FakeSession implements WebSocketSession {
+        final String id;
+        final String protocol;
+        final BlockingQueue<WebSocketMessage<?>> sent = new LinkedBlockingQueue<>();
+        final Map<String, Object> attributes = new ConcurrentHashMap<>();
+        volatile boolean open = true;
+        // Køres (én gang) ved næste isOpen, der så svarer som om forbindelsen stadig var åben
+        volatile Runnable onOpenCheck;
+        volatile int binaryLimit = 8192;
+
+        FakeSession(String id, String protocol) {
+            this.id = id;
+            this.protocol = protocol;
+        }
+
+        String awaitText(Predicate<String> match) throws InterruptedException {
+            WebSocketMessage<?> m = await(f -> f instanceof TextMessage t && match.test(t.getPayload()));
+            return ((TextMessage) m).getPayload();
+        }
+
+        ByteBuffer awaitBinary(Predicate<ByteBuffer> match) throws InterruptedException {
+            WebSocketMessage<?> m = await(f -> f instanceof BinaryMessage b && match.test(b.getPayload().duplicate()));
+            return ((BinaryMessage) m).getPayload().duplicate();
+        }
+
+        // Teksten i næste ERROR-frame, i den binære protokol
+        String awaitError() throws InterruptedException {
+            ByteBuffer frame = awaitBinary(f -> (f.get(0) & 0xFF) == FrameType.ERROR.getCode());
+            return StandardCharsets.UTF_8.decode(frame).toString();
+        }
+
+        private WebSocketMessage<?> await(Predicate<WebSocketMessage<?>> match) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (true) {
+                WebSocketMessage<?> m = sent.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                assertNotNull(m, "Nothing matching sent to " + id);
+                if (match.test(m)) return m;
+            }
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public URI getUri() {
+            return URI.create("ws://localhost/chat");
+        }
+
+        @Override
+        public HttpHeaders getHandshakeHeaders() {
+            return new HttpHeaders();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public String getAcceptedProtocol() {
+            return protocol;
+        }
+
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getTextMessageSizeLimit() {
+            return 8192;
+        }
+
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+            binaryLimit = messageSizeLimit;
+        }
+
+        @Override
+        public int getBinaryMessageSizeLimit() {
+            return binaryLimit;
+        }
+
+        @Override
+        public List<WebSocketExtension> getExtensions() {
+            return List.of();
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            sent.add(message);
+        }
+
+        @Override
+        public boolean isOpen() {
+            Runnable check = onOpenCheck;
+            if (check != null) {
+                onOpenCheck = null;
+                check.run();
+                return true;
+            }
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        @Override
+        public void close(CloseStatus status) {
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.chatserverweb.application;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Kun rasterbilleder vises i browseren. Alt andet, også SVG med script, hentes som vedhæftet fil,
+// og alle svar under /files har nosniff og en CSP uden script. En fil der er kortere på disken end
+// registreret giver en fejl i stedet for en download der aldrig bliver færdig
+class FileControllerTest {
+
+    @TempDir
+    Path dir;
+
+    private ConnectionPool pool;
+    private ExecutorService io;
+    private FileStore files;
+    private FileController controller;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        pool = new ConnectionPool("jdbc:sqlite:" + dir.resolve("files.db"), 1);
+        io = Executors.newSingleThreadExecutor();
+        ChatMetrics metrics = new ChatMetrics(new SimpleMeterRegistry(), 0, 1);
+        files = new FileStore(dir.resolve("files"), pool, io, 1 << 20, 1 << 20, 1 << 16, metrics);
+        controller = new FileController(files, metrics);
+    }
+
+    @AfterEach
+    void tearDown() {
+        io.shutdown();
+        pool.close();
+    }
+
+    private MockHttpServletResponse download(String name, String content) throws Exception {
+        return download(store(name, content).id());
+    }
+
+    private MockHttpServletResponse download(String id) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.download(id, new MockHttpServletRequest("GET", "/files/" + id), response);
+        return response;
+    }
+
+    private FileStore.StoredFile store(String name, String content) throws Exception {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        CompletableFuture<FileStore.StoredFile> stored = new CompletableFuture<>();
+        FileStore.Upload upload = files.begin("alice", name, bytes.length, new FileStore.UploadListener() {
+            @Override
+            public void onProgress(FileStore.Upload upload, long received) {
+            }
+
+            @Override
+            public void onComplete(FileStore.Upload upload, FileStore.StoredFile file) {
+                stored.complete(file);
+            }
+
+            @Override
+            public void onFailed(FileStore.Upload upload, String reason) {
+                stored.completeExceptionally(new IllegalStateException(reason));
+            }
+        });
+        assertTrue(upload.write(ByteBuffer.wrap(bytes)));
+        return stored.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void svgIsAnAttachment() throws Exception {
+        MockHttpServletResponse response = download("evil.svg",
+                "<svg xmlns=\"http://www.w3.org/2000/svg\"><script>alert(1)</script></svg>");
+        assertTrue(response.getHeader("Content-Disposition").startsWith("attachment"));
+        assertEquals("nosniff", response.getHeader("X-Content-Type-Options"));
+        assertTrue(response.getHeader("Content-Security-Policy").contains("default-src 'none'"));
+        assertTrue(response.getHeader("Content-Security-Policy").contains("sandbox"));
+    }
+
+    @Test
+    void rasterImagesAreShownInline() throws Exception {
+        assertTrue(download("cat.png", "not really a png").getHeader("Content-Disposition").startsWith("inline"));
+        assertTrue(download("page.html", "<script>alert(1)</script>").getHeader("Content-Disposition")
+                .startsWith("attachment"));
+    }
+
+    @Test
+    void truncatedFileIsAnErrorAndNotAnEndlessTransfer() throws Exception {
+        FileStore.StoredFile file = store("notes.txt", "0123456789".repeat(100));
+        try (FileChannel channel = FileChannel.open(file.path(), StandardOpenOption.WRITE)) {
+            channel.truncate(10);
+        }
+        MockHttpServletResponse response = assertTimeoutPreemptively(Duration.ofSeconds(5), () -> download(file.id()));
+        assertEquals(500, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+
+        assertEquals(1000, download(store("full.txt", "0123456789".repeat(100)).id()).getContentAsByteArray().length);
+    }
+
+    @Test
+    void missingFileStillGetsTheHeaders() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.download("0".repeat(32), new MockHttpServletRequest(), response);
+        assertEquals(404, response.getStatus());
+        assertEquals("nosniff", response.getHeader("X-Content-Type-Options"));
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.chatserverweb.application;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Numrene stiger med én pr. frame, et hul kan kun hentes så længe det er i ringen, og
+// SEQ-framen bærer rum og nummer foran den oprindelige frame i begge protokoller.
+class RetransmitWindowTest {
+
+    private static OutboundFrame text(String content) {
+        return new OutboundFrame("alice", "#112233", 1_000L, FrameType.TEXT, content);
+    }
+
+    @Test
+    void stampsConsecutiveNumbersAndReplaysTheGap() {
+        RetransmitWindow window = new RetransmitWindow("general", 4);
+        assertEquals(0, window.head());
+        OutboundFrame first = window.stamp(text("one"), 10);
+        window.stamp(text("two"), 20);
+        window.stamp(text("three"), 30);
+
+        assertEquals(3, window.head());
+        assertEquals(FrameType.SEQ, first.getType());
+        assertEquals("general|1", first.getContent());
+        List<OutboundFrame> gap = window.since(1);
+        assertEquals(List.of("general|2", "general|3"), gap.stream().map(OutboundFrame::getContent).toList());
+        assertEquals("two", gap.get(0).getParts().get(0).getContent());
+        assertTrue(window.since(3).isEmpty());
+        assertEquals(20, window.stampedAt(2));
+    }
+
+    @Test
+    void gapOlderThanTheRingIsNotCovered() {
+        RetransmitWindow window = new RetransmitWindow("general", 2);
+        for (int i = 1; i <= 5; i++) window.stamp(text("m" + i), i);
+
+        assertTrue(window.covers(3));
+        assertTrue(window.covers(5));
+        assertFalse(window.covers(2));
+        assertFalse(window.covers(6));
+        assertEquals("general|5", window.since(3).get(1).getContent());
+        assertThrows(IllegalArgumentException.class, () -> window.since(2));
+    }
+
+    @Test
+    void sequencedFramePrecedesTheFrameInBothProtocols() {
+        OutboundFrame inner = text("hello");
+        OutboundFrame seq = OutboundFrame.sequenced("general", 7, inner);
+        try (ChatClock clock = new ChatClock(ChatClock.Mode.EPOCH_MILLIS, Duration.ofSeconds(1))) {
+            assertEquals("SERVER|#000000|1000|SEQ|general|7" + OutboundFrame.RECORD_SEPARATOR
+                    + "alice|#112233|1000|TEXT|hello", seq.text(clock).getPayload());
+        }
+
+        BinaryFrameCodec codec = new BinaryFrameCodec();
+        ByteBuffer buf = codec.encode(seq);
+        assertEquals(FrameType.SEQ.getCode(), buf.get() & 0xFF);
+        int len = BinaryFrameCodec.getVarint(buf);
+        byte[] header = new byte[len];
+        buf.get(header);
+        assertEquals("general|7", new String(header, StandardCharsets.UTF_8));
+        assertEquals(codec.encode(inner), buf);
+    }
+
+    @Test
+    void cumulativeAcksOnlyMoveForward() {
+        AckState acks = AckState.joined("general", 3);
+        assertFalse(acks.ack(2, 10));
+        assertTrue(acks.ack(6, 10));
+        assertFalse(acks.ack(11, 10));
+        assertEquals(6, acks.getAcked());
+        acks.retransmitted(100);
+        assertFalse(acks.due(50, 150, 100));
+        assertTrue(acks.due(50, 200, 100));
+        acks.skipTo(10);
+        assertEquals(10, acks.getAcked());
+        assertSame("general", acks.getRoom());
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.chatserverweb.application;
+
+import com.example.chatserverweb.Domain.Client;
+import com.example.chatserverweb.Domain.ClientStatus;
+import com.example.chatserverweb.Domain.Cred;
+import com.example.chatserverweb.Domain.MessageDeliveryPolicy;
+import com.example.chatserverweb.Domain.PresenceChange;
+import com.example.chatserverweb.Domain.Room;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Stresstest: mange tråde skifter rum og forlader rum samtidigt. Når alt er
+// kørt færdigt, skal hver bruger være i præcis det rum registret siger, og
+// brugere der har forladt deres rum må ikke være i noget rum.
+class RoomRegistryTest {
+
+    private static final int USERS = 200;
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 20_000;
+    private static final String[] ROOMS = {"general", "a", "b", "c", "d"};
+
+    @Test
+    void membershipInvariantsHoldUnderChurn() throws Exception {
+        ExecutorService mailboxes = Executors.newFixedThreadPool(4);
+        ExecutorService workers = Executors.newFixedThreadPool(THREADS);
+        try {
+            RoomRegistry registry = new RoomRegistry(mailboxes, (c, m) -> { });
+            List<Client> clients = new ArrayList<>();
+            for (int i = 0; i < USERS; i++) {
+                clients.add(new Client("user" + i, "user" + i, new Cred()));
+            }
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(THREADS);
+            for (int t = 0; t < THREADS; t++) {
+                workers.execute(() -> {
+                    try {
+                        start.await();
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        for (int i = 0; i < OPERATIONS; i++) {
+                            Client client = clients.get(random.nextInt(USERS));
+                            if (random.nextInt(5) == 0) {
+                                registry.leave(client);
+                            } else {
+                                registry.join(client, ROOMS[random.nextInt(ROOMS.length)]);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            start.countDown();
+            assertTrue(done.await(60, TimeUnit.SECONDS));
+
+            Map<String, List<String>> members = new HashMap<>();
+            for (String name : ROOMS) {
+                Room room = registry.room(name);
+                CountDownLatch flushed = new CountDownLatch(1);
+                room.execute(() -> {
+                    members.put(name, room.participantNames());
+                    flushed.countDown();
+                });
+                assertTrue(flushed.await(10, TimeUnit.SECONDS));
+            }
+
+            for (Client client : clients) {
+                String expected = registry.roomOf(client.getName());
+                int found = 0;
+                for (String name : ROOMS) {
+                    if (members.get(name).contains(client.getName())) {
+                        assertEquals(expected, name, client.getName() + " is in the wrong room");
+                        found++;
+                    }
+                }
+                assertEquals(expected == null ? 0 : 1, found, client.getName() + " is in " + found + " rooms");
+                if (expected != null) {
+                    assertEquals(expected, client.getCurrentRoom().getName());
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+            mailboxes.shutdownNow();
+        }
+    }
+
+    // Rosterændringerne i et rum har fortløbende versioner, og afspillet i rækkefølge giver
+    // de præcis rummets roster, som også kan hentes side for side
+    @Test
+    void presenceChangesReplayToRoster() throws Exception {
+        ExecutorService mailboxes = Executors.newFixedThreadPool(4);
+        try {
+            Map<String, List<PresenceChange>> changes = new ConcurrentHashMap<>();
+            RoomRegistry registry = new RoomRegistry(mailboxes, (c, m) -> { }, room -> MessageDeliveryPolicy.IMMEDIATE,
+                    (room, change) -> changes.computeIfAbsent(room.getName(), r -> new ArrayList<>()).add(change));
+            List<Client> clients = new ArrayList<>();
+            for (int i = 0; i < USERS; i++) {
+                Client client = new Client("user" + i, "user" + i, new Cred());
+                client.login();
+                clients.add(client);
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 2_000; i++) {
+                Client client = clients.get(random.nextInt(USERS));
+                registry.join(client, ROOMS[random.nextInt(ROOMS.length)]);
+            }
+            registry.room("a").addRemoteMember("remote");
+            Client last = clients.get(0);
+            registry.join(last, "b");
+            registry.logout(last);
+
+            for (String name : ROOMS) {
+                Room room = registry.room(name);
+                CountDownLatch flushed = new CountDownLatch(1);
+                List<String> paged = new ArrayList<>();
+                long[] version = new long[1];
+                room.execute(() -> {
+                    String cursor = null;
+                    do {
+                        Room.RosterPage page = room.rosterPage(cursor, 7);
+                        paged.addAll(page.names());
+                        cursor = page.next();
+                    } while (cursor != null);
+                    version[0] = room.rosterVersion();
+                    flushed.countDown();
+                });
+                assertTrue(flushed.await(10, TimeUnit.SECONDS));
+
+                List<PresenceChange> log = changes.getOrDefault(name, List.of());
+                TreeSet<String> replayed = new TreeSet<>();
+                for (int i = 0; i < log.size(); i++) {
+                    PresenceChange change = log.get(i);
+                    assertEquals(i + 1, change.version());
+                    if (change.joined()) replayed.add(change.user()); else replayed.remove(change.user());
+                }
+                assertEquals(log.size(), version[0]);
+                assertEquals(new ArrayList<>(replayed), paged);
+            }
+            assertTrue(changes.get("a").stream().anyMatch(c -> c.user().equals("remote") && c.joined()));
+            PresenceChange offline = changes.get("b").get(changes.get("b").size() - 1);
+            assertEquals(last.getName(), offline.user());
+            assertEquals(ClientStatus.OFFLINE, offline.status());
+            assertNull(registry.roomOf(last.getName()));
+        } finally {
+            mailboxes.shutdownNow();
+        }
+    }
+}
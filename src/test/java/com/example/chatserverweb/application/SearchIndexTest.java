@@ -0,0 +1,116 @@
+package com.example.chatserverweb.application;
+
+import com.example.chatserverweb.Domain.Client;
+import com.example.chatserverweb.Domain.Cred;
+import com.example.chatserverweb.Domain.TextMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Søgning afgrænses til rum og til egne private beskeder, og siderne hænger sammen
+// via cursoren. Indekseringen er asynkron, så testen venter på at kø'en er tømt.
+class SearchIndexTest {
+
+    @TempDir
+    Path dir;
+
+    private ConnectionPool pool;
+    private ExecutorService readers;
+    private SearchIndex index;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        pool = new ConnectionPool("jdbc:sqlite:" + dir.resolve("search.db"), 2);
+        pool.withConnection(conn -> {
+            try (Statement stmt = conn.getConnection().createStatement()) {
+                stmt.execute("CREATE TABLE messages (id INTEGER PRIMARY KEY, room TEXT NOT NULL, sender TEXT NOT NULL, "
+                        + "color TEXT, ts INTEGER NOT NULL, type TEXT NOT NULL, content TEXT NOT NULL)");
+                stmt.execute("INSERT INTO messages VALUES (1, 'general', 'carol', '#000000', 1, 'TEXT', 'stored before indexing')");
+            }
+            return null;
+        });
+        readers = Executors.newFixedThreadPool(2);
+        index = new SearchIndex(pool, readers, 64, 1_000,
+                new ChatMetrics(new SimpleMeterRegistry(), 0, 1));
+        index.indexRoom(2, "general", "alice", "#111111", 2, "lunch at noon?");
+        index.indexRoom(3, "random", "bob", "#222222", 3, "lunch is overrated");
+        index.indexPrivate(4, "alice", "bob", "#111111", 4, "secret lunch plans");
+        index.indexPrivate(5, "carol", "dave", "#333333", 5, "another lunch secret");
+        for (int i = 0; i < 30; i++) {
+            index.indexRoom(10 + i, "busy", "bob", "#222222", 10 + i, "ping number " + i);
+        }
+        index.close();
+    }
+
+    @AfterEach
+    void tearDown() {
+        readers.shutdown();
+        pool.close();
+    }
+
+    private List<Long> ids(String user, SearchIndex.Scope scope, String room, String query) throws Exception {
+        return index.search(user, scope, room, query, Long.MAX_VALUE, 100).get(5, TimeUnit.SECONDS)
+                .hits().stream().map(SearchIndex.Hit::id).toList();
+    }
+
+    @Test
+    void scopesLimitWhatAUserCanFind() throws Exception {
+        assertEquals(List.of(2L), ids("bob", SearchIndex.Scope.ROOM, "general", "lunch"));
+        assertEquals(List.of(4L), ids("bob", SearchIndex.Scope.PRIVATE, null, "lunch"));
+        assertEquals(List.of(4L, 3L, 2L), ids("alice", SearchIndex.Scope.ALL, null, "lunch"));
+        assertEquals(List.of(5L, 3L, 2L), ids("dave", SearchIndex.Scope.ALL, null, "LUNCH"));
+        assertEquals(List.of(), ids("eve", SearchIndex.Scope.PRIVATE, null, "secret"));
+        assertEquals(List.of(1L), ids("eve", SearchIndex.Scope.ROOM, "general", "stor*"));
+        assertEquals(List.of(), ids("eve", SearchIndex.Scope.ROOM, "general", "\"lunch\" OR noon)"));
+    }
+
+    @Test
+    void pagesFollowTheCursor() throws Exception {
+        SearchIndex.Page first = index.search("alice", SearchIndex.Scope.ROOM, "busy", "ping", Long.MAX_VALUE, 20)
+                .get(5, TimeUnit.SECONDS);
+        assertEquals(20, first.hits().size());
+        assertEquals(39L, first.hits().get(0).id());
+        SearchIndex.Page second = index.search("alice", SearchIndex.Scope.ROOM, "busy", "ping", first.next(), 20)
+                .get(5, TimeUnit.SECONDS);
+        assertEquals(10, second.hits().size());
+        assertEquals(0L, second.next());
+        assertEquals(10L, second.hits().get(9).id());
+        assertNull(index.search("alice", SearchIndex.Scope.ROOM, "busy", "  * ", Long.MAX_VALUE, 20).get());
+    }
+
+    @Test
+    void seqContinuesAfterPrivateMessagesAcrossRestart() throws Exception {
+        ChatMetrics metrics = new ChatMetrics(new SimpleMeterRegistry(), 0, 1);
+        // Den nyeste besked før genstarten var privat, så dens seq findes kun i søgeindekset
+        SearchIndex before = new SearchIndex(pool, readers, 64, 1_000, metrics);
+        before.indexPrivate(100, "alice", "bob", "#111111", 100, "last words before restart");
+        before.close();
+
+        HistoryStore history = new HistoryStore(pool, readers, 10, 16, 1_000, metrics);
+        SearchIndex after = new SearchIndex(pool, readers, 64, 1_000, metrics);
+        Client alice = new Client("alice", "alice", new Cred(), 1);
+        HistoryEntry entry = history.append("general", "#111111",
+                id -> new TextMessage("first words after restart", alice, new Date(101), Long.toString(id)));
+        after.indexRoom(entry.seq(), "general", "alice", "#111111", 101, entry.text());
+        history.close();
+        after.close();
+
+        assertTrue(entry.seq() > 100, "seq " + entry.seq());
+        assertEquals(List.of(entry.seq()), ids("bob", SearchIndex.Scope.ROOM, "general", "first words"));
+        assertEquals(List.of(100L), ids("bob", SearchIndex.Scope.PRIVATE, null, "restart"));
+    }
+}
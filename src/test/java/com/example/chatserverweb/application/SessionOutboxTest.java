@@ -0,0 +1,46 @@
+package com.example.chatserverweb.application;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// En fuld kø med DROP_OLDEST dropper de ældste almindelige frames, aldrig dem fra sendRequired
+class SessionOutboxTest {
+
+    private final List<Runnable> writer = new ArrayList<>();
+    private final ChatHandlerTest.FakeSession session = new ChatHandlerTest.FakeSession("s1", BinaryFrameCodec.PROTOCOL);
+    private final SessionOutbox outbox = new SessionOutbox(session, 2, OverflowPolicy.DROP_OLDEST, writer::add,
+            new ChatMetrics(new SimpleMeterRegistry(), 0, 1));
+
+    private static BinaryMessage frame(int n) {
+        return new BinaryMessage(new byte[]{(byte) n});
+    }
+
+    @Test
+    void requiredFramesAreNeverEvicted() {
+        BinaryMessage symbol = frame(0);
+        assertTrue(outbox.sendRequired(symbol));
+        assertTrue(outbox.send(frame(1)));
+        // Køen er fuld; frame 1 droppes, SYMBOL bliver
+        assertTrue(outbox.send(frame(2)));
+        assertEquals(2, outbox.depth());
+        assertTrue(outbox.sendRequired(frame(3)));
+        assertEquals(3, outbox.depth());
+        // Kun frames fra sendRequired tilbage når frame 2 er droppet: så droppes den nye
+        assertFalse(outbox.send(frame(4)));
+        assertEquals(3, outbox.dropped());
+
+        writer.remove(0).run();
+        List<Byte> sent = new ArrayList<>();
+        for (WebSocketMessage<?> m : session.sent) sent.add(((BinaryMessage) m).getPayload().get(0));
+        assertEquals(List.of((byte) 0, (byte) 3), sent);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.chatserverweb.application;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// To noder på localhost sender beskeder til hinanden gennem SocketClusterBus
+class SocketClusterBusTest {
+
+    @Test
+    void deliversMessagesBetweenNodes() throws Exception {
+        try (SocketClusterBus a = new SocketClusterBus("a", "127.0.0.1", 0, 64);
+             SocketClusterBus b = new SocketClusterBus("b", "127.0.0.1", 0, 64)) {
+            BlockingQueue<ClusterMessage> receivedByB = new LinkedBlockingQueue<>();
+            BlockingQueue<String> upAtA = new LinkedBlockingQueue<>();
+            b.subscribe(receivedByB::add);
+            a.subscribe(new ClusterBus.Listener() {
+                @Override
+                public void onClusterMessage(ClusterMessage message) {
+                }
+
+                @Override
+                public void onNodeUp(String nodeId) {
+                    upAtA.add(nodeId);
+                }
+            });
+            a.connect(new InetSocketAddress("127.0.0.1", b.getPort()));
+            assertNotNull(upAtA.poll(5, TimeUnit.SECONDS));
+
+            OutboundFrame frame = new OutboundFrame("alice", "#123456", 1_700_000_000_000L, FrameType.TEXT, "hej | ø 😀");
+            a.publish(ClusterMessage.room("a", "general", frame));
+            a.publish(ClusterMessage.presence("a", "alice", "general"));
+
+            ClusterMessage room = receivedByB.poll(5, TimeUnit.SECONDS);
+            assertNotNull(room);
+            assertEquals(ClusterMessage.Kind.ROOM, room.kind());
+            assertEquals("general", room.target());
+            assertEquals("alice", room.toFrame().getSender());
+            assertEquals("#123456", room.toFrame().getColor());
+            assertEquals(1_700_000_000_000L, room.toFrame().getTimestamp());
+            assertEquals(FrameType.TEXT, room.toFrame().getType());
+            assertEquals("hej | ø 😀", room.toFrame().getContent());
+
+            ClusterMessage presence = receivedByB.poll(5, TimeUnit.SECONDS);
+            assertNotNull(presence);
+            assertEquals(ClusterMessage.Kind.PRESENCE, presence.kind());
+            assertEquals("a", presence.origin());
+            assertEquals("alice", presence.target());
+        }
+    }
+
+    @Test
+    void presenceForgetsUsersOfLostNode() {
+        ClusterPresence presence = new ClusterPresence();
+        presence.update("alice", "a", "general");
+        presence.update("bob", "b", "general");
+        presence.remove("bob", "a");
+        assertEquals("b", presence.nodeOf("bob"));
+        presence.removeNode("a");
+        assertNull(presence.nodeOf("alice"));
+        assertEquals(java.util.List.of("bob"), presence.usersInRoom("general"));
+    }
+}
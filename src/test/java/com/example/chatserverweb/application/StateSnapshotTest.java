@@ -0,0 +1,122 @@
+package com.example.chatserverweb.application;
+
+import com.example.chatserverweb.application.ChatHandlerTest.FakeSession;
+import com.example.chatserverweb.application.ChatHandlerTest.Node;
+import com.example.chatserverweb.config.ChatProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// En drænet servers tokens kan bruges én gang på den næste, kun tokens med en lukket sessions
+// tilstand kommer med, og filen indeholder hverken tokenet selv eller AT_LEAST_ONCE-numre. En session
+// der genoptages i et AT_LEAST_ONCE-rum bliver derfor sendt til historikken
+class StateSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void suspendedTokensResumeOnceOnTheNextServer() throws Exception {
+        CredentialCache before = new CredentialCache(Duration.ofMinutes(30));
+        String alice = before.issue("alice");
+        before.suspend(alice, "#112233", "dev", 42, 7);
+        String bob = before.issue("bob");
+        Path file = dir.resolve("snapshot.bin");
+        StateSnapshot.write(file, before.suspended(), Map.of(), System.currentTimeMillis());
+        assertFalse(new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1).contains(alice));
+
+        StateSnapshot snapshot = StateSnapshot.open(file);
+        assertFalse(Files.exists(file));
+        assertEquals(1, snapshot.tokenCount());
+        CredentialCache after = new CredentialCache(Duration.ofMinutes(30), snapshot);
+        assertNull(after.consume(bob));
+        CredentialCache.Resumed resumed = after.consume(alice);
+        assertEquals(new CredentialCache.Resumed("alice", "#112233", "dev", 42, -1), resumed);
+        assertNull(after.consume(alice));
+    }
+
+    @Test
+    void historyIsReadPerRoomAndUnusedTokensCarryOver() throws Exception {
+        long now = System.currentTimeMillis();
+        long[] used = StateSnapshot.hash("used");
+        long[] fresh = StateSnapshot.hash("fresh");
+        long[] expired = StateSnapshot.hash("expired");
+        List<StateSnapshot.Token> tokens = List.of(
+                new StateSnapshot.Token(used[0], used[1], "alice", "#000001", "dev", 1, now + 60_000),
+                new StateSnapshot.Token(fresh[0], fresh[1], "bob", "#000002", "general", 2, now + 60_000),
+                new StateSnapshot.Token(expired[0], expired[1], "carol", "#000003", "general", 3, now - 1));
+        List<HistoryEntry> dev = List.of(
+                HistoryEntry.of(5, "dev", "alice", "#000001", 1_000, "TEXT", "hello"),
+                HistoryEntry.of(9, "dev", "bob", "#000002", 2_000, "FILE", "abc|notes.txt|12|text/plain"));
+        Path file = dir.resolve("snapshot.bin");
+        StateSnapshot.write(file, tokens, Map.of("dev", dev), now);
+
+        StateSnapshot snapshot = StateSnapshot.open(file);
+        assertEquals(now, snapshot.writtenAt());
+        assertTrue(snapshot.hasRoom("dev"));
+        assertTrue(snapshot.history("lobby").isEmpty());
+        List<HistoryEntry> restored = snapshot.history("dev");
+        assertEquals(List.of(5L, 9L), restored.stream().map(HistoryEntry::seq).toList());
+        assertEquals("hello", restored.get(0).text());
+        assertEquals("abc|notes.txt|12|text/plain", restored.get(1).text());
+        assertEquals("#000002", restored.get(1).color());
+
+        assertEquals("alice", snapshot.consume("used", now).username());
+        assertNull(snapshot.consume("expired", now));
+        List<String> carried = new ArrayList<>();
+        snapshot.forEachUnused(now, t -> carried.add(t.username()));
+        assertEquals(List.of("bob"), carried);
+    }
+
+    @Test
+    void resumeIntoAcknowledgedRoomFallsBackToHistory() throws Exception {
+        InMemoryClusterBus.Hub hub = new InMemoryClusterBus.Hub();
+        Consumer<ChatProperties> acknowledged = p -> p.getDelivery().setAcknowledgedRooms(List.of("general"));
+        CredentialCache before = new CredentialCache(Duration.ofMinutes(30));
+        String token;
+        try (Node a = new Node(dir, "a", hub, acknowledged, before)) {
+            FakeSession alice = a.connect(null);
+            a.text(alice, "LOGIN|alice|secret");
+            String frame = alice.awaitText(f -> f.contains("|TOKEN|"));
+            token = frame.substring(frame.lastIndexOf('|') + 1);
+            a.text(alice, "TEXT|before the restart");
+            alice.awaitText(f -> f.endsWith("|TEXT|before the restart"));
+
+            assertEquals(1, a.handler.drain(Duration.ZERO, Duration.ZERO, Duration.ofSeconds(5)));
+            alice.awaitText(f -> f.contains("|RECONNECT|"));
+            assertFalse(alice.isOpen());
+        }
+        Path file = dir.resolve("snapshot.bin");
+        StateSnapshot.write(file, before.suspended(), Map.of(), System.currentTimeMillis());
+
+        // Samme lagre som før genstarten
+        CredentialCache after = new CredentialCache(Duration.ofMinutes(30), StateSnapshot.open(file));
+        try (Node b = new Node(dir, "a", hub, acknowledged, after)) {
+            FakeSession alice = b.connect(null);
+            b.text(alice, "RESUME|" + token);
+            assertTrue(alice.awaitText(f -> f.contains("|INFO|Message numbering")).endsWith("Use HISTORY for older ones."));
+            alice.awaitText(f -> f.endsWith("|TEXT|before the restart"));
+            alice.awaitText(f -> f.contains("|HISTORY|"));
+        }
+    }
+
+    @Test
+    void missingFileIsAnEmptySnapshot() throws Exception {
+        StateSnapshot snapshot = StateSnapshot.open(dir.resolve("none.bin"));
+        assertEquals(0, snapshot.tokenCount());
+        assertNull(snapshot.consume("anything", System.currentTimeMillis()));
+    }
+}
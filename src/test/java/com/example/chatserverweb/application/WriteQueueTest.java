@@ -0,0 +1,62 @@
+package com.example.chatserverweb.application;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// En fuld kø afviser nye elementer, og en batch prøves igen før den opgives. Begge dele tælles
+class WriteQueueTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ChatMetrics metrics = new ChatMetrics(registry, 0, 1);
+    private final WriteQueue<Integer> queue = new WriteQueue<>(ChatMetrics.Writer.HISTORY, "numbers", 2, metrics,
+            Logger.getLogger(WriteQueueTest.class.getName()));
+
+    private double counter(String name) {
+        return registry.get(name).tag("writer", "history").counter().count();
+    }
+
+    @Test
+    void fullQueueRejectsAndCounts() throws Exception {
+        assertTrue(queue.offer(1));
+        assertTrue(queue.offer(2));
+        assertFalse(queue.offer(3));
+        assertFalse(queue.offer(4));
+        assertEquals(2, counter("chat.writer.overflow"));
+
+        List<Integer> batch = new ArrayList<>();
+        assertTrue(queue.take(batch, 10));
+        assertEquals(List.of(1, 2), batch);
+        assertTrue(queue.offer(5));
+    }
+
+    @Test
+    void failedBatchIsRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        assertTrue(queue.write(List.of(1, 2), b -> {
+            if (attempts.incrementAndGet() < 3) throw new SQLException("database is locked");
+        }));
+        assertEquals(3, attempts.get());
+        assertEquals(0, counter("chat.writer.lost"));
+    }
+
+    @Test
+    void batchIsCountedAsLostAfterTheLastAttempt() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        assertFalse(queue.write(List.of(1, 2, 3), b -> {
+            attempts.incrementAndGet();
+            throw new SQLException("disk I/O error");
+        }));
+        assertEquals(WriteQueue.ATTEMPTS, attempts.get());
+        assertEquals(3, counter("chat.writer.lost"));
+    }
+}